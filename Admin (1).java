@@ -21,6 +21,14 @@ public class Admin extends User {
         this.managedCourses = managedCourses;
     }
     
+    @Override
+    public Admin copy() {
+        Admin admin = new Admin(userId, username, email, passwordHash);
+        admin.setManagedCourses(new ArrayList<>(managedCourses));
+        admin.setVersion(version);
+        return admin;
+    }
+    
   
     public void addManagedCourse(String courseId) {
         if (!this.managedCourses.contains(courseId)) {
@@ -141,4 +149,4 @@ public class Admin extends User {
                 ", managedCourses=" + managedCourses.size() +
                 '}';
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
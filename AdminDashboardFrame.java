@@ -1,4 +1,6 @@
 package gui;
+import database.DatabaseWatcher;
+import database.DataStores;
 import java.awt.Dimension;
 import model.Admin;
 import model.Course;
@@ -28,6 +30,7 @@ this.admin = new Admin("A001", "admin", "admin@example.com", "password123");
     setupListeners();
     loadPendingCourses();
     updateStats();
+    DataStores.getDefault().addChangeListener(changeListener);
 }
 
 public AdminDashboardFrame(Admin admin) {
@@ -40,7 +43,8 @@ setupTableInTabs();
 setupTable();
     setupListeners();
     loadPendingCourses();
-    updateStats();}
+    updateStats();
+    DataStores.getDefault().addChangeListener(changeListener);}
 
 private void setupTable() {
     
@@ -159,6 +163,28 @@ private void showCourseDetails() {
     }
 }
 
+private final DatabaseWatcher.Listener changeListener = this::dataChanged;
+
+// Another client changed courses: reload the open tab and the counts
+private void dataChanged(java.util.Set<DatabaseWatcher.DataSet> changed) {
+    if (changed.contains(DatabaseWatcher.DataSet.COURSES)) {
+        SwingUtilities.invokeLater(() -> {
+            int tab = tabbedpane.getSelectedIndex();
+            if (tab == 0) loadPendingCourses();
+            else if (tab == 1) loadApprovedCourses();
+            else if (tab == 2) loadRejectedCourses();
+            else loadAllCourses();
+            updateStats();
+        });
+    }
+}
+
+@Override
+public void dispose() {
+    DataStores.getDefault().removeChangeListener(changeListener);
+    super.dispose();
+}
+
 private void updateStats() {
     AdminService.AdminStatistics stats = adminService.getStatistics();
     lblTotalCourses.setText("Total: " + stats.totalCourses);
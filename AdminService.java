@@ -1,16 +1,17 @@
 package service;
 
-import database.JsonDatabaseManager;
+import database.DataStore;
+import database.DataStores;
 import model.Course;
 import model.Course.ApprovalStatus;
 import java.util.ArrayList;
 import java.util.List;
 
 public class AdminService {
-    private JsonDatabaseManager dbManager;
+    private DataStore dbManager;
     
     public AdminService() {
-        this.dbManager = JsonDatabaseManager.getInstance();
+        this.dbManager = DataStores.getDefault();
     }
     public List<Course> getPendingCourses() {
         List<Course> allCourses = dbManager.getAllCourses();
@@ -67,10 +68,13 @@ public class AdminService {
             }
             
        
-            course.approve(adminUsername);
-            
-            // Save changes to database
-            dbManager.updateCourse(course);
+            // Save changes to database, re-applied if the course changed meanwhile
+            if (!OptimisticUpdates.updateCourse(dbManager, course.getCourseID(), c -> {
+                c.approve(adminUsername);
+                return true;
+            })) {
+                return false;
+            }
             
             System.out.println("Course '" + course.getCourseTitle() + "' approved successfully!");
             return true;
@@ -100,10 +104,13 @@ public class AdminService {
             }
             
             
-            course.reject(adminUsername, reason);
-            
-            // Save changes to database
-            dbManager.updateCourse(course);
+            // Save changes to database, re-applied if the course changed meanwhile
+            if (!OptimisticUpdates.updateCourse(dbManager, course.getCourseID(), c -> {
+                c.reject(adminUsername, reason);
+                return true;
+            })) {
+                return false;
+            }
             
             System.out.println("Course '" + course.getCourseTitle() + "' rejected.");
             return true;
@@ -1,29 +1,44 @@
 package service;
 
-import database.JsonDatabaseManager;
+import database.DataStore;
+import database.CourseAttemptStats;
+import database.StoreSnapshot;
 import model.*;
 
 import java.util.*;
 
 public class AnalyticsService {
     
-    private JsonDatabaseManager db;
+    private DataStore db;
     
-    public AnalyticsService(JsonDatabaseManager db) {
+    public AnalyticsService(DataStore db) {
         this.db = db;
     }
     
+    // Each report reads one snapshot of the store, so it never sees half of
+    // a concurrent change and never holds up writers while it runs. Pass the
+    // same snapshot to several reports to make them agree with each other.
+    public StoreSnapshot snapshot() {
+        return db.snapshot();
+    }
+    
     public List<StudentPerformance> getStudentPerformanceList(int courseId) {
-        List<StudentPerformance> performanceList = new ArrayList<>();
-        
-        // Load course
-        Course course = findCourse(courseId);
+        return getStudentPerformanceList(db.snapshot(), courseId);
+    }
+    
+    public List<StudentPerformance> getStudentPerformanceList(StoreSnapshot view, int courseId) {
+        Course course = view.getCourseById(courseId);
         if (course == null) {
-            return performanceList;
+            return new ArrayList<>();
         }
-        
-        // Load all users
-        List<User> users = db.loadUsers();
+        return getStudentPerformanceList(view, course, view.getCourseAttemptStats(courseId));
+    }
+    
+    private List<StudentPerformance> getStudentPerformanceList(StoreSnapshot view, Course course,
+                                                               CourseAttemptStats attempts) {
+        List<StudentPerformance> performanceList = new ArrayList<>();
+        int courseId = course.getCourseID();
+        List<Quiz> courseQuizzes = view.getQuizzesForCourse(courseId);
         
         // Get enrolled students
         List<Integer> enrolledStudentIds = course.getEnrolledStudentIDs();
@@ -32,7 +47,7 @@ public class AnalyticsService {
             String studentId = String.valueOf(studentIdInt);
             
             // Find student object
-            Student student = findStudent(studentId, users);
+            Student student = view.findStudent(studentId);
             if (student == null) continue;
             
             // Create performance object
@@ -48,12 +63,10 @@ public class AnalyticsService {
             int totalLessons = course.getLessons().size();
             perf.setTotalLessons(totalLessons);
             
-            List<String> completedLessons = student.getCompletedLessons()
-                .getOrDefault(String.valueOf(courseId), new ArrayList<>());
-            perf.setLessonsCompleted(completedLessons.size());
+            perf.setLessonsCompleted(student.getLessonCompletion(course).cardinality());
             
             // Calculate average quiz score
-            double avgQuizScore = calculateAverageQuizScore(studentId, courseId, course);
+            double avgQuizScore = calculateAverageQuizScore(attempts, courseQuizzes, studentId);
             perf.setAverageQuizScore(avgQuizScore);
             
             performanceList.add(perf);
@@ -62,54 +75,49 @@ public class AnalyticsService {
         return performanceList;
     }
     
-    private double calculateAverageQuizScore(String studentId, int courseId, Course course) {
-        List<Double> quizScores = new ArrayList<>();
-        
-        // Get all quizzes for this course
-        List<Quiz> courseQuizzes = db.getQuizzesForCourse(courseId);
-        
-        if (courseQuizzes.isEmpty()) {
-            return 0.0;
-        }
-        
-        // For each quiz, get the best score
+    private double calculateAverageQuizScore(CourseAttemptStats attempts, List<Quiz> courseQuizzes,
+                                             String studentId) {
+        // Average of the best score of each quiz attempted
+        double sum = 0.0;
+        int attempted = 0;
         for (Quiz quiz : courseQuizzes) {
-            List<QuizAttempt> attempts = db.getStudentQuizAttempts(studentId, quiz.getQuizId());
-            
-            if (!attempts.isEmpty()) {
-                // Find best score among all attempts
-                double bestScore = 0.0;
-                for (QuizAttempt attempt : attempts) {
-                    if (attempt.getScore() > bestScore) {
-                        bestScore = attempt.getScore();
-                    }
-                }
-                quizScores.add(bestScore);
+            if (attempts.hasAttempted(studentId, quiz.getQuizId())) {
+                sum += attempts.getBestScore(studentId, quiz.getQuizId());
+                attempted++;
             }
         }
         
-        // Calculate average of best scores
-        if (quizScores.isEmpty()) {
-            return 0.0;
-        }
-        
+        return attempted == 0 ? 0.0 : sum / attempted;
+    }
+    
+    // Average over the enrolled students who attempted the quiz of their best score
+    private double averageBestScore(CourseAttemptStats attempts, int[] enrolledStudents, Quiz quiz) {
         double sum = 0.0;
-        for (double score : quizScores) {
-            sum += score;
+        int attempted = 0;
+        for (int studentIdInt : enrolledStudents) {
+            String studentId = String.valueOf(studentIdInt);
+            if (attempts.hasAttempted(studentId, quiz.getQuizId())) {
+                sum += attempts.getBestScore(studentId, quiz.getQuizId());
+                attempted++;
+            }
         }
-        
-        return sum / quizScores.size();
+        return attempted == 0 ? 0.0 : sum / attempted;
     }
     
     public CourseStatistics getCourseStatistics(int courseId) {
-        Course course = findCourse(courseId);
+        return getCourseStatistics(db.snapshot(), courseId);
+    }
+    
+    public CourseStatistics getCourseStatistics(StoreSnapshot view, int courseId) {
+        Course course = view.getCourseById(courseId);
         if (course == null) {
             return null;
         }
         
         CourseStatistics stats = new CourseStatistics(courseId, course.getCourseTitle());
         
-        List<StudentPerformance> performances = getStudentPerformanceList(courseId);
+        CourseAttemptStats attempts = view.getCourseAttemptStats(courseId);
+        List<StudentPerformance> performances = getStudentPerformanceList(view, course, attempts);
         
         stats.setTotalStudentsEnrolled(performances.size());
         
@@ -135,22 +143,20 @@ public class AnalyticsService {
         stats.setStudentsCompleted(completed);
         
         // Calculate lesson statistics
-        for (Lesson lesson : course.getLessons()) {
+        List<LessonBitmap> completions = new ArrayList<>();
+        for (StudentPerformance perf : performances) {
+            Student student = view.findStudent(perf.getStudentId());
+            if (student != null) {
+                completions.add(student.getLessonCompletion(course));
+            }
+        }
+        List<Lesson> lessons = course.getLessons();
+        int[] completedCounts = LessonBitmap.countPerPosition(completions, lessons.size());
+        for (int i = 0; i < lessons.size(); i++) {
+            Lesson lesson = lessons.get(i);
             CourseStatistics.LessonStats lessonStats = 
                 new CourseStatistics.LessonStats(lesson.getLessonID(), lesson.getLessonTitle());
-            
-            int studentsCompletedLesson = 0;
-            
-            for (StudentPerformance perf : performances) {
-                Student student = findStudent(perf.getStudentId(), db.loadUsers());
-                if (student != null && 
-                    student.isLessonCompleted(String.valueOf(courseId), 
-                                             String.valueOf(lesson.getLessonID()))) {
-                    studentsCompletedLesson++;
-                }
-            }
-            
-            lessonStats.setStudentsCompleted(studentsCompletedLesson);
+            lessonStats.setStudentsCompleted(completedCounts[i]);
             stats.addLessonStats(lesson.getLessonID(), lessonStats);
         }
         
@@ -158,51 +164,23 @@ public class AnalyticsService {
     }
     
     public Map<String, Double> getQuizAveragesByLesson(int courseId) {
+        StoreSnapshot view = db.snapshot();
         Map<String, Double> lessonAverages = new LinkedHashMap<>();
         
-        Course course = findCourse(courseId);
+        Course course = view.getCourseById(courseId);
         if (course == null) {
             return lessonAverages;
         }
         
-        List<User> users = db.loadUsers();
-        List<Integer> enrolledStudents = course.getEnrolledStudentIDs();
+        int[] enrolledStudents = course.getEnrolledStudents().toArray();
+        CourseAttemptStats attempts = view.getCourseAttemptStats(courseId);
         
-        // For each lesson with a quiz, calculate average score
+        // For each lesson with a quiz, average the students' best scores
         for (Lesson lesson : course.getLessons()) {
             Quiz quiz = lesson.getQuiz();
             
             if (quiz != null) {
-                List<Double> allBestScores = new ArrayList<>();
-                
-                // For each enrolled student, get their best score on this quiz
-                for (Integer studentIdInt : enrolledStudents) {
-                    String studentId = String.valueOf(studentIdInt);
-                    List<QuizAttempt> attempts = db.getStudentQuizAttempts(studentId, quiz.getQuizId());
-                    
-                    if (!attempts.isEmpty()) {
-                        // Find best score among all attempts
-                        double bestScore = 0.0;
-                        for (QuizAttempt attempt : attempts) {
-                            if (attempt.getScore() > bestScore) {
-                                bestScore = attempt.getScore();
-                            }
-                        }
-                        allBestScores.add(bestScore);
-                    }
-                }
-                
-                // Calculate average of all students' best scores
-                double average = 0.0;
-                if (!allBestScores.isEmpty()) {
-                    double sum = 0.0;
-                    for (double score : allBestScores) {
-                        sum += score;
-                    }
-                    average = sum / allBestScores.size();
-                }
-                
-                lessonAverages.put(lesson.getLessonTitle(), average);
+                lessonAverages.put(lesson.getLessonTitle(), averageBestScore(attempts, enrolledStudents, quiz));
             } else {
                 // No quiz for this lesson
                 lessonAverages.put(lesson.getLessonTitle(), 0.0);
@@ -213,29 +191,27 @@ public class AnalyticsService {
     }
     
     public Map<String, Integer> getLessonCompletionStats(int courseId) {
+        StoreSnapshot view = db.snapshot();
         Map<String, Integer> completionStats = new LinkedHashMap<>();
         
-        Course course = findCourse(courseId);
+        Course course = view.getCourseById(courseId);
         if (course == null) {
             return completionStats;
         }
         
-        List<User> users = db.loadUsers();
-        List<Integer> enrolledStudents = course.getEnrolledStudentIDs();
-        
-        for (Lesson lesson : course.getLessons()) {
-            int completedCount = 0;
-            
-            for (Integer studentIdInt : enrolledStudents) {
-                Student student = findStudent(String.valueOf(studentIdInt), users);
-                if (student != null && 
-                    student.isLessonCompleted(String.valueOf(courseId), 
-                                             String.valueOf(lesson.getLessonID()))) {
-                    completedCount++;
-                }
+        // One bitmap per enrolled student, counted per lesson in one pass
+        List<LessonBitmap> completions = new ArrayList<>();
+        for (Integer studentIdInt : course.getEnrolledStudentIDs()) {
+            Student student = view.findStudent(String.valueOf(studentIdInt));
+            if (student != null) {
+                completions.add(student.getLessonCompletion(course));
             }
-            
-            completionStats.put(lesson.getLessonTitle(), completedCount);
+        }
+        
+        List<Lesson> lessons = course.getLessons();
+        int[] completedCounts = LessonBitmap.countPerPosition(completions, lessons.size());
+        for (int i = 0; i < lessons.size(); i++) {
+            completionStats.put(lessons.get(i).getLessonTitle(), completedCounts[i]);
         }
         
         return completionStats;
@@ -265,7 +241,7 @@ public class AnalyticsService {
     
     public int getTotalEnrollments(int courseId) {
         Course course = findCourse(courseId);
-        return (course != null) ? course.getEnrolledStudentIDs().size() : 0;
+        return (course != null) ? course.getEnrolledStudentCount() : 0;
     }
     
     public double getCourseCompletionRate(int courseId) {
@@ -274,20 +250,6 @@ public class AnalyticsService {
     }
     
     private Course findCourse(int courseId) {
-        for (Course c : db.loadCourses()) {
-            if (c.getCourseID() == courseId) {
-                return c;
-            }
-        }
-        return null;
-    }
-    
-    private Student findStudent(String studentId, List<User> users) {
-        for (User u : users) {
-            if (u instanceof Student && u.getUserId().equals(studentId)) {
-                return (Student) u;
-            }
-        }
-        return null;
+        return db.getCourseById(courseId);
     }
 }
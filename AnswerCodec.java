@@ -0,0 +1,76 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+// Packs a quiz attempt's answers at 3 bits each for the attempt log: 0 is
+// a blank ("") answer and 1-4 the letters A-D, low bits first, written as
+// base64. Only lists made entirely of those values can be packed; any
+// other answer (the quiz dialog submits the option text) means the record
+// keeps its plain string array, so decoding never depends on the quiz.
+final class AnswerCodec {
+
+    private static final String[] CODES = { "", "A", "B", "C", "D" };
+    private static final int BITS = 3;
+
+    private AnswerCodec() {
+    }
+
+    // null if an answer has no code
+    static String pack(List<String> answers) {
+        if (answers == null) {
+            return null;
+        }
+        byte[] packed = new byte[(answers.size() * BITS + 7) / 8];
+        for (int i = 0; i < answers.size(); i++) {
+            int code = code(answers.get(i));
+            if (code < 0) {
+                return null;
+            }
+            // a code can straddle two bytes
+            int bit = i * BITS;
+            int word = read16(packed, bit >>> 3) | code << (bit & 7);
+            packed[bit >>> 3] = (byte) word;
+            if ((bit >>> 3) + 1 < packed.length) {
+                packed[(bit >>> 3) + 1] = (byte) (word >>> 8);
+            }
+        }
+        return Base64.getEncoder().withoutPadding().encodeToString(packed);
+    }
+
+    static List<String> unpack(String encoded, int count) {
+        byte[] packed = Base64.getDecoder().decode(encoded);
+        if (count < 0 || packed.length < (count * BITS + 7) / 8) {
+            throw new IllegalArgumentException("Packed answers too short for " + count);
+        }
+        List<String> answers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int bit = i * BITS;
+            int code = (read16(packed, bit >>> 3) >>> (bit & 7)) & 7;
+            if (code >= CODES.length) {
+                throw new IllegalArgumentException("Bad answer code " + code);
+            }
+            answers.add(CODES[code]);
+        }
+        return answers;
+    }
+
+    // The byte at index and the next one (0 past the end), little-endian
+    private static int read16(byte[] bytes, int index) {
+        int next = index + 1 < bytes.length ? bytes[index + 1] & 0xff : 0;
+        return (bytes[index] & 0xff) | next << 8;
+    }
+
+    private static int code(String answer) {
+        if (answer == null) {
+            return -1;
+        }
+        for (int c = 0; c < CODES.length; c++) {
+            if (CODES[c].equals(answer)) {
+                return c;
+            }
+        }
+        return -1;
+    }
+}
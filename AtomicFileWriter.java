@@ -0,0 +1,69 @@
+package database;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Replaces a file so that readers and a crash only ever see the old or the
+// new content: write to a temp file next to it, fsync, then atomic rename.
+final class AtomicFileWriter {
+
+    interface Content {
+        void writeTo(Writer out) throws IOException;
+    }
+
+    private AtomicFileWriter() {
+    }
+
+    static void write(File target, Content content) throws IOException {
+        replace(target, fos -> {
+            Writer out = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8));
+            content.writeTo(out);
+            out.flush();
+        });
+    }
+
+    static void write(File target, byte[] data) throws IOException {
+        replace(target, fos -> fos.write(data));
+    }
+
+    private interface Body {
+        void writeTo(FileOutputStream out) throws IOException;
+    }
+
+    private static void replace(File target, Body body) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(target.getName() + ".", ".tmp", dir);
+
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                body.writeTo(fos);
+                fos.getFD().sync();
+            }
+            Files.move(tmp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+
+        syncDirectory(dir);
+    }
+
+    // Makes the rename itself durable; not supported on every platform
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // best effort
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package database;
+
+import model.QuizAttempt;
+
+import java.util.Arrays;
+
+// Quiz attempts laid out column by column for report scans: parallel int
+// arrays for student, quiz and course and a double score, the columns the
+// course reports read. A scan reads them sequentially and allocates nothing
+// per row, unlike walking the QuizAttempt objects (string student id,
+// boxed answers, Instant).
+//
+// As a view of the attempt cache it is fed each attempt the log appends;
+// frozen() hands a StoreSnapshot the rows so far without copying. Student
+// ids that are not numbers (no enrollment can refer to them) are stored as
+// NO_STUDENT and never match.
+class AttemptColumns implements EntityCache.View<QuizAttempt> {
+
+    static final int NO_STUDENT = Integer.MIN_VALUE;
+
+    private int size;
+    private boolean frozen;
+    private int[] student;
+    private int[] quiz;
+    private int[] course;
+    private double[] score;
+
+    AttemptColumns() {
+        this(16);
+    }
+
+    private AttemptColumns(int capacity) {
+        student = new int[capacity];
+        quiz = new int[capacity];
+        course = new int[capacity];
+        score = new double[capacity];
+    }
+
+    @Override
+    public void add(QuizAttempt attempt) {
+        if (frozen) {
+            throw new IllegalStateException("Frozen attempt columns");
+        }
+        if (size == student.length) {
+            grow(size * 2);
+        }
+        student[size] = studentNumber(attempt.getStudentId());
+        quiz[size] = attempt.getQuizId();
+        course[size] = attempt.getCourseId();
+        score[size] = attempt.getScore();
+        size++;
+    }
+
+    // The rows so far, read-only. It shares the arrays: later appends only
+    // write past its size, one element per row, and growing allocates new
+    // arrays. Take it under the lock that orders appends, as a store
+    // snapshot does.
+    AttemptColumns frozen() {
+        AttemptColumns view = new AttemptColumns(0);
+        view.frozen = true;
+        view.size = size;
+        view.student = student;
+        view.quiz = quiz;
+        view.course = course;
+        view.score = score;
+        return view;
+    }
+
+    // One pass over the course's rows: best score per (student, quiz)
+    CourseAttemptStats scanCourse(int courseId) {
+        CourseAttemptStats stats = new CourseAttemptStats();
+        for (int i = 0; i < size; i++) {
+            if (course[i] == courseId) {
+                stats.add(student[i], quiz[i], score[i]);
+            }
+        }
+        return stats;
+    }
+
+    static int studentNumber(String studentId) {
+        if (studentId == null) {
+            return NO_STUDENT;
+        }
+        try {
+            return Integer.parseInt(studentId);
+        } catch (NumberFormatException e) {
+            return NO_STUDENT;
+        }
+    }
+
+    private void grow(int capacity) {
+        student = Arrays.copyOf(student, capacity);
+        quiz = Arrays.copyOf(quiz, capacity);
+        course = Arrays.copyOf(course, capacity);
+        score = Arrays.copyOf(score, capacity);
+    }
+}
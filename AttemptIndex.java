@@ -0,0 +1,60 @@
+package database;
+
+import model.QuizAttempt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Quiz attempts grouped by (studentId, quizId), with the best score and the
+// lessons the quiz was passed for precomputed per group.
+class AttemptIndex implements EntityCache.View<QuizAttempt> {
+
+    private static class Entry {
+        final List<QuizAttempt> attempts = new ArrayList<>();
+        final Set<Integer> passedLessons = new HashSet<>();
+        double bestScore;
+    }
+
+    private final Map<String, Entry> byStudentAndQuiz = new HashMap<>();
+
+    @Override
+    public void add(QuizAttempt attempt) {
+        Entry entry = byStudentAndQuiz.computeIfAbsent(
+                key(attempt.getStudentId(), attempt.getQuizId()), k -> new Entry());
+        entry.attempts.add(attempt);
+        if (attempt.getScore() > entry.bestScore) {
+            entry.bestScore = attempt.getScore();
+        }
+        if (attempt.isPassed()) {
+            entry.passedLessons.add(attempt.getLessonId());
+        }
+    }
+
+    List<QuizAttempt> getAttempts(String studentId, int quizId) {
+        Entry entry = byStudentAndQuiz.get(key(studentId, quizId));
+        return entry == null ? new ArrayList<>() : new ArrayList<>(entry.attempts);
+    }
+
+    int getAttemptCount(String studentId, int quizId) {
+        Entry entry = byStudentAndQuiz.get(key(studentId, quizId));
+        return entry == null ? 0 : entry.attempts.size();
+    }
+
+    double getBestScore(String studentId, int quizId) {
+        Entry entry = byStudentAndQuiz.get(key(studentId, quizId));
+        return entry == null ? 0.0 : entry.bestScore;
+    }
+
+    boolean hasPassed(String studentId, int lessonId, int quizId) {
+        Entry entry = byStudentAndQuiz.get(key(studentId, quizId));
+        return entry != null && entry.passedLessons.contains(lessonId);
+    }
+
+    private static String key(String studentId, int quizId) {
+        return studentId + "#" + quizId;
+    }
+}
@@ -0,0 +1,26 @@
+package database;
+
+import java.util.List;
+import model.QuizAttempt;
+
+// Storage of quiz attempts; attempts are only ever added
+public interface AttemptRepository {
+
+    List<QuizAttempt> loadQuizAttempts();
+
+    // Replaces all attempts
+    void saveQuizAttempts(List<QuizAttempt> attempts);
+
+    void addQuizAttempt(QuizAttempt attempt);
+
+    List<QuizAttempt> getStudentQuizAttempts(String studentId, int quizId);
+
+    int getQuizAttemptCount(String studentId, int quizId);
+
+    double getBestQuizScore(String studentId, int quizId);
+
+    boolean hasPassedQuiz(String studentId, int lessonId, int quizId);
+
+    // A new id that was never handed out before, also across processes
+    int generateAttemptId();
+}
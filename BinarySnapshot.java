@@ -0,0 +1,280 @@
+package database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+// A parsed entity list saved in a compact binary form so startup can skip
+// JSON parsing. Layout: MAGIC, VERSION, the path, size and mtime of every
+// JSON file the list was read from, the record count, then the records.
+// Strings are length-prefixed UTF-8, ids ints and timestamps epoch longs.
+// The snapshot is only used while every source still has the recorded size
+// and mtime, i.e. while it is at least as new as the JSON; it is loaded
+// with one sequential read.
+class BinarySnapshot<T> {
+
+    private static final int MAGIC = 0x4C4D5342; // "LMSB"
+    private static final short VERSION = 3;
+
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "snapshot-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    interface Encoder<T> {
+        void write(Out out, T entity);
+    }
+
+    interface Decoder<T> {
+        T read(In in);
+    }
+
+    // Reads the list from the JSON sources
+    interface JsonSource<T> {
+        List<T> read() throws IOException;
+    }
+
+    private final File file;
+    private final Supplier<File[]> sources;
+    private final Encoder<T> encoder;
+    private final Decoder<T> decoder;
+
+    BinarySnapshot(String path, Supplier<File[]> sources, Encoder<T> encoder, Decoder<T> decoder) {
+        this.file = new File(path);
+        this.sources = sources;
+        this.encoder = encoder;
+        this.decoder = decoder;
+    }
+
+    // Parses the JSON and writes a new snapshot of it in the background
+    List<T> readJson(JsonSource<T> json) throws IOException {
+        // stamp before parsing so a write racing with it makes the snapshot stale
+        Out header = header();
+        List<T> entities = json.read();
+        // encoded now: entities are shared and may be changed once we return
+        byte[] data = encode(header, entities);
+        writer.execute(() -> {
+            try {
+                AtomicFileWriter.write(file, data);
+            } catch (IOException e) {
+                System.err.println("Error writing snapshot " + file + ": " + e.getMessage());
+            }
+        });
+        return entities;
+    }
+
+    // Null when there is no snapshot, it is stale or it can't be decoded
+    List<T> readIfCurrent() {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            In in = new In(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+            if (!readHeader(in, true)) {
+                return null;
+            }
+            return readRecords(in);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Import: the records regardless of the current JSON files
+    List<T> readAny() throws IOException {
+        In in = new In(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+        try {
+            if (!readHeader(in, false)) {
+                throw new IOException("Not a snapshot of version " + VERSION + ": " + file);
+            }
+            return readRecords(in);
+        } catch (RuntimeException e) {
+            throw new IOException("Unreadable snapshot " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Export: writes the snapshot now, stamped with the current JSON files
+    void write(List<T> entities) throws IOException {
+        AtomicFileWriter.write(file, encode(header(), entities));
+    }
+
+    boolean exists() {
+        return file.exists();
+    }
+
+    private Out header() {
+        Out out = new Out();
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        File[] files = sources.get();
+        out.writeInt(files.length);
+        for (File f : files) {
+            out.writeString(f.getPath());
+            out.writeLong(f.length());
+            out.writeLong(f.lastModified());
+        }
+        return out;
+    }
+
+    private boolean readHeader(In in, boolean checkSources) {
+        if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+            return false;
+        }
+        File[] files = sources.get();
+        int count = in.readInt();
+        boolean current = count == files.length;
+        for (int i = 0; i < count; i++) {
+            String path = in.readString();
+            long length = in.readLong();
+            long modified = in.readLong();
+            if (current && (!path.equals(files[i].getPath())
+                    || length != files[i].length() || modified != files[i].lastModified())) {
+                current = false;
+            }
+        }
+        return current || !checkSources;
+    }
+
+    private List<T> readRecords(In in) {
+        int count = in.readInt();
+        List<T> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entities.add(decoder.read(in));
+        }
+        return entities;
+    }
+
+    private byte[] encode(Out out, List<T> entities) {
+        out.writeInt(entities.size());
+        for (T entity : entities) {
+            encoder.write(out, entity);
+        }
+        return out.toByteArray();
+    }
+
+    // Big-endian primitives into a growing byte array
+    static final class Out {
+        private byte[] buf = new byte[8192];
+        private int size;
+
+        void writeByte(int v) {
+            ensure(1);
+            buf[size++] = (byte) v;
+        }
+
+        void writeBoolean(boolean v) {
+            writeByte(v ? 1 : 0);
+        }
+
+        void writeShort(int v) {
+            ensure(2);
+            buf[size++] = (byte) (v >>> 8);
+            buf[size++] = (byte) v;
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            buf[size++] = (byte) (v >>> 24);
+            buf[size++] = (byte) (v >>> 16);
+            buf[size++] = (byte) (v >>> 8);
+            buf[size++] = (byte) v;
+        }
+
+        void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        void writeDouble(double v) {
+            writeLong(Double.doubleToLongBits(v));
+        }
+
+        // Length-prefixed UTF-8; null is length -1
+        void writeString(String s) {
+            if (s == null) {
+                writeInt(-1);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        // Length-prefixed
+        void writeBytes(byte[] bytes) {
+            writeInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        private void ensure(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+            }
+        }
+    }
+
+    static final class In {
+        private final ByteBuffer buf;
+
+        In(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        int readByte() {
+            return buf.get();
+        }
+
+        boolean readBoolean() {
+            return buf.get() != 0;
+        }
+
+        short readShort() {
+            return buf.getShort();
+        }
+
+        int readInt() {
+            return buf.getInt();
+        }
+
+        long readLong() {
+            return buf.getLong();
+        }
+
+        double readDouble() {
+            return buf.getDouble();
+        }
+
+        byte[] readBytes() {
+            byte[] bytes = new byte[buf.getInt()];
+            buf.get(bytes);
+            return bytes;
+        }
+
+        String readString() {
+            int length = buf.getInt();
+            if (length < 0) {
+                return null;
+            }
+            String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+            buf.position(buf.position() + length);
+            return s;
+        }
+    }
+}
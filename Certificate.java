@@ -12,6 +12,7 @@ public class Certificate {
     private String courseTitle;
     private String instructorName;
     private double finalScore;
+    private long version = 1; // bumped on every save; 0 stands for a record not stored yet
     
     public Certificate(int certificateID, int studentID, int courseID, 
                       String studentName, String courseTitle, String instructorName, 
@@ -95,6 +96,14 @@ public class Certificate {
         this.finalScore = finalScore;
     }
     
+    public long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(long version) {
+        this.version = version;
+    }
+    
     @Override
     public String toString() {
         SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy");
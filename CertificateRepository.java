@@ -0,0 +1,24 @@
+package database;
+
+import java.util.List;
+import model.Certificate;
+
+// Storage of issued course certificates
+public interface CertificateRepository {
+
+    List<Certificate> loadCertificates();
+
+    // Replaces all certificates
+    void saveCertificates(List<Certificate> certificates);
+
+    // Adds the certificate or replaces the one with the same id
+    void saveCertificate(Certificate cert);
+
+    // saveCertificate if the stored one still has expectedVersion (0: not stored yet)
+    boolean compareAndSetCertificate(Certificate cert, long expectedVersion);
+
+    Certificate getCertificateById(int certificateId);
+
+    // A new id that no certificate has had before, also across processes
+    int generateCertificateId();
+}
@@ -1,16 +1,17 @@
 package service;
 
-import database.JsonDatabaseManager;
+import database.DataStore;
+import database.Transaction;
 import model.*;
 import java.util.ArrayList;
 import java.util.List;
 
 public class CertificateService {
     
-    private JsonDatabaseManager db;
+    private DataStore db;
     private CourseCompletionTracker tracker;
     
-    public CertificateService(JsonDatabaseManager db) {
+    public CertificateService(DataStore db) {
         this.db = db;
         this.tracker = new CourseCompletionTracker(db);
     }
@@ -22,8 +23,14 @@ public class CertificateService {
         return lessonsComplete && quizzesPassed;
     }
     
-    // Make certificate for student
+    // Make certificate for student; serialized per student and course so
+    // two requests cannot both find none and issue one each
     public Certificate generateCertificate(String studentId, String courseId) {
+        return StripedLocks.PROGRESS.withLock(studentId, courseId,
+                () -> generateCertificateLocked(studentId, courseId));
+    }
+
+    private Certificate generateCertificateLocked(String studentId, String courseId) {
         // Check if eligible
         if (!isEligibleForCertificate(studentId, courseId)) {
             return null;
@@ -64,14 +71,7 @@ public class CertificateService {
         double avg = tracker.calculateAverageScore(studentId, courseId);
         
         // Make certificate
-        List<Certificate> allCerts = db.loadCertificates();
-        int maxId = 0;
-        for (Certificate c : allCerts) {
-            if (c.getCertificateID() > maxId) {
-                maxId = c.getCertificateID();
-            }
-        }
-        int newId = maxId + 1;
+        int newId = db.generateCertificateId();
         
         Certificate cert = new Certificate(
             newId,
@@ -83,20 +83,26 @@ public class CertificateService {
             avg
         );
         
-        // Save certificate
-        db.saveCertificate(cert);
-        
-        // Add to student
-        List<User> allUsers = db.loadUsers();
-        for (User u : allUsers) {
-            if (u.getUserId().equals(studentId)) {
-                if (u instanceof Student) {
-                    ((Student) u).addCertificate(String.valueOf(newId));
-                }
-                break;
+        // The certificate and the holder's record are written together.
+        // Expecting version 0 makes sure the id is still free (a certificate
+        // stored under it by an older client gets this one a new id)
+        boolean saved = OptimisticUpdates.commit(db, "Certificate for student " + studentId, () -> {
+            while (db.getCertificateById(cert.getCertificateID()) != null) {
+                cert.setCertificateID(db.generateCertificateId());
             }
+            User u = db.findUser(studentId);
+            if (!(u instanceof Student)) {
+                return null;
+            }
+            Student holder = ((Student) u).copy();
+            holder.addCertificate(cert.getCertificateID());
+            return new Transaction()
+                    .putCertificate(cert, 0)
+                    .putUser(holder, u.getVersion());
+        });
+        if (!saved) {
+            return null;
         }
-        db.saveUsers(allUsers);
         
         return cert;
     }
@@ -16,7 +16,7 @@ public class Course {
     private List<Lesson> lessons;
     private List<Quiz> quizzes;
     private int instructorID;
-    private List<Integer> enrolledStudentIDs;
+    private IdBitmap enrolledStudents;
     
    
     private ApprovalStatus approvalStatus;
@@ -24,6 +24,8 @@ public class Course {
     private Date submissionDate;
     private Date approvalDate;
     private String reviewedBy; // Admin username who reviewed the course
+    private long version = 1; // bumped on every save; 0 stands for a record not stored yet
+    private volatile LessonIndex lessonIndex; // lesson id -> position, see lessonIndex()
     
     // Constructor - sets default status to PENDING
     public Course(int courseID, String courseTitle, String courseDescription, int instructorID) {
@@ -31,9 +33,9 @@ public class Course {
         this.courseTitle = courseTitle;
         this.courseDescription = courseDescription;
         this.instructorID = instructorID;
-        this.lessons = new ArrayList<>();
+        this.lessons = new LessonList();
         this.quizzes = new ArrayList<>();
-        this.enrolledStudentIDs = new ArrayList<>();
+        this.enrolledStudents = new IdBitmap();
         
        
         this.approvalStatus = ApprovalStatus.PENDING;
@@ -72,10 +74,68 @@ public class Course {
         return lessons;
     }
     
+    // The lessons are copied into the course's own list
     public void setLessons(List<Lesson> lessons) {
-        this.lessons = lessons;
+        this.lessons = new LessonList();
+        this.lessons.addAll(lessons);
     }
-    
+
+    // Position of the lesson in getLessons(), or -1
+    public int getLessonPosition(int lessonId) {
+        return lessonIndex().positionOf(lessonId);
+    }
+
+    // The lesson ids in lesson order. Rebuilt when the lesson list has
+    // changed since, and otherwise the same instance, so it can key caches
+    // built against this order (see Student.getLessonCompletion).
+    LessonIndex lessonIndex() {
+        LessonList list = (LessonList) lessons;
+        LessonIndex index = lessonIndex;
+        if (index == null || index.list != list || index.modCount != list.modCount()) {
+            index = new LessonIndex(list);
+            lessonIndex = index;
+        }
+        return index;
+    }
+
+    // getLessons() is changed in place by callers, so the list exposes
+    // ArrayList's modification count for lessonIndex() to notice
+    private static final class LessonList extends ArrayList<Lesson> {
+        private static final long serialVersionUID = 1L;
+
+        int modCount() {
+            return modCount;
+        }
+    }
+
+    static final class LessonIndex {
+        private final LessonList list;
+        private final int modCount;
+        final int[] ids;                // by position
+        private final IntSet distinct;  // first position of each id, by distinct index
+        private final int[] firstPosition;
+
+        private LessonIndex(LessonList list) {
+            this.list = list;
+            this.modCount = list.modCount();
+            this.ids = new int[list.size()];
+            this.distinct = new IntSet();
+            int[] first = new int[list.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = list.get(i).getLessonID();
+                if (distinct.add(ids[i])) {
+                    first[distinct.size() - 1] = i;
+                }
+            }
+            this.firstPosition = first;
+        }
+
+        int positionOf(int lessonId) {
+            int i = distinct.indexOf(lessonId);
+            return i >= 0 ? firstPosition[i] : -1;
+        }
+    }
+
     public List<Quiz> getQuizzes() {
         return quizzes;
     }
@@ -92,12 +152,48 @@ public class Course {
         this.instructorID = instructorID;
     }
     
+    // A copy in ascending order; change enrollments through
+    // addEnrolledStudent / removeEnrolledStudent
     public List<Integer> getEnrolledStudentIDs() {
-        return enrolledStudentIDs;
+        int[] ids = enrolledStudents.toArray();
+        List<Integer> list = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            list.add(id);
+        }
+        return list;
     }
     
     public void setEnrolledStudentIDs(List<Integer> enrolledStudentIDs) {
-        this.enrolledStudentIDs = enrolledStudentIDs;
+        this.enrolledStudents = new IdBitmap();
+        for (Integer id : enrolledStudentIDs) {
+            enrolledStudents.add(id);
+        }
+    }
+
+    // A copy, for set algebra across courses (and, or, andNot)
+    public IdBitmap getEnrolledStudents() {
+        return enrolledStudents.copy();
+    }
+
+    public void setEnrolledStudents(IdBitmap enrolledStudents) {
+        this.enrolledStudents = enrolledStudents.copy();
+    }
+
+    public int getEnrolledStudentCount() {
+        return enrolledStudents.cardinality();
+    }
+
+    public boolean isStudentEnrolled(int studentID) {
+        return enrolledStudents.contains(studentID);
+    }
+
+    // Unlike enrollStudent this does not check approval; false if already enrolled
+    public boolean addEnrolledStudent(int studentID) {
+        return enrolledStudents.add(studentID);
+    }
+
+    public boolean removeEnrolledStudent(int studentID) {
+        return enrolledStudents.remove(studentID);
     }
     
     // New getters and setters for approval workflow
@@ -141,6 +237,36 @@ public class Course {
         this.reviewedBy = reviewedBy;
     }
     
+    public long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(long version) {
+        this.version = version;
+    }
+    
+    // An independent copy to change and save with compare-and-set;
+    // lessons are copied, their quizzes shared
+    public Course copy() {
+        Course c = new Course(courseID, courseTitle, courseDescription, instructorID);
+        for (Lesson l : lessons) {
+            Lesson lesson = new Lesson(l.getLessonID(), l.getLessonTitle(), l.getLessonContent());
+            lesson.setResources(l.getResources());
+            lesson.setQuiz(l.getQuiz());
+            lesson.setQuizRequired(l.isQuizRequired());
+            c.lessons.add(lesson);
+        }
+        c.quizzes.addAll(quizzes);
+        c.enrolledStudents = enrolledStudents.copy();
+        c.approvalStatus = approvalStatus;
+        c.rejectionReason = rejectionReason;
+        c.submissionDate = submissionDate;
+        c.approvalDate = approvalDate;
+        c.reviewedBy = reviewedBy;
+        c.version = version;
+        return c;
+    }
+    
     
     public void approve(String adminUsername) {
         this.approvalStatus = ApprovalStatus.APPROVED;
@@ -193,8 +319,8 @@ public class Course {
     
     public void enrollStudent(int studentID) {
         // Only allow enrollment if course is approved
-        if (this.isApproved() && !enrolledStudentIDs.contains(studentID)) {
-            enrolledStudentIDs.add(studentID);
+        if (this.isApproved()) {
+            enrolledStudents.add(studentID);
         }
     }
     
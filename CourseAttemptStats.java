@@ -0,0 +1,107 @@
+package database;
+
+import java.util.Arrays;
+
+// What one course's quiz attempts add up to, from a single scan of the
+// attempt columns (StoreSnapshot.getCourseAttemptStats): the best score
+// per (student, quiz). Keys live in a small open-addressing table of
+// primitives.
+public final class CourseAttemptStats {
+
+    private final LongSlots pairs = new LongSlots(); // (student, quiz)
+    private double[] best = new double[16];
+
+    CourseAttemptStats() {
+    }
+
+    void add(int student, int quiz, double score) {
+        if (student == AttemptColumns.NO_STUDENT) {
+            return;
+        }
+        int p = pairs.slot(pairKey(student, quiz));
+        if (p == best.length) {
+            best = Arrays.copyOf(best, p * 2);
+        }
+        // like AttemptIndex, the best score starts at 0
+        if (score > best[p]) {
+            best[p] = score;
+        }
+    }
+
+    public boolean hasAttempted(String studentId, int quizId) {
+        return pair(studentId, quizId) >= 0;
+    }
+
+    // 0.0 when the quiz was not attempted
+    public double getBestScore(String studentId, int quizId) {
+        int p = pair(studentId, quizId);
+        return p >= 0 ? best[p] : 0.0;
+    }
+
+    private int pair(String studentId, int quizId) {
+        int student = AttemptColumns.studentNumber(studentId);
+        return student == AttemptColumns.NO_STUDENT ? -1 : pairs.indexOf(pairKey(student, quizId));
+    }
+
+    private static long pairKey(int student, int quiz) {
+        return ((long) student << 32) | (quiz & 0xffffffffL);
+    }
+
+    // long key -> dense index in insertion order; the owner keeps its values
+    // in arrays indexed by it
+    private static final class LongSlots {
+        private long[] keys = new long[16];
+        private int[] table = new int[32]; // index + 1, 0 is free
+        private int size;
+
+        int indexOf(long key) {
+            int mask = table.length - 1;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                int entry = table[i];
+                if (entry == 0) {
+                    return -1;
+                }
+                if (keys[entry - 1] == key) {
+                    return entry - 1;
+                }
+            }
+        }
+
+        // The key's index, added if new
+        int slot(long key) {
+            int mask = table.length - 1;
+            int i = hash(key) & mask;
+            for (; table[i] != 0; i = (i + 1) & mask) {
+                if (keys[table[i] - 1] == key) {
+                    return table[i] - 1;
+                }
+            }
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size] = key;
+            table[i] = ++size;
+            if (size * 2 > table.length) {
+                rehash();
+            }
+            return size - 1;
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int k = 0; k < size; k++) {
+                int i = hash(keys[k]) & mask;
+                while (table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = k + 1;
+            }
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package service;
 
-import database.JsonDatabaseManager;
+import database.DataStore;
 import model.Course;
 import model.Lesson;
 import model.Student;
@@ -10,10 +10,10 @@ import java.util.List;
 
 public class CourseCompletionTracker {
     
-    private JsonDatabaseManager db;
+    private DataStore db;
     
    
-    public CourseCompletionTracker(JsonDatabaseManager db) {
+    public CourseCompletionTracker(DataStore db) {
         this.db = db;
     }
     
@@ -26,15 +26,7 @@ public class CourseCompletionTracker {
             return 0.0;
         }
         
-        List<Lesson> lessons = course.getLessons();
-        if (lessons.isEmpty()) {
-            return 0.0;
-        }
-        
-        List<String> completedLessons = student.getCompletedLessons()
-            .getOrDefault(courseId, List.of());
-        
-        return (completedLessons.size() * 100.0) / lessons.size();
+        return student.getLessonCompletion(course).percentComplete();
     }
     
     // Check if all lessons are completed
@@ -46,22 +38,7 @@ public class CourseCompletionTracker {
             return false;
         }
         
-        List<Lesson> lessons = course.getLessons();
-        if (lessons.isEmpty()) {
-            return false;
-        }
-        
-        List<String> completedLessons = student.getCompletedLessons()
-            .getOrDefault(courseId, List.of());
-        
-        // Check if all lesson IDs are in completed list
-        for (Lesson lesson : lessons) {
-            if (!completedLessons.contains(String.valueOf(lesson.getLessonID()))) {
-                return false;
-            }
-        }
-        
-        return true;
+        return student.getLessonCompletion(course).isComplete();
     }
     
     // Check if all required quizzes are passed
@@ -112,17 +89,7 @@ public class CourseCompletionTracker {
                 Quiz quiz = lesson.getQuiz();
                 
                 // Get best score from database attempts
-                List<model.QuizAttempt> attempts = db.getStudentQuizAttempts(
-                    studentId, 
-                    quiz.getQuizId()
-                );
-                
-                double bestScore = 0.0;
-                for (model.QuizAttempt attempt : attempts) {
-                    if (attempt.getScore() > bestScore) {
-                        bestScore = attempt.getScore();
-                    }
-                }
+                double bestScore = db.getBestQuizScore(studentId, quiz.getQuizId());
                 
                 if (bestScore > 0) {
                     totalScore += bestScore;
@@ -57,10 +57,7 @@ private void updateButtonStates() {
         int lessonId = Integer.parseInt(cleanSelected.split(" - ")[0]);
         
         // Check if lesson is completed
-        boolean completed = student.isLessonCompleted(
-            String.valueOf(courseId), 
-            String.valueOf(lessonId)
-        );
+        boolean completed = student.isLessonCompleted(courseId, lessonId);
         
         // Get the lesson to check for quiz
         java.util.List<Lesson> lessons = service.getLessons(courseId);
@@ -142,10 +139,7 @@ private boolean canAccessLesson(java.util.List<Lesson> lessons, int lessonIndex)
     
     // Check if previous lesson is completed
     Lesson previousLesson = lessons.get(lessonIndex - 1);
-    boolean previousCompleted = student.isLessonCompleted(
-        String.valueOf(courseId),
-        String.valueOf(previousLesson.getLessonID())
-    );
+    boolean previousCompleted = student.isLessonCompleted(courseId, previousLesson.getLessonID());
     
     if (!previousCompleted) {
         return false;
@@ -373,10 +367,7 @@ String selected = lessonList.getSelectedValue();
         updateProgress();
         
         // Check if the current lesson is now completed
-        boolean nowCompleted = student.isLessonCompleted(
-            String.valueOf(courseId), 
-            String.valueOf(lessonId)
-        );
+        boolean nowCompleted = student.isLessonCompleted(courseId, lessonId);
         
         // Auto-select next lesson if completed
         if (nowCompleted) {
@@ -484,7 +475,7 @@ String selected = lessonList.getSelectedValue();
                 System.out.println("Last lesson completed! Checking certificate eligibility...");
                 
                 // Check if student is eligible for certificate
-                database.JsonDatabaseManager db = new database.JsonDatabaseManager();
+                database.DataStore db = database.DataStores.getDefault();
                 service.CertificateService cs = new service.CertificateService(db);
                 service.CourseCompletionTracker tracker = new service.CourseCompletionTracker(db);
                 
@@ -593,10 +584,7 @@ private void loadLessons() {
                 String lessonText = l.getLessonID() + " - " + l.getLessonTitle();
                 
                 // Check if lesson is completed
-                boolean completed = student.isLessonCompleted(
-                    String.valueOf(courseId), 
-                    String.valueOf(l.getLessonID())
-                );
+                boolean completed = student.isLessonCompleted(courseId, l.getLessonID());
                 
                 // Check if lesson is locked
                 boolean locked = !canAccessLesson(lessons, i);
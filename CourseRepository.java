@@ -0,0 +1,53 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.List;
+import model.Course;
+import model.Course.ApprovalStatus;
+
+// Storage of courses with their lessons and enrolled students.
+// Loaded lessons carry the quiz stored for them, if any.
+public interface CourseRepository {
+
+    List<Course> loadCourses();
+
+    // Replaces the whole course collection
+    void saveCourses(List<Course> courses);
+
+    Course getCourseById(int courseId);
+
+    // Saves one existing course
+    void updateCourse(Course updatedCourse);
+
+    // Saves the course only if the stored one still has expectedVersion;
+    // false on a conflict or a missing course. See compareAndSetUser.
+    boolean compareAndSetCourse(Course course, long expectedVersion);
+
+    default List<Course> getAllCourses() {
+        return loadCourses();
+    }
+
+    default Course findCourse(String courseId) {
+        try {
+            return getCourseById(Integer.parseInt(courseId));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    default List<Course> getCoursesByStatus(ApprovalStatus status) {
+        List<Course> filteredCourses = new ArrayList<>();
+        for (Course course : loadCourses()) {
+            if (course.getApprovalStatus() == status) {
+                filteredCourses.add(course);
+            }
+        }
+        return filteredCourses;
+    }
+
+    // New ids that were never handed out before, also across processes;
+    // lesson ids are unique over all courses
+    int generateCourseId();
+
+    int generateLessonId();
+}
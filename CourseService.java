@@ -1,6 +1,7 @@
 package service;
 
-import database.JsonDatabaseManager;
+import database.DataStore;
+import database.Transaction;
 import model.*;
 
 import java.util.ArrayList;
@@ -8,9 +9,9 @@ import java.util.List;
 
 public class CourseService {
 
-    private final JsonDatabaseManager db;
+    private final DataStore db;
 
-    public CourseService(JsonDatabaseManager db) {
+    public CourseService(DataStore db) {
         this.db = db;
     }
 
@@ -19,121 +20,89 @@ public class CourseService {
         return db.loadCourses();
     }
 
-    // Save all courses (overwrite)
-    private void saveCourses(List<Course> courses) {
-        db.saveCourses(courses);
-    }
-
     // Get course by numeric id (course.getCourseID())
     public Course getCourseById(int courseId) {
-        List<Course> courses = db.loadCourses();
-        for (Course c : courses) {
-            if (c.getCourseID() == courseId) return c;
-        }
-        return null;
+        return db.getCourseById(courseId);
     }
 
     // Create a course (returns created Course)
     public Course createCourse(Instructor instructor, String title, String description) {
-        List<Course> courses = db.loadCourses();
-        int newId = db.generateCourseId(courses); // your JsonDatabaseManager already has generateCourseId(list)
+        int newId = db.generateCourseId();
         Course c = new Course(newId, title, description, Integer.parseInt(instructor.getUserId()));
         // ensure lessons and students lists exist (constructor should do that)
-        courses.add(c);
-        saveCourses(courses);
+        db.commit(new Transaction().putCourse(c, 0));
         return c;
     }
 
     // Edit course (by int id)
     public boolean editCourse(int courseId, String newTitle, String newDescription) {
-        List<Course> courses = db.loadCourses();
-        for (Course c : courses) {
-            if (c.getCourseID() == courseId) {
-                c.setCourseTitle(newTitle);
-                c.setCourseDescription(newDescription);
-                saveCourses(courses);
-                return true;
-            }
-        }
-        return false;
+        return OptimisticUpdates.updateCourse(db, courseId, c -> {
+            c.setCourseTitle(newTitle);
+            c.setCourseDescription(newDescription);
+            return true;
+        });
     }
 
-    // Delete course
+    // Delete course; it leaves its instructor's course list in the same
+    // transaction, on the version of the instructor read for it
     public boolean deleteCourse(int courseId) {
-        List<Course> courses = db.loadCourses();
-        boolean removed = courses.removeIf(c -> c.getCourseID() == courseId);
-        if (removed) saveCourses(courses);
-        return removed;
+        String id = String.valueOf(courseId);
+        return OptimisticUpdates.commit(db, "Deletion of course " + courseId, () -> {
+            Course c = db.getCourseById(courseId);
+            if (c == null) {
+                return null;
+            }
+            Transaction tx = new Transaction().deleteCourse(courseId);
+            User u = db.findUser(String.valueOf(c.getInstructorID()));
+            if (u instanceof Instructor && ((Instructor) u).getCreatedCourses().contains(id)) {
+                Instructor updated = ((Instructor) u).copy();
+                updated.removeCourse(id);
+                tx.putUser(updated, u.getVersion());
+            }
+            return tx;
+        });
     }
 
     // Add lesson to course
     public boolean addLesson(int courseId, String title, String content) {
-        List<Course> courses = db.loadCourses();
-        for (Course c : courses) {
-            if (c.getCourseID() == courseId) {
-                int newLessonId = db.generateLessonId(c); // uses your JsonDatabaseManager method
-                Lesson lesson = new Lesson(newLessonId, title, content);
-                c.getLessons().add(lesson);
-                saveCourses(courses);
-                return true;
-            }
-        }
-        return false;
+        return OptimisticUpdates.updateCourse(db, courseId, c -> {
+            int newLessonId = db.generateLessonId();
+            c.getLessons().add(new Lesson(newLessonId, title, content));
+            return true;
+        });
     }
 
     // Edit lesson
     public boolean editLesson(int courseId, int lessonId, String newTitle, String newContent) {
-        Course course = getCourseById(courseId);
-        if (course == null) return false;
-        for (Lesson l : course.getLessons()) {
-            if (l.getLessonID() == lessonId) {
-                l.setLessonTitle(newTitle);
-                l.setLessonContent(newContent);
-                saveCourses(db.loadCourses()); // write updated list
-                return true;
+        return OptimisticUpdates.updateCourse(db, courseId, course -> {
+            for (Lesson l : course.getLessons()) {
+                if (l.getLessonID() == lessonId) {
+                    l.setLessonTitle(newTitle);
+                    l.setLessonContent(newContent);
+                    return true;
+                }
             }
-        }
-        return false;
+            return false;
+        });
     }
 
     // Delete lesson
     public boolean deleteLesson(int courseId, int lessonId) {
-        Course course = getCourseById(courseId);
-        if (course == null) return false;
-        boolean removed = course.getLessons().removeIf(l -> l.getLessonID() == lessonId);
-        if (removed) saveCourses(db.loadCourses());
-        return removed;
+        return OptimisticUpdates.updateCourse(db, courseId,
+                course -> course.getLessons().removeIf(l -> l.getLessonID() == lessonId));
     }
 
     // Enroll a student (studentId is numeric string or numeric id depending on your models)
     // This adds student id to both student's enrolled list (handled elsewhere) and course.enrolledStudentIDs
     public boolean enrollStudentToCourse(int courseId, int studentNumericId) {
-        List<Course> courses = db.loadCourses();
-        for (Course c : courses) {
-            if (c.getCourseID() == courseId) {
-                if (!c.getEnrolledStudentIDs().contains(studentNumericId)) {
-                    c.getEnrolledStudentIDs().add(studentNumericId);
-                    saveCourses(courses);
-                    return true;
-                } else {
-                    return false; // already enrolled
-                }
-            }
-        }
-        return false;
+        return OptimisticUpdates.updateCourse(db, courseId,
+                c -> c.addEnrolledStudent(studentNumericId)); // false if already enrolled
     }
 
     // Unenroll student
     public boolean unenrollStudentFromCourse(int courseId, int studentNumericId) {
-        List<Course> courses = db.loadCourses();
-        for (Course c : courses) {
-            if (c.getCourseID() == courseId) {
-                boolean removed = c.getEnrolledStudentIDs().removeIf(id -> id == studentNumericId);
-                if (removed) saveCourses(courses);
-                return removed;
-            }
-        }
-        return false;
+        return OptimisticUpdates.updateCourse(db, courseId,
+                c -> c.removeEnrolledStudent(studentNumericId));
     }
 
     // Get lessons for a course
@@ -148,6 +117,20 @@ public class CourseService {
         return c == null ? new ArrayList<>() : new ArrayList<>(c.getEnrolledStudentIDs());
     }
 
+    // Students enrolled in both courses, ascending
+    public List<Integer> getStudentsEnrolledInBoth(int courseIdA, int courseIdB) {
+        Course a = getCourseById(courseIdA);
+        Course b = getCourseById(courseIdB);
+        List<Integer> result = new ArrayList<>();
+        if (a == null || b == null) {
+            return result;
+        }
+        for (int id : a.getEnrolledStudents().and(b.getEnrolledStudents()).toArray()) {
+            result.add(id);
+        }
+        return result;
+    }
+
     // Get courses by instructor id (numeric)
     public List<Course> getCoursesByInstructor(int instructorNumericId) {
         List<Course> result = new ArrayList<>();
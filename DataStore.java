@@ -0,0 +1,26 @@
+package database;
+
+// Everything the services persist. JsonDatabaseManager keeps the data in
+// JSON files, SqlDataStore in an embedded SQL database and LsmDataStore in
+// a log-structured key/value store. DataStores picks one from the
+// configuration.
+public interface DataStore extends UserRepository, CourseRepository, QuizRepository,
+        AttemptRepository, CertificateRepository {
+
+    // Applies all of the transaction's changes or, when a version check
+    // fails or the store cannot write, none of them
+    boolean commit(Transaction tx);
+
+    // A consistent read-only view of users, courses, quizzes and attempts
+    // for long reports; later writes neither wait for it nor show up in it
+    StoreSnapshot snapshot();
+
+    // Subscribes to changes other clients make to the stored data, e.g. to
+    // refresh a view showing it. Stores that cannot see other clients'
+    // writes never call the listener.
+    default void addChangeListener(DatabaseWatcher.Listener listener) {
+    }
+
+    default void removeChangeListener(DatabaseWatcher.Listener listener) {
+    }
+}
@@ -0,0 +1,40 @@
+package database;
+
+// One-shot copy of the JSON data files into the SQL database or LSM store.
+// Usage: java database.DataStoreMigrator [jdbc-url | lsm [dir]]
+// (run from the directory that contains database/, with the JDBC driver on
+// the classpath for SQL). Existing data in the target is replaced.
+public class DataStoreMigrator {
+
+    public static void main(String[] args) {
+        JsonDatabaseManager source = JsonDatabaseManager.getInstance();
+        if (args.length > 0 && args[0].equalsIgnoreCase("lsm")) {
+            String dir = args.length > 1 ? args[1] : System.getProperty(DataStores.DIR_PROPERTY, DataStores.DEFAULT_DIR);
+            LsmDataStore target = DataStores.openLsm(dir);
+            try {
+                copy(source, target);
+            } finally {
+                target.close();
+            }
+            System.out.println("Migrated JSON data files to " + dir);
+            return;
+        }
+
+        String url = args.length > 0 ? args[0] : System.getProperty(DataStores.URL_PROPERTY, DataStores.DEFAULT_URL);
+        SqlDataStore target = DataStores.openSql(url);
+        try {
+            copy(source, target);
+        } finally {
+            target.close();
+        }
+        System.out.println("Migrated JSON data files to " + url);
+    }
+
+    public static void copy(DataStore source, DataStore target) {
+        target.saveUsers(source.loadUsers());
+        target.saveQuizzes(source.loadQuizzes());
+        target.saveCourses(source.loadCourses());
+        target.saveQuizAttempts(source.loadQuizAttempts());
+        target.saveCertificates(source.loadCertificates());
+    }
+}
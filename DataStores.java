@@ -0,0 +1,55 @@
+package database;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+// Picks the storage backend from system properties:
+//   lms.db.backend   json (default), sql or lsm
+//   lms.db.url       JDBC url for sql, default jdbc:sqlite:database/lms.db
+//   lms.db.dir       directory for lsm, default database/lsm
+//   lms.db.user, lms.db.password
+public final class DataStores {
+
+    public static final String BACKEND_PROPERTY = "lms.db.backend";
+    public static final String URL_PROPERTY = "lms.db.url";
+    public static final String DEFAULT_URL = "jdbc:sqlite:database/lms.db";
+    public static final String DIR_PROPERTY = "lms.db.dir";
+    public static final String DEFAULT_DIR = "database/lsm";
+
+    private static DataStore instance;
+
+    private DataStores() {
+    }
+
+    public static synchronized DataStore getDefault() {
+        if (instance == null) {
+            String backend = System.getProperty(BACKEND_PROPERTY, "json");
+            if (backend.equalsIgnoreCase("sql")) {
+                instance = openSql(System.getProperty(URL_PROPERTY, DEFAULT_URL));
+            } else if (backend.equalsIgnoreCase("lsm")) {
+                instance = openLsm(System.getProperty(DIR_PROPERTY, DEFAULT_DIR));
+            } else {
+                instance = JsonDatabaseManager.getInstance();
+            }
+        }
+        return instance;
+    }
+
+    public static SqlDataStore openSql(String url) {
+        try {
+            return new SqlDataStore(url, System.getProperty("lms.db.user", ""),
+                    System.getProperty("lms.db.password", ""));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot open SQL database " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    public static LsmDataStore openLsm(String dir) {
+        try {
+            return new LsmDataStore(new File(dir));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open LSM store " + dir + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package database;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Tells this process when another process sharing the database directory
+// has changed a data set. Every write from any process bumps the
+// generation in the data set's lock file (see SharedFileLock), so only
+// the lock files are watched: a changed generation that this process did
+// not write drops the affected caches and is reported to the listeners,
+// once per data set for each batch of events.
+public class DatabaseWatcher {
+
+    public enum DataSet {
+        USERS, COURSES, QUIZZES, ATTEMPTS, CERTIFICATES
+    }
+
+    public interface Listener {
+        // Called on the watcher thread; Swing code should hop to the EDT
+        void dataChanged(Set<DataSet> changed);
+    }
+
+    private final Path dir;
+    private final Map<DataSet, SharedFileLock> locks;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+    private Thread thread;
+
+    DatabaseWatcher(String dir, Map<DataSet, SharedFileLock> locks) {
+        this.dir = Path.of(dir);
+        this.locks = locks;
+    }
+
+    // The watch thread runs while there is at least one listener
+    synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+        if (thread == null) {
+            start();
+        }
+    }
+
+    synchronized void removeListener(Listener listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty() && thread != null) {
+            stop();
+        }
+    }
+
+    private void start() {
+        try {
+            dir.toFile().mkdirs();
+            watchService = FileSystems.getDefault().newWatchService();
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.err.println("Cannot watch " + dir + " for changes from other clients: " + e.getMessage());
+            return;
+        }
+        WatchService service = watchService;
+        thread = new Thread(() -> run(service), "database-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void stop() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        watchService = null;
+        thread = null;
+    }
+
+    private void run(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Set<DataSet> touched = EnumSet.noneOf(DataSet.class);
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // events were lost: check every data set
+                            touched.addAll(locks.keySet());
+                            continue;
+                        }
+                        DataSet set = dataSetOf((Path) event.context());
+                        if (set != null) {
+                            touched.add(set);
+                        }
+                    }
+                    key.reset();
+                    key = service.poll();
+                } while (key != null);
+
+                Set<DataSet> changed = EnumSet.noneOf(DataSet.class);
+                for (DataSet set : touched) {
+                    if (locks.get(set).refresh()) {
+                        changed.add(set);
+                    }
+                }
+                if (!changed.isEmpty()) {
+                    notifyListeners(changed);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    private DataSet dataSetOf(Path name) {
+        for (Map.Entry<DataSet, SharedFileLock> e : locks.entrySet()) {
+            if (e.getValue().getLockFile().getName().equals(name.toString())) {
+                return e.getKey();
+            }
+        }
+        return null;
+    }
+
+    private void notifyListeners(Set<DataSet> changed) {
+        Set<DataSet> view = Collections.unmodifiableSet(changed);
+        for (Listener listener : listeners) {
+            try {
+                listener.dataChanged(view);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package database;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+// Keeps the parsed entity list of one data file resident in memory.
+// The cached list is only trusted while the backing file(s) still have the
+// size and mtime recorded when it was loaded or last written by us, so a
+// write from another process forces a re-parse on the next read.
+// Callers get a fresh list on every read, the entities inside it are shared.
+// pin() hands out the resident list itself, read-only; the cache copies it
+// before its next in-place change (copy-on-write), so a pinned list never
+// changes and pinning costs nothing while the data stays the same. Callers
+// may still change the shared entities in place before saving them, so for
+// types that allow it pin(loader, copy) hands out copies of the entities,
+// made once per version of the list.
+// Hash indexes and derived views over the resident list are built on first
+// use and dropped whenever the list is replaced; append() and upsert() keep
+// them in sync, except that a view cannot take back a replaced entity.
+class EntityCache<T> {
+
+    // A secondary structure derived from the cached entities
+    interface View<T> {
+        void add(T entity);
+    }
+
+    private final Supplier<File[]> sources;
+    private File[] files = new File[0];
+    private long[] sizes = new long[0];
+    private long[] modified = new long[0];
+    private List<T> entities;
+    private boolean pinned; // entities has been handed out by pin()
+    private List<T> copies; // handed out by pin(loader, copy) for the current entities
+    private UnaryOperator<T> copier; // made copies
+    // primary key -> position in entities, for upsert(); built on first use
+    private Function<T, ?> positionKey;
+    private Map<Object, Integer> positions;
+    private final Map<Function<T, ?>, Map<Object, T>> indexes = new HashMap<>();
+    private final Map<Supplier<? extends View<T>>, View<T>> views = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    EntityCache(String... paths) {
+        File[] files = new File[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            files[i] = new File(paths[i]);
+        }
+        this.sources = () -> files;
+    }
+
+    // For data spread over a changing set of files (e.g. log segments)
+    EntityCache(Supplier<File[]> sources) {
+        this.sources = sources;
+    }
+
+    synchronized List<T> get(Supplier<List<T>> loader) {
+        ensureLoaded(loader);
+        return new ArrayList<>(entities);
+    }
+
+    synchronized List<T> pin(Supplier<List<T>> loader) {
+        ensureLoaded(loader);
+        pinned = true;
+        return Collections.unmodifiableList(entities);
+    }
+
+    synchronized List<T> pin(Supplier<List<T>> loader, UnaryOperator<T> copy) {
+        ensureLoaded(loader);
+        if (copies == null) {
+            List<T> copied = new ArrayList<>(entities.size());
+            for (T entity : entities) {
+                copied.add(copy.apply(entity));
+            }
+            copies = Collections.unmodifiableList(copied);
+            copier = copy;
+        }
+        return copies;
+    }
+
+    // pin() together with a query on a derived view of the very same list
+    synchronized <V extends View<T>, R> R pin(Supplier<List<T>> loader, Supplier<V> factory,
+                                              BiFunction<List<T>, V, R> query) {
+        List<T> list = pin(loader);
+        return query.apply(list, view(factory));
+    }
+
+    // Point lookup through the index for the given key function.
+    // Entities whose key is null are left out of that index.
+    synchronized T lookup(Supplier<List<T>> loader, Function<T, ?> key, Object value) {
+        ensureLoaded(loader);
+        Map<Object, T> index = indexes.get(key);
+        if (index == null) {
+            index = new HashMap<>();
+            for (T entity : entities) {
+                Object k = key.apply(entity);
+                if (k != null) {
+                    index.putIfAbsent(k, entity);
+                }
+            }
+            indexes.put(key, index);
+        }
+        return index.get(value);
+    }
+
+    // Runs a query against a derived view, building the view on first use
+    synchronized <V extends View<T>, R> R query(Supplier<List<T>> loader, Supplier<V> factory,
+                                                Function<V, R> query) {
+        ensureLoaded(loader);
+        return query.apply(view(factory));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V extends View<T>> V view(Supplier<V> factory) {
+        View<T> view = views.get(factory);
+        if (view == null) {
+            view = factory.get();
+            for (T entity : entities) {
+                view.add(entity);
+            }
+            views.put(factory, view);
+        }
+        return (V) view;
+    }
+
+    // Write-through: called right after the backing file has been rewritten
+    synchronized void put(List<T> updated) {
+        entities = new ArrayList<>(updated);
+        pinned = false;
+        clearDerived();
+        stamp();
+    }
+
+    // Write-through of a single new entity; indexes and views are updated in place
+    synchronized void append(T entity) {
+        if (entities == null) {
+            return;
+        }
+        unpin();
+        add(entity);
+        stamp();
+    }
+
+    // Write-through of one new or changed entity, matched by its primary key.
+    // A replaced entity is swapped in place in the list, the indexes and the
+    // pinned copies; only the views are dropped.
+    synchronized void upsert(T entity, Function<T, ?> key) {
+        if (entities == null) {
+            return;
+        }
+        unpin();
+        Integer position = positions(key).get(key.apply(entity));
+        if (position == null) {
+            add(entity);
+        } else {
+            T old = entities.set(position, entity);
+            replaceInIndexes(old, entity);
+            views.clear();
+            patchCopies(position, entity);
+        }
+        stamp();
+    }
+
+    synchronized void invalidate() {
+        entities = null;
+        clearDerived();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private void ensureLoaded(Supplier<List<T>> loader) {
+        if (entities != null && isFresh()) {
+            hits.incrementAndGet();
+            return;
+        }
+
+        misses.incrementAndGet();
+        // stamp before reading so a write racing with the load is seen next time
+        stamp();
+        entities = new ArrayList<>(loader.get());
+        pinned = false;
+        clearDerived();
+    }
+
+    private void add(T entity) {
+        entities.add(entity);
+        if (positions != null) {
+            positions.putIfAbsent(positionKey.apply(entity), entities.size() - 1);
+        }
+        for (Map.Entry<Function<T, ?>, Map<Object, T>> index : indexes.entrySet()) {
+            Object k = index.getKey().apply(entity);
+            if (k != null) {
+                index.getValue().putIfAbsent(k, entity);
+            }
+        }
+        for (View<T> view : views.values()) {
+            view.add(entity);
+        }
+        patchCopies(entities.size() - 1, entity);
+    }
+
+    private Map<Object, Integer> positions(Function<T, ?> key) {
+        if (positions == null || positionKey != key) {
+            positions = new HashMap<>();
+            positionKey = key;
+            for (int i = 0; i < entities.size(); i++) {
+                positions.putIfAbsent(key.apply(entities.get(i)), i);
+            }
+        }
+        return positions;
+    }
+
+    // An index whose key changed is dropped: another entity may hold the old key
+    private void replaceInIndexes(T old, T entity) {
+        Iterator<Map.Entry<Function<T, ?>, Map<Object, T>>> it = indexes.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Function<T, ?>, Map<Object, T>> index = it.next();
+            Object oldKey = index.getKey().apply(old);
+            Object newKey = index.getKey().apply(entity);
+            if (!Objects.equals(oldKey, newKey)) {
+                it.remove();
+            } else if (newKey != null && index.getValue().get(newKey) == old) {
+                index.getValue().put(newKey, entity);
+            }
+        }
+    }
+
+    // Pinned copies are shared with snapshots, so the list is copied; only
+    // the changed entity is
+    private void patchCopies(int position, T entity) {
+        if (copies == null) {
+            return;
+        }
+        List<T> next = new ArrayList<>(copies);
+        if (position == next.size()) {
+            next.add(copier.apply(entity));
+        } else {
+            next.set(position, copier.apply(entity));
+        }
+        copies = Collections.unmodifiableList(next);
+    }
+
+    private void unpin() {
+        if (pinned) {
+            entities = new ArrayList<>(entities);
+            pinned = false;
+        }
+    }
+
+    private void clearDerived() {
+        copies = null;
+        positions = null;
+        indexes.clear();
+        views.clear();
+    }
+
+    private boolean isFresh() {
+        File[] current = sources.get();
+        if (current.length != files.length) {
+            return false;
+        }
+        for (int i = 0; i < current.length; i++) {
+            if (!current[i].equals(files[i])
+                    || current[i].length() != sizes[i]
+                    || current[i].lastModified() != modified[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void stamp() {
+        files = sources.get();
+        sizes = new long[files.length];
+        modified = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            sizes[i] = files[i].length();
+            modified[i] = files[i].lastModified();
+        }
+    }
+}
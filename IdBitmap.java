@@ -0,0 +1,472 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// A compressed set of ints in the Roaring layout: values are grouped by
+// their high 16 bits, and each group keeps its low 16 bits either as a
+// sorted char array (up to ARRAY_MAX values) or as a 65536-bit bitmap,
+// whichever is smaller. Membership is a binary search over the groups plus
+// one probe, the cardinality is kept, and and/or/andNot work a group at a
+// time with word-wide operations where both sides are bitmaps.
+//
+// Iteration order is ascending for non-negative values (negative ones sort
+// after them). Not thread-safe; callers copy before sharing changes.
+public final class IdBitmap {
+
+    static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1 << 10; // 65536 bits
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int count;        // containers in use
+    private int cardinality;
+
+    public IdBitmap() {
+    }
+
+    public IdBitmap(int[] values) {
+        for (int v : values) {
+            add(v);
+        }
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    public boolean contains(int value) {
+        int i = find(high(value));
+        return i >= 0 && containers[i].contains(low(value));
+    }
+
+    // false when the value was already there
+    public boolean add(int value) {
+        char key = high(value);
+        int i = find(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, key, new Container());
+        }
+        if (!containers[i].add(low(value))) {
+            return false;
+        }
+        cardinality++;
+        return true;
+    }
+
+    public boolean remove(int value) {
+        int i = find(high(value));
+        if (i < 0 || !containers[i].remove(low(value))) {
+            return false;
+        }
+        cardinality--;
+        if (containers[i].cardinality == 0) {
+            removeContainer(i);
+        }
+        return true;
+    }
+
+    // Values in both
+    public IdBitmap and(IdBitmap other) {
+        IdBitmap result = new IdBitmap();
+        int i = 0, j = 0;
+        while (i < count && j < other.count) {
+            int cmp = Character.compare(keys[i], other.keys[j]);
+            if (cmp < 0) {
+                i++;
+            } else if (cmp > 0) {
+                j++;
+            } else {
+                result.appendContainer(keys[i], containers[i].and(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    // Values in either
+    public IdBitmap or(IdBitmap other) {
+        IdBitmap result = new IdBitmap();
+        int i = 0, j = 0;
+        while (i < count || j < other.count) {
+            int cmp = i == count ? 1 : j == other.count ? -1 : Character.compare(keys[i], other.keys[j]);
+            if (cmp < 0) {
+                result.appendContainer(keys[i], containers[i].copy());
+                i++;
+            } else if (cmp > 0) {
+                result.appendContainer(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.appendContainer(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    // Values here but not in other
+    public IdBitmap andNot(IdBitmap other) {
+        IdBitmap result = new IdBitmap();
+        int j = 0;
+        for (int i = 0; i < count; i++) {
+            while (j < other.count && Character.compare(other.keys[j], keys[i]) < 0) {
+                j++;
+            }
+            if (j < other.count && other.keys[j] == keys[i]) {
+                result.appendContainer(keys[i], containers[i].andNot(other.containers[j]));
+            } else {
+                result.appendContainer(keys[i], containers[i].copy());
+            }
+        }
+        return result;
+    }
+
+    public int[] toArray() {
+        int[] values = new int[cardinality];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            n = containers[i].fill(keys[i] << 16, values, n);
+        }
+        return values;
+    }
+
+    public IdBitmap copy() {
+        IdBitmap copy = new IdBitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(4, count));
+        copy.containers = new Container[copy.keys.length];
+        for (int i = 0; i < count; i++) {
+            copy.containers[i] = containers[i].copy();
+        }
+        copy.count = count;
+        copy.cardinality = cardinality;
+        return copy;
+    }
+
+    // Layout: container count, then per container its key (short), kind
+    // (0 array, 1 bitmap), cardinality and either the low halves (shorts)
+    // or the 1024 bitmap words
+    public byte[] toBytes() {
+        int size = 4;
+        for (int i = 0; i < count; i++) {
+            size += 2 + 1 + 4 + (containers[i].bits != null ? WORDS * 8 : containers[i].cardinality * 2);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(count);
+        for (int i = 0; i < count; i++) {
+            Container c = containers[i];
+            buf.putChar(keys[i]);
+            buf.put((byte) (c.bits != null ? 1 : 0));
+            buf.putInt(c.cardinality);
+            if (c.bits != null) {
+                for (long w : c.bits) {
+                    buf.putLong(w);
+                }
+            } else {
+                for (int k = 0; k < c.cardinality; k++) {
+                    buf.putChar(c.values[k]);
+                }
+            }
+        }
+        return buf.array();
+    }
+
+    public static IdBitmap fromBytes(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        IdBitmap bitmap = new IdBitmap();
+        int containers = buf.getInt();
+        for (int i = 0; i < containers; i++) {
+            char key = buf.getChar();
+            boolean isBitmap = buf.get() != 0;
+            Container c = new Container();
+            c.cardinality = buf.getInt();
+            if (isBitmap) {
+                c.bits = new long[WORDS];
+                for (int k = 0; k < WORDS; k++) {
+                    c.bits[k] = buf.getLong();
+                }
+            } else {
+                c.values = new char[Math.max(4, c.cardinality)];
+                for (int k = 0; k < c.cardinality; k++) {
+                    c.values[k] = buf.getChar();
+                }
+            }
+            if (bitmap.count > 0 && Character.compare(key, bitmap.keys[bitmap.count - 1]) <= 0) {
+                throw new IllegalArgumentException("Containers out of order");
+            }
+            bitmap.appendContainer(key, c);
+        }
+        return bitmap;
+    }
+
+    private static char high(int value) {
+        return (char) (value >>> 16);
+    }
+
+    private static char low(int value) {
+        return (char) value;
+    }
+
+    private int find(char key) {
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Character.compare(keys[mid], key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private void insertContainer(int index, char key, Container c) {
+        if (count == keys.length) {
+            keys = Arrays.copyOf(keys, count * 2);
+            containers = Arrays.copyOf(containers, count * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, count - index);
+        System.arraycopy(containers, index, containers, index + 1, count - index);
+        keys[index] = key;
+        containers[index] = c;
+        count++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(keys, index + 1, keys, index, count - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, count - index - 1);
+        containers[--count] = null;
+    }
+
+    // keys arrive in ascending order; empty results are dropped
+    private void appendContainer(char key, Container c) {
+        if (c.cardinality == 0) {
+            return;
+        }
+        insertContainer(count, key, c);
+        cardinality += c.cardinality;
+    }
+
+    // The low 16 bits of one group: a sorted array while small, a bitmap
+    // once it holds more than ARRAY_MAX values
+    private static final class Container {
+        char[] values = new char[4];
+        long[] bits;
+        int cardinality;
+
+        boolean contains(char v) {
+            if (bits != null) {
+                return (bits[v >>> 6] & (1L << v)) != 0;
+            }
+            return Arrays.binarySearch(values, 0, cardinality, v) >= 0;
+        }
+
+        boolean add(char v) {
+            if (bits != null) {
+                long bit = 1L << v;
+                if ((bits[v >>> 6] & bit) != 0) {
+                    return false;
+                }
+                bits[v >>> 6] |= bit;
+                cardinality++;
+                return true;
+            }
+            int i = Arrays.binarySearch(values, 0, cardinality, v);
+            if (i >= 0) {
+                return false;
+            }
+            i = -i - 1;
+            if (cardinality == ARRAY_MAX) {
+                toBitmap();
+                return add(v);
+            }
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = v;
+            cardinality++;
+            return true;
+        }
+
+        boolean remove(char v) {
+            if (bits != null) {
+                long bit = 1L << v;
+                if ((bits[v >>> 6] & bit) == 0) {
+                    return false;
+                }
+                bits[v >>> 6] &= ~bit;
+                cardinality--;
+                if (cardinality <= ARRAY_MAX) {
+                    toArrayForm();
+                }
+                return true;
+            }
+            int i = Arrays.binarySearch(values, 0, cardinality, v);
+            if (i < 0) {
+                return false;
+            }
+            System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+            cardinality--;
+            return true;
+        }
+
+        Container and(Container other) {
+            if (bits != null && other.bits != null) {
+                Container c = new Container();
+                c.bits = new long[WORDS];
+                for (int k = 0; k < WORDS; k++) {
+                    c.bits[k] = bits[k] & other.bits[k];
+                    c.cardinality += Long.bitCount(c.bits[k]);
+                }
+                if (c.cardinality <= ARRAY_MAX) {
+                    c.toArrayForm();
+                }
+                return c;
+            }
+            // at least one side is a small array: probe the other with it
+            Container small = bits == null ? this : other;
+            Container large = small == this ? other : this;
+            Container c = new Container();
+            c.values = new char[Math.max(4, small.cardinality)];
+            for (int k = 0; k < small.cardinality; k++) {
+                if (large.contains(small.values[k])) {
+                    c.values[c.cardinality++] = small.values[k];
+                }
+            }
+            return c;
+        }
+
+        Container or(Container other) {
+            if (bits == null && other.bits == null && cardinality + other.cardinality <= ARRAY_MAX) {
+                // merge two sorted arrays
+                Container c = new Container();
+                c.values = new char[Math.max(4, cardinality + other.cardinality)];
+                int i = 0, j = 0;
+                while (i < cardinality || j < other.cardinality) {
+                    char next;
+                    if (j == other.cardinality || (i < cardinality && values[i] < other.values[j])) {
+                        next = values[i++];
+                    } else if (i == cardinality || other.values[j] < values[i]) {
+                        next = other.values[j++];
+                    } else {
+                        next = values[i++];
+                        j++;
+                    }
+                    c.values[c.cardinality++] = next;
+                }
+                return c;
+            }
+            Container c = copy();
+            c.toBitmap();
+            if (other.bits != null) {
+                c.cardinality = 0;
+                for (int k = 0; k < WORDS; k++) {
+                    c.bits[k] |= other.bits[k];
+                    c.cardinality += Long.bitCount(c.bits[k]);
+                }
+            } else {
+                for (int k = 0; k < other.cardinality; k++) {
+                    c.add(other.values[k]);
+                }
+            }
+            if (c.cardinality <= ARRAY_MAX) {
+                c.toArrayForm();
+            }
+            return c;
+        }
+
+        Container andNot(Container other) {
+            if (bits != null && other.bits != null) {
+                Container c = new Container();
+                c.bits = new long[WORDS];
+                for (int k = 0; k < WORDS; k++) {
+                    c.bits[k] = bits[k] & ~other.bits[k];
+                    c.cardinality += Long.bitCount(c.bits[k]);
+                }
+                if (c.cardinality <= ARRAY_MAX) {
+                    c.toArrayForm();
+                }
+                return c;
+            }
+            if (bits == null) {
+                Container c = new Container();
+                c.values = new char[Math.max(4, cardinality)];
+                for (int k = 0; k < cardinality; k++) {
+                    if (!other.contains(values[k])) {
+                        c.values[c.cardinality++] = values[k];
+                    }
+                }
+                return c;
+            }
+            Container c = copy();
+            for (int k = 0; k < other.cardinality; k++) {
+                c.remove(other.values[k]);
+            }
+            return c;
+        }
+
+        int fill(int high, int[] out, int n) {
+            if (bits != null) {
+                for (int k = 0; k < WORDS; k++) {
+                    long w = bits[k];
+                    while (w != 0) {
+                        out[n++] = high | (k << 6) + Long.numberOfTrailingZeros(w);
+                        w &= w - 1;
+                    }
+                }
+            } else {
+                for (int k = 0; k < cardinality; k++) {
+                    out[n++] = high | values[k];
+                }
+            }
+            return n;
+        }
+
+        Container copy() {
+            Container c = new Container();
+            c.cardinality = cardinality;
+            if (bits != null) {
+                c.bits = bits.clone();
+                c.values = null;
+            } else {
+                c.values = Arrays.copyOf(values, Math.max(4, cardinality));
+            }
+            return c;
+        }
+
+        private void toBitmap() {
+            if (bits != null) {
+                return;
+            }
+            bits = new long[WORDS];
+            for (int k = 0; k < cardinality; k++) {
+                bits[values[k] >>> 6] |= 1L << values[k];
+            }
+            values = null;
+        }
+
+        private void toArrayForm() {
+            char[] array = new char[Math.max(4, cardinality)];
+            int n = 0;
+            for (int k = 0; k < WORDS; k++) {
+                long w = bits[k];
+                while (w != 0) {
+                    array[n++] = (char) ((k << 6) + Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+            values = array;
+            bits = null;
+        }
+    }
+}
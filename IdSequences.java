@@ -0,0 +1,123 @@
+package database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// Id allocation with hi/lo blocks. Each named sequence has a persisted
+// counter holding the highest id reserved so far; a process moves it up by
+// BLOCK_SIZE at a time and hands the block's ids out from an AtomicLong,
+// so an id costs one increment and the shared counter is touched once per
+// block. Processes never get overlapping blocks because the counter only
+// moves under the store's own exclusion (a file lock, a database
+// transaction...). Ids left in a block when the process exits are skipped.
+//
+// The first reservation of a sequence in a process also raises the counter
+// past the highest id already stored (the floor), which covers data written
+// before the counter existed or by an older client.
+class IdSequences {
+
+    static final int BLOCK_SIZE = 32;
+
+    interface Counter {
+        // Moves the named counter to max(stored, floor) + count and returns it
+        long advance(String name, long floor, int count) throws IOException;
+    }
+
+    private static final class Block {
+        final AtomicLong next;
+        final long last;
+
+        Block(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+        }
+    }
+
+    private final Counter counter;
+    private final Map<String, Block> blocks = new ConcurrentHashMap<>();
+
+    IdSequences(Counter counter) {
+        this.counter = counter;
+    }
+
+    // highestStored scans the store; it only runs on a sequence's first
+    // reservation in this process (or when the counter cannot be written)
+    int next(String name, LongSupplier highestStored) {
+        while (true) {
+            Block block = blocks.get(name);
+            if (block != null) {
+                long id = block.next.getAndIncrement();
+                if (id <= block.last) {
+                    return Math.toIntExact(id);
+                }
+            }
+            if (!reserve(name, block, highestStored)) {
+                // no shared counter: fall back to the next free id
+                return Math.toIntExact(highestStored.getAsLong() + 1);
+            }
+        }
+    }
+
+    private synchronized boolean reserve(String name, Block seen, LongSupplier highestStored) {
+        if (blocks.get(name) != seen) {
+            // another thread got here first
+            return true;
+        }
+        long floor = seen == null ? highestStored.getAsLong() : seen.last;
+        long last;
+        try {
+            last = counter.advance(name, floor, BLOCK_SIZE);
+        } catch (IOException e) {
+            System.err.println("Could not reserve " + name + " ids: " + e.getMessage());
+            return false;
+        }
+        blocks.put(name, new Block(last - BLOCK_SIZE + 1, last));
+        return true;
+    }
+
+    // Counters kept as name=value lines in one file. They are read and
+    // rewritten under an exclusive FileChannel lock on <file>.lock, and the
+    // file is replaced atomically, so a crash leaves the old or new values
+    static Counter inFile(String path) {
+        File file = new File(path);
+        File lockFile = new File(path + ".lock");
+        return (name, floor, count) -> {
+            lockFile.getAbsoluteFile().getParentFile().mkdirs();
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // released when the channel is closed
+                channel.lock();
+                Properties counters = new Properties();
+                if (file.exists()) {
+                    try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                        counters.load(in);
+                    }
+                }
+                long stored;
+                try {
+                    stored = Long.parseLong(counters.getProperty(name, "0"));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad " + name + " counter in " + file);
+                }
+                long last = Math.max(stored, floor) + count;
+                counters.setProperty(name, String.valueOf(last));
+
+                StringWriter out = new StringWriter();
+                counters.store(out, null);
+                AtomicFileWriter.write(file, out.toString().getBytes(StandardCharsets.UTF_8));
+                return last;
+            }
+        };
+    }
+}
@@ -1,17 +1,19 @@
 package model;
 
-import database.JsonDatabaseManager;
+import database.DataStore;
+import database.DataStores;
+import database.Transaction;
 import java.util.ArrayList;
 import java.util.List;
 
 public class Instructor extends User {
     private List<String> createdCourses; // list of courseIds
-    private JsonDatabaseManager dbManager; // ADD THIS
+    private DataStore dbManager; // ADD THIS
     
     public Instructor(String userId, String username, String email, String passwordHash) {
         super(userId, username, email, passwordHash, "Instructor");
         this.createdCourses = new ArrayList<>();
-        this.dbManager = JsonDatabaseManager.getInstance(); // ADD THIS
+        this.dbManager = DataStores.getDefault(); // ADD THIS
     }
     
     @Override
@@ -24,9 +26,7 @@ public class Instructor extends User {
         // Get instructor ID as int
         int instructorId = Integer.parseInt(this.getUserId());
         
-        // Load existing courses to generate new ID
-        List<Course> existingCourses = dbManager.getAllCourses();
-        int newCourseId = dbManager.generateCourseId(existingCourses);
+        int newCourseId = dbManager.generateCourseId();
         
         // sets status to PENDING automatically when creating new course 
         Course newCourse = new Course(newCourseId, title, description, instructorId);
@@ -35,18 +35,12 @@ public class Instructor extends User {
         createdCourses.add(String.valueOf(newCourseId));
         
         // Save course to database
-        existingCourses.add(newCourse);
-        dbManager.saveCourses(existingCourses);
+        dbManager.commit(new Transaction().putCourse(newCourse, 0));
         
         // Update instructor in database
-        List<User> users = dbManager.loadUsers();
-        for (int i = 0; i < users.size(); i++) {
-            if (users.get(i).getUserId().equals(this.getUserId())) {
-                users.set(i, this);
-                break;
-            }
+        if (dbManager.findUser(this.getUserId()) != null) {
+            dbManager.saveUser(this);
         }
-        dbManager.saveUsers(users);
         
         System.out.println("Course created with PENDING status. Waiting for admin approval.");
         return newCourse;
@@ -72,6 +66,14 @@ public class Instructor extends User {
             createdCourses : new ArrayList<>();
     }
     
+    @Override
+    public Instructor copy() {
+        Instructor t = new Instructor(userId, username, email, passwordHash);
+        t.setCreatedCourses(new ArrayList<>(createdCourses));
+        t.setVersion(version);
+        return t;
+    }
+    
    
     public List<Course> getMyCourses() {
         List<Course> allCourses = dbManager.getAllCourses();
@@ -137,4 +139,4 @@ public class Instructor extends User {
         System.out.println("Creating quiz for course: " + courseID);
         
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,7 +1,8 @@
 package gui;
 
 import java.util.ArrayList;
-import database.JsonDatabaseManager;
+import database.DataStore;
+import database.DataStores;
 import model.*;
 import service.CourseService;
 import javax.swing.*;
@@ -12,7 +13,7 @@ public class InstructorDashboardFrame extends javax.swing.JFrame {
 
     private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(InstructorDashboardFrame.class.getName());
     private Instructor currentInstructor;
-    private JsonDatabaseManager dbManager;
+    private DataStore dbManager;
     private CourseService courseService;
     private DefaultTableModel coursesTableModel;
     private DefaultTableModel lessonsTableModel;
@@ -28,7 +29,7 @@ public class InstructorDashboardFrame extends javax.swing.JFrame {
 
     public InstructorDashboardFrame(Instructor instructor) {
         this.currentInstructor = instructor;
-        this.dbManager = new JsonDatabaseManager();
+        this.dbManager = DataStores.getDefault();
         this.courseService = new CourseService(dbManager);
         this.quizRequired = true;
 
@@ -100,7 +101,7 @@ private void loadMyCourses() {
                     course.getCourseID(),
                     course.getCourseTitle(),
                     course.getCourseDescription(),
-                    course.getEnrolledStudentIDs().size(),
+                    course.getEnrolledStudentCount(),
                     status
                 };
                 coursesTableModel.addRow(row);
@@ -301,7 +302,7 @@ private String getStatusDisplay(Course course) {
             int choice = JOptionPane.showConfirmDialog(this,
                 "This course is APPROVED and visible to students.\n\n"
                 + "Editing it may affect enrolled students.\n"
-                + "Current enrollments: " + course.getEnrolledStudentIDs().size() + " students\n\n"
+                + "Current enrollments: " + course.getEnrolledStudentCount() + " students\n\n"
                 + "Do you want to continue editing?",
                 "Edit Approved Course",
                 JOptionPane.YES_NO_OPTION,
@@ -498,7 +499,7 @@ private boolean validateCourseEdits(Course original, String newTitle, String new
     }
     
     // Check significance of changes for approved courses
-    if (original.isApproved() && original.getEnrolledStudentIDs().size() > 0) {
+    if (original.isApproved() && original.getEnrolledStudentCount() > 0) {
         boolean significantChange = 
             !newTitle.equalsIgnoreCase(original.getCourseTitle()) ||
             Math.abs(newDescription.length() - original.getCourseDescription().length()) > 50;
@@ -506,7 +507,7 @@ private boolean validateCourseEdits(Course original, String newTitle, String new
         if (significantChange) {
             int confirm = JOptionPane.showConfirmDialog(this,
                 "Warning: Significant changes detected!\n\n"
-                + "This course has " + original.getEnrolledStudentIDs().size() + " enrolled students.\n"
+                + "This course has " + original.getEnrolledStudentCount() + " enrolled students.\n"
                 + "Large changes may confuse students who are already taking the course.\n\n"
                 + "Do you want to continue?",
                 "Significant Changes Warning",
@@ -547,14 +548,7 @@ private boolean applyCourseEdits(Course course, String newTitle, String newDescr
         }
         
         // Save to database
-        List<Course> courses = dbManager.loadCourses();
-        for (int i = 0; i < courses.size(); i++) {
-            if (courses.get(i).getCourseID() == course.getCourseID()) {
-                courses.set(i, course);
-                break;
-            }
-        }
-        dbManager.saveCourses(courses);
+        dbManager.updateCourse(course);
         
         // Log the change
         System.out.println("Course updated - ID: " + course.getCourseID());
@@ -1406,19 +1400,15 @@ private class EditCourseDialog {
                 JOptionPane.WARNING_MESSAGE);
 
         if (confirm == JOptionPane.YES_OPTION) {
-            List<Course> courses = dbManager.loadCourses();
-            courses.removeIf(c -> c.getCourseID() == selected.getCourseID());
-            dbManager.saveCourses(courses);
-
-            currentInstructor.removeCourse(String.valueOf(selected.getCourseID()));
-            List<User> users = dbManager.loadUsers();
-            for (int i = 0; i < users.size(); i++) {
-                if (users.get(i).getUserId().equals(currentInstructor.getUserId())) {
-                    users.set(i, currentInstructor);
-                    break;
-                }
+            // The course and the instructor's course list change together
+            if (!courseService.deleteCourse(selected.getCourseID())) {
+                JOptionPane.showMessageDialog(this,
+                        "Could not delete the course, please try again.",
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
             }
-            dbManager.saveUsers(users);
+            currentInstructor.removeCourse(String.valueOf(selected.getCourseID()));
 
             JOptionPane.showMessageDialog(this,
                     "Course deleted successfully!",
@@ -1445,7 +1435,7 @@ private class EditCourseDialog {
         StringBuilder studentList = new StringBuilder();
         studentList.append("Enrolled Students for: ").append(selected.getCourseTitle()).append("\n\n");
 
-        if (selected.getEnrolledStudentIDs().isEmpty()) {
+        if (selected.getEnrolledStudentCount() == 0) {
             studentList.append("No students enrolled yet.");
         } else {
             for (Integer studentId : selected.getEnrolledStudentIDs()) {
@@ -109,8 +109,9 @@ public void onCourseSelected() {
 private void loadAnalytics() {
     if (selectedCourseId == -1) return;
     
-    // Load course statistics
-    model.CourseStatistics stats = analyticsService.getCourseStatistics(selectedCourseId);
+    // Statistics and table come from the same snapshot so they agree
+    database.StoreSnapshot view = analyticsService.snapshot();
+    model.CourseStatistics stats = analyticsService.getCourseStatistics(view, selectedCourseId);
     
     if (stats != null) {
         lblTotalStudents.setText(String.valueOf(stats.getTotalStudentsEnrolled()));
@@ -121,7 +122,7 @@ private void loadAnalytics() {
     // Load student performance table
     tableModel.setRowCount(0);
     java.util.List<model.StudentPerformance> performances = 
-        analyticsService.getStudentPerformanceList(selectedCourseId);
+        analyticsService.getStudentPerformanceList(view, selectedCourseId);
     
     for (model.StudentPerformance perf : performances) {
         Object[] row = {
@@ -0,0 +1,121 @@
+package model;
+
+import java.util.Arrays;
+
+// A set of ints kept in insertion order without boxing. The values sit in
+// a growable int array; an open-addressing table maps each value to its
+// position (0 marks a free slot, otherwise position + 1), so add and
+// contains are O(1). remove is O(n) and rebuilds the table.
+public final class IntSet {
+
+    private int[] values;
+    private int size;
+    private int[] table;
+
+    public IntSet() {
+        values = new int[4];
+        table = new int[8];
+    }
+
+    public IntSet(int[] initial) {
+        this();
+        for (int value : initial) {
+            add(value);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // The value at a position, 0 <= index < size(), in insertion order
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return values[index];
+    }
+
+    public boolean contains(int value) {
+        return indexOf(value) >= 0;
+    }
+
+    // Position of the value, or -1
+    public int indexOf(int value) {
+        int mask = table.length - 1;
+        for (int slot = hash(value) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (values[entry - 1] == value) {
+                return entry - 1;
+            }
+        }
+    }
+
+    // false when the value was already there
+    public boolean add(int value) {
+        if (contains(value)) {
+            return false;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        } else {
+            insert(size - 1);
+        }
+        return true;
+    }
+
+    public boolean remove(int value) {
+        int index = indexOf(value);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        rehash(table.length);
+        return true;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    public IntSet copy() {
+        IntSet copy = new IntSet();
+        copy.values = Arrays.copyOf(values, Math.max(4, size));
+        copy.size = size;
+        copy.table = table.clone();
+        return copy;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            insert(i);
+        }
+    }
+
+    private void insert(int index) {
+        int mask = table.length - 1;
+        int slot = hash(values[index]) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+    }
+
+    private static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
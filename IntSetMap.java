@@ -0,0 +1,61 @@
+package model;
+
+import java.util.Arrays;
+
+// int key -> IntSet, keys in insertion order. The keys are an IntSet and
+// each key's set sits at the key's position in a parallel array, so a
+// lookup is one IntSet probe.
+public final class IntSetMap {
+
+    private final IntSet keys = new IntSet();
+    private IntSet[] sets = new IntSet[4];
+
+    public int size() {
+        return keys.size();
+    }
+
+    public int keyAt(int index) {
+        return keys.get(index);
+    }
+
+    public IntSet valueAt(int index) {
+        if (index >= keys.size()) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return sets[index];
+    }
+
+    public boolean containsKey(int key) {
+        return keys.contains(key);
+    }
+
+    // The key's set, or null
+    public IntSet get(int key) {
+        int index = keys.indexOf(key);
+        return index >= 0 ? sets[index] : null;
+    }
+
+    // The key's set, added empty if the key is new
+    public IntSet getOrCreate(int key) {
+        int index = keys.indexOf(key);
+        if (index >= 0) {
+            return sets[index];
+        }
+        keys.add(key);
+        if (keys.size() > sets.length) {
+            sets = Arrays.copyOf(sets, sets.length * 2);
+        }
+        IntSet set = new IntSet();
+        sets[keys.size() - 1] = set;
+        return set;
+    }
+
+    public IntSetMap copy() {
+        IntSetMap copy = new IntSetMap();
+        for (int i = 0; i < keys.size(); i++) {
+            copy.getOrCreate(keys.get(i));
+            copy.sets[i] = sets[i].copy();
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,453 @@
+package database;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// An entity file stored as a base snapshot ({"<arrayName>": [...]}) plus a
+// patch journal next to it (<name>.journal.jsonl) holding one
+// {"put": record} or {"delete": "key"} line per changed entity.
+//
+// Every snapshot written carries a generation number and the journal starts
+// with a {"generation": n} line naming the snapshot it patches. A journal
+// of an older generation is already merged into the snapshot (a compaction
+// stopped before emptying it, or another process is compacting) and is
+// skipped when reading. Files without the number count as generation 0.
+//
+// Callers say what changed: a save journals exactly the entities and
+// deleted keys it is given, without looking at the rest. Once the journal
+// holds more entries than the file has records (or MIN_COMPACT_ENTRIES),
+// the save merges it into a new snapshot. A save of a whole list is a
+// compaction.
+class JournaledFile<T> {
+
+    private static final int MIN_COMPACT_ENTRIES = 500;
+    private static final String GENERATION = "generation";
+    // tries before reading a journal newer than the snapshot as it is
+    private static final int READ_ATTEMPTS = 3;
+
+    private final File base;
+    private final File journal;
+    private final String arrayName;
+    private final Function<T, ?> key;
+
+    // records in the file when last read or compacted
+    private int size;
+    private int journalEntries;
+    // false until read, and once another process changed the files
+    private boolean current;
+    // of the snapshot, and of the journal (-1: none or empty)
+    private long generation;
+    private long journalGeneration = -1;
+
+    // Write-behind saves not made yet: a whole list to write first, then
+    // the entities changed and keys deleted after it
+    private List<T> pendingAll;
+    private final Map<String, T> pendingPuts = new LinkedHashMap<>();
+    private final Set<String> pendingDeletes = new LinkedHashSet<>();
+
+    private volatile FileChannel journalChannel;
+    private final Object syncLock = new Object();
+    private long syncedPosition;
+
+    JournaledFile(String path, String arrayName, Function<T, ?> key) {
+        this.base = new File(path);
+        this.journal = new File(path.replaceFirst("\\.json$", "") + ".journal.jsonl");
+        this.arrayName = arrayName;
+        this.key = key;
+    }
+
+    String getPath() {
+        return base.getPath();
+    }
+
+    File[] files() {
+        return new File[] { base, journal };
+    }
+
+    // Snapshot with the journal applied; records the reader maps to null are dropped
+    synchronized List<T> read(Function<JsonStreamReader, T> recordReader) throws IOException {
+        Map<String, T> records;
+        long[] baseGeneration = new long[1];
+        List<String> lines;
+        for (int attempt = 1; ; attempt++) {
+            Map<String, T> read = new LinkedHashMap<>();
+            baseGeneration[0] = 0;
+            JsonStreamReader.readArray(base.getPath(), arrayName, reader -> {
+                T record = recordReader.apply(reader);
+                if (record != null) {
+                    read.put(keyOf(record), record);
+                }
+            }, (field, reader) -> {
+                if (field.equals(GENERATION)) {
+                    baseGeneration[0] = reader.nextLong();
+                } else {
+                    reader.skipValue();
+                }
+            });
+            records = read;
+            lines = journal.exists() ? Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8) : List.of();
+            // another process compacted while the files were read
+            if (attempt == READ_ATTEMPTS || (journalGeneration(lines) <= baseGeneration[0]
+                    && readBaseGeneration() == baseGeneration[0])) {
+                break;
+            }
+        }
+
+        long journalGen = journalGeneration(lines);
+        int entries = 0;
+        if (journalGen >= baseGeneration[0]) {
+            for (String line : lines) {
+                if (line.isEmpty() || headerGeneration(line) >= 0) {
+                    continue;
+                }
+                try {
+                    applyPatch(line, records, recordReader);
+                    entries++;
+                } catch (JSONException e) {
+                    // torn write at the end of the journal
+                    System.err.println("Skipping unreadable journal entry in " + journal + ": " + e.getMessage());
+                }
+            }
+        }
+        generation = baseGeneration[0];
+        journalGeneration = journalGen;
+        journalEntries = entries;
+        size = records.size();
+        current = true;
+
+        return new ArrayList<>(records.values());
+    }
+
+    // Takes entities read some other way (a binary snapshot of this file) as
+    // what is on disk, so the next save can journal against it
+    synchronized void adopt(List<T> entities) throws IOException {
+        readJournalState();
+        size = entities.size();
+    }
+
+    // The generations and journal length on disk, for appending to them
+    private void readJournalState() throws IOException {
+        List<String> lines = journal.exists() ? Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8) : List.of();
+        generation = readBaseGeneration();
+        journalGeneration = journalGeneration(lines);
+        int entries = 0;
+        if (journalGeneration >= generation) {
+            for (String line : lines) {
+                if (!line.isEmpty() && headerGeneration(line) < 0) {
+                    entries++;
+                }
+            }
+        }
+        journalEntries = entries;
+        current = true;
+    }
+
+    // Another process changed the files: the next save looks at them again
+    // before journaling
+    synchronized void forget() {
+        current = false;
+        synchronized (syncLock) {
+            syncedPosition = 0;
+        }
+    }
+
+    // Merges the journal into a new snapshot of exactly these entities
+    synchronized void compact(List<T> entities, BiConsumer<JsonStreamWriter, T> recordWriter, boolean pretty)
+            throws IOException {
+        rewrite(entities, recordWriter, pretty);
+    }
+
+    // Journals the changed entities and deleted keys; all supplies the
+    // file's entities, with or without these changes, in case the journal
+    // is due for compaction
+    void save(Collection<T> changed, Collection<String> deleted, BiConsumer<JsonStreamWriter, T> recordWriter,
+              boolean pretty, Supplier<List<T>> all) throws IOException {
+        if (changed.isEmpty() && deleted.isEmpty()) {
+            return;
+        }
+        long position;
+        synchronized (this) {
+            if (!current) {
+                readJournalState();
+            }
+            List<String> patches = new ArrayList<>();
+            for (T entity : changed) {
+                patches.add("{\"put\":" + render(entity, recordWriter) + "}");
+            }
+            for (String k : deleted) {
+                patches.add(deletePatch(k));
+            }
+            position = append(patches);
+            if (journalEntries > Math.max(MIN_COMPACT_ENTRIES, size)) {
+                rewrite(merge(all.get(), changed, deleted), recordWriter, pretty);
+                return;
+            }
+        }
+        syncTo(position);
+    }
+
+    // Remembers a save for flushDeferred: entities replaces the whole list
+    synchronized void defer(List<T> entities) {
+        pendingAll = entities;
+        pendingPuts.clear();
+        pendingDeletes.clear();
+    }
+
+    synchronized void defer(T changed) {
+        String k = keyOf(changed);
+        pendingDeletes.remove(k);
+        pendingPuts.put(k, changed);
+    }
+
+    synchronized void deferDelete(String deleted) {
+        pendingPuts.remove(deleted);
+        pendingDeletes.add(deleted);
+    }
+
+    synchronized boolean hasDeferred() {
+        return pendingAll != null || !pendingPuts.isEmpty() || !pendingDeletes.isEmpty();
+    }
+
+    // entities, as read from disk, with the deferred saves applied
+    synchronized List<T> withDeferred(List<T> entities) {
+        if (!hasDeferred()) {
+            return entities;
+        }
+        return merge(pendingAll != null ? pendingAll : entities, pendingPuts.values(), pendingDeletes);
+    }
+
+    // Makes the deferred saves, as one compaction or one journal append
+    void flushDeferred(BiConsumer<JsonStreamWriter, T> recordWriter, boolean pretty, Supplier<List<T>> all)
+            throws IOException {
+        List<T> entities;
+        List<T> changed;
+        List<String> deleted;
+        synchronized (this) {
+            entities = pendingAll;
+            changed = new ArrayList<>(pendingPuts.values());
+            deleted = new ArrayList<>(pendingDeletes);
+            pendingAll = null;
+            pendingPuts.clear();
+            pendingDeletes.clear();
+        }
+        if (entities == null) {
+            save(changed, deleted, recordWriter, pretty, all);
+        } else {
+            compact(merge(entities, changed, deleted), recordWriter, pretty);
+        }
+    }
+
+    private List<T> merge(List<T> entities, Collection<T> changed, Collection<String> deleted) {
+        Map<String, T> merged = new LinkedHashMap<>();
+        for (T entity : entities) {
+            merged.put(keyOf(entity), entity);
+        }
+        for (T entity : changed) {
+            merged.put(keyOf(entity), entity);
+        }
+        merged.keySet().removeAll(deleted);
+        return new ArrayList<>(merged.values());
+    }
+
+    // Compaction: a new base snapshot of the next generation, then a journal
+    // holding just its header. Until the journal is emptied it names an
+    // older generation, so a crash or a reader in between ignores it.
+    private void rewrite(List<T> entities, BiConsumer<JsonStreamWriter, T> recordWriter, boolean pretty)
+            throws IOException {
+        // another process may have compacted since this one last looked
+        long next = Math.max(Math.max(generation, journalGeneration),
+                Math.max(readBaseGeneration(), readJournalGeneration())) + 1;
+        AtomicFileWriter.write(base, out -> {
+            JsonStreamWriter writer = new JsonStreamWriter(out, pretty);
+            writer.beginObject().name(GENERATION).value(next).name(arrayName).beginArray();
+            for (T entity : entities) {
+                recordWriter.accept(writer, entity);
+            }
+            writer.endArray().endObject();
+            writer.flush();
+        });
+
+        generation = next;
+        if (journal.exists()) {
+            startJournal(journalChannel());
+            journalChannel.force(true);
+        } else {
+            journalGeneration = -1;
+        }
+        size = entities.size();
+        current = true;
+    }
+
+    // Empties the journal down to a header for the current snapshot
+    private void startJournal(FileChannel channel) throws IOException {
+        channel.truncate(0);
+        synchronized (syncLock) {
+            syncedPosition = 0;
+        }
+        write(channel, "{\"" + GENERATION + "\":" + generation + "}\n");
+        journalGeneration = generation;
+        journalEntries = 0;
+    }
+
+    // Writes the patches without forcing them; returns the end position
+    private long append(List<String> patches) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String patch : patches) {
+            sb.append(patch).append('\n');
+        }
+        FileChannel channel = journalChannel();
+        if (journalGeneration != generation) {
+            // missing, or left over from an older snapshot that contains it
+            startJournal(channel);
+        }
+        write(channel, sb.toString());
+        journalEntries += patches.size();
+        return channel.position();
+    }
+
+    private static void write(FileChannel channel, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Forces the journal up to position, unless a force since covered it
+    private void syncTo(long position) throws IOException {
+        synchronized (syncLock) {
+            // position is read without the file lock: save() takes the locks in the other order
+            FileChannel channel = journalChannel;
+            if (syncedPosition > channel.size()) {
+                // truncated by a compaction since the last force
+                syncedPosition = 0;
+            }
+            if (syncedPosition >= position) {
+                return;
+            }
+            long end = channel.position();
+            channel.force(false);
+            syncedPosition = end;
+        }
+    }
+
+    private FileChannel journalChannel() throws IOException {
+        if (journalChannel == null || !journalChannel.isOpen()) {
+            journal.getAbsoluteFile().getParentFile().mkdirs();
+            journalChannel = FileChannel.open(journal.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            // finish a line torn by a crash so the next patch starts cleanly
+            long size = journalChannel.size();
+            if (size > 0) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                try (FileChannel in = FileChannel.open(journal.toPath(), StandardOpenOption.READ)) {
+                    in.read(last, size - 1);
+                }
+                if (last.get(0) != '\n') {
+                    journalChannel.write(ByteBuffer.wrap(new byte[] { '\n' }));
+                }
+            }
+        }
+        return journalChannel;
+    }
+
+    // What the snapshot file says, reading no further than its first field
+    private long readBaseGeneration() throws IOException {
+        if (!base.exists()) {
+            return 0;
+        }
+        try (JsonStreamReader reader = new JsonStreamReader(
+                Files.newBufferedReader(base.toPath(), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            return reader.hasNext() && reader.nextName().equals(GENERATION) ? reader.nextLong() : 0;
+        } catch (JSONException e) {
+            return 0;
+        }
+    }
+
+    private long readJournalGeneration() throws IOException {
+        if (!journal.exists()) {
+            return -1;
+        }
+        try (BufferedReader in = Files.newBufferedReader(journal.toPath(), StandardCharsets.UTF_8)) {
+            String first = in.readLine();
+            return journalGeneration(first != null ? List.of(first) : List.of());
+        }
+    }
+
+    // From the header line; a journal of patches only predates generations
+    private static long journalGeneration(List<String> lines) {
+        if (lines.isEmpty()) {
+            return -1;
+        }
+        long header = headerGeneration(lines.get(0));
+        return header >= 0 ? header : 0;
+    }
+
+    // -1 for a line that is not a header
+    private static long headerGeneration(String line) {
+        if (!line.startsWith("{\"" + GENERATION + "\":")) {
+            return -1;
+        }
+        try {
+            JsonStreamReader reader = new JsonStreamReader(new StringReader(line));
+            reader.beginObject();
+            reader.nextName();
+            return reader.nextLong();
+        } catch (JSONException e) {
+            return -1;
+        }
+    }
+
+    private void applyPatch(String line, Map<String, T> records, Function<JsonStreamReader, T> recordReader) {
+        JsonStreamReader reader = new JsonStreamReader(new StringReader(line));
+        reader.beginObject();
+        String op = reader.nextName();
+        if (op.equals("put")) {
+            T record = recordReader.apply(reader);
+            if (record != null) {
+                records.put(keyOf(record), record);
+            }
+        } else if (op.equals("delete")) {
+            records.remove(reader.nextString());
+        } else {
+            throw new JSONException("Unknown journal operation: " + op);
+        }
+        reader.endObject();
+    }
+
+    private String deletePatch(String k) {
+        StringWriter out = new StringWriter();
+        new JsonStreamWriter(out, false).beginObject().name("delete").value(k).endObject();
+        return out.toString();
+    }
+
+    private String keyOf(T entity) {
+        return String.valueOf(key.apply(entity));
+    }
+
+    private static <T> String render(T entity, BiConsumer<JsonStreamWriter, T> recordWriter) {
+        StringWriter out = new StringWriter();
+        recordWriter.accept(new JsonStreamWriter(out, false), entity);
+        return out.toString();
+    }
+}
@@ -1,532 +1,938 @@
 package database;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import model.*;
 import model.Course.ApprovalStatus;
 import org.json.JSONException;
 
-public class JsonDatabaseManager {
+public class JsonDatabaseManager implements DataStore {
     
-    private static JsonDatabaseManager instance;
     private static final String USERS_FILE = "database/users.json";
     private static final String COURSES_FILE = "database/courses.json";
     private static final String QUIZZES_FILE = "database/quizzes.json";
     private static final String CERTIFICATES_FILE = "database/certificates.json";
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final String ATTEMPTS_DIR = "database/attempts";
+    private static final String SNAPSHOT_DIR = "database/snapshots";
+    private static final String WAL_DIR = "database/wal";
+    private static final String SEQUENCES_FILE = "database/sequences.properties";
+    private static final int ENROLLMENT_BITMAP_MIN = 1024; // students; see writeCourse
+    private static volatile boolean prettyPrint = false;
+    private static volatile WriteBehindFlusher writeBehind;
+    // a write-behind save of the quiz file not made yet; changed under quizLock
+    private static volatile List<Quiz> pendingQuizzes;
+    // immutable, so one instance serves every thread
+    private static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // Quiz attempts live in an append-only log, not in quizzes.json
+    private static final SegmentedLog attemptLog = new SegmentedLog(ATTEMPTS_DIR, "attempts");
+
+    // Primary-key index functions (see EntityCache.lookup)
+    private static final Function<User, Object> USER_ID = User::getUserId;
+    private static final Function<User, Object> ADMIN_USERNAME =
+            u -> u instanceof Admin ? u.getUsername() : null;
+    private static final Function<Course, Object> COURSE_ID = Course::getCourseID;
+    private static final Function<Quiz, Object> QUIZ_ID = Quiz::getQuizId;
+    private static final Function<Certificate, Object> CERTIFICATE_ID = Certificate::getCertificateID;
+    private static final Supplier<AttemptIndex> ATTEMPT_INDEX = AttemptIndex::new;
+    private static final Supplier<AttemptColumns> ATTEMPT_COLUMNS = AttemptColumns::new;
+    private static final Supplier<QuizCatalog> QUIZ_CATALOG = QuizCatalog::new;
+
+    // Users, courses and certificates are a snapshot plus a journal of changed records
+    private static final JournaledFile<User> userFile =
+            new JournaledFile<>(USERS_FILE, "users", USER_ID);
+    private static final JournaledFile<Course> courseFile =
+            new JournaledFile<>(COURSES_FILE, "courses", COURSE_ID);
+    private static final JournaledFile<Certificate> certificateFile =
+            new JournaledFile<>(CERTIFICATES_FILE, "certificates", CERTIFICATE_ID);
+
+    // Binary copies of the data files for fast startup; JSON stays the source of truth
+    private static final BinarySnapshot<User> userSnapshot = new BinarySnapshot<>(
+            SNAPSHOT_DIR + "/users.bin", userFile::files, SnapshotCodec::writeUser, SnapshotCodec::readUser);
+    private static final BinarySnapshot<Course> courseSnapshot = new BinarySnapshot<>(
+            SNAPSHOT_DIR + "/courses.bin", courseFile::files, SnapshotCodec::writeCourse, SnapshotCodec::readCourse);
+    private static final BinarySnapshot<Quiz> quizSnapshot = new BinarySnapshot<>(
+            SNAPSHOT_DIR + "/quizzes.bin", () -> new File[] { new File(QUIZZES_FILE) },
+            SnapshotCodec::writeQuiz, SnapshotCodec::readQuiz);
+    private static final BinarySnapshot<QuizAttempt> attemptSnapshot = new BinarySnapshot<>(
+            SNAPSHOT_DIR + "/attempts.bin", attemptLog::segments, SnapshotCodec::writeAttempt, SnapshotCodec::readAttempt);
+    private static final BinarySnapshot<Certificate> certificateSnapshot = new BinarySnapshot<>(
+            SNAPSHOT_DIR + "/certificates.bin", certificateFile::files,
+            SnapshotCodec::writeCertificate, SnapshotCodec::readCertificate);
+
+    // Parsed entity lists kept resident between calls
+    private static final EntityCache<User> userCache = new EntityCache<>(userFile::files);
+    private static final EntityCache<Course> courseCache = new EntityCache<>(() -> {
+        File[] files = courseFile.files();
+        return new File[] { files[0], files[1], new File(QUIZZES_FILE) };
+    });
+    private static final EntityCache<Quiz> quizCache = new EntityCache<>(QUIZZES_FILE);
+    private static final EntityCache<QuizAttempt> attemptCache = new EntityCache<>(attemptLog::segments);
+    private static final EntityCache<Certificate> certificateCache = new EntityCache<>(certificateFile::files);
+
+    // One lock per data file: reads of a file run in parallel, changes to it
+    // one at a time, each load-modify-save inside the manager as a whole.
+    // Nested locks are taken in this order. Loaded courses carry their
+    // quizzes, so quiz changes hold the course lock too. Write locks are
+    // shared with other processes using the same directory; when one of
+    // them wrote in between, what this process remembers about the file
+    // is dropped first.
+    private static final SharedFileLock userLock = new SharedFileLock(USERS_FILE + ".lock", () -> {
+        userCache.invalidate();
+        userFile.forget();
+    });
+    private static final SharedFileLock courseLock = new SharedFileLock(COURSES_FILE + ".lock", () -> {
+        courseCache.invalidate();
+        courseFile.forget();
+    });
+    private static final SharedFileLock quizLock = new SharedFileLock(QUIZZES_FILE + ".lock", () -> {
+        quizCache.invalidate();
+        courseCache.invalidate();
+    });
+    private static final SharedFileLock attemptLock = new SharedFileLock(ATTEMPTS_DIR + ".lock",
+            attemptCache::invalidate);
+    private static final SharedFileLock certificateLock = new SharedFileLock(CERTIFICATES_FILE + ".lock", () -> {
+        certificateCache.invalidate();
+        certificateFile.forget();
+    });
+
+    private static final DatabaseWatcher watcher = new DatabaseWatcher("database", Map.of(
+            DatabaseWatcher.DataSet.USERS, userLock,
+            DatabaseWatcher.DataSet.COURSES, courseLock,
+            DatabaseWatcher.DataSet.QUIZZES, quizLock,
+            DatabaseWatcher.DataSet.ATTEMPTS, attemptLock,
+            DatabaseWatcher.DataSet.CERTIFICATES, certificateLock));
+
+    // Redo log that makes a Transaction's writes to several files atomic
+    private static final TransactionLog txLog = new TransactionLog(WAL_DIR);
+
+    // Id blocks reserved from counters shared by every client of the directory
+    private static final IdSequences ids = new IdSequences(IdSequences.inFile(SEQUENCES_FILE));
+
+    // Set once the transaction log has been replayed
+    private volatile boolean recovered;
+    private boolean recovering; // guarded by this
+
+    private JsonDatabaseManager() {
+    }
+
+    // Created on first use by the class loader, which also publishes it safely
+    private static final class Holder {
+        static final JsonDatabaseManager INSTANCE = new JsonDatabaseManager();
+    }
 
-   
     public static JsonDatabaseManager getInstance() {
-        if (instance == null) {
-            instance = new JsonDatabaseManager();
+        JsonDatabaseManager db = Holder.INSTANCE;
+        if (!db.recovered) {
+            db.recover();
         }
-        return instance;
+        return db;
     }
 
-    private String readFile(String path) {
+    // Redoes unfinished transactions on first use, after the instance is
+    // published: entities rebuilt by the redo look the store up through
+    // getInstance() (which then returns at once on this thread), while
+    // other threads wait here until recovery is done
+    private synchronized void recover() {
+        if (recovered || recovering) {
+            return;
+        }
+        recovering = true;
         try {
-            File file = new File(path);
-            if (!file.exists()) {
-                file.getParentFile().mkdirs();
-                // Return appropriate empty structure based on file type
-                if (path.contains("users")) {
-                    return "{\"users\":[]}";
-                } else if (path.contains("courses")) {
-                    return "{\"courses\":[]}";
-                } else if (path.contains("quizzes")) {
-                    return "{\"quizzes\":[],\"attempts\":[]}";
-                } else if (path.contains("certificates")) {
-                    return "{\"certificates\":[]}";
-                } else {
-                    return "{}";
-                }
-            }
-            return new String(Files.readAllBytes(Paths.get(path)));
+            txLog.open(this::redo);
         } catch (IOException e) {
-            if (path.contains("users")) {
-                return "{\"users\":[]}";
-            } else if (path.contains("courses")) {
-                return "{\"courses\":[]}";
-            } else if (path.contains("quizzes")) {
-                return "{\"quizzes\":[],\"attempts\":[]}";
-            } else if (path.contains("certificates")) {
-                return "{\"certificates\":[]}";
-            } else {
-                return "{}";
-            }
+            System.err.println("Transactions are unavailable: " + e.getMessage());
+        } finally {
+            recovering = false;
+            recovered = true;
         }
     }
 
-    private void writeFile(String path, String content) {
+    private static <R> R locked(Lock lock, Supplier<R> body) {
+        lock.lock();
         try {
-            File file = new File(path);
-            file.getParentFile().mkdirs();
-            try (FileWriter writer = new FileWriter(file)) {
-                writer.write(content);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+            return body.get();
+        } finally {
+            lock.unlock();
         }
     }
 
-
-    public List<User> loadUsers() {
-        List<User> users = new ArrayList<>();
-
+    private static void locked(Lock lock, Runnable body) {
+        lock.lock();
         try {
-            String json = readFile(USERS_FILE);
-            JSONObject root = new JSONObject(json);
-            JSONArray arr = root.getJSONArray("users");
-
-            for (int i = 0; i < arr.length(); i++) {
-                JSONObject obj = arr.getJSONObject(i);
-
-                String role = obj.getString("role");
-                String userId = obj.getString("userId");
-                String username = obj.getString("username");
-                String email = obj.getString("email");
-                String pass = obj.getString("passwordHash");
-
-                if (role.equals("Student")) {
-                    Student s = new Student(userId, username, email, pass);
-
-                    // enrolledCourses
-                    if (obj.has("enrolledCourses")) {
-                        JSONArray enrolled = obj.getJSONArray("enrolledCourses");
-                        List<String> enrolledList = new ArrayList<>();
-                        for (int j = 0; j < enrolled.length(); j++) {
-                            enrolledList.add(enrolled.getString(j));
-                        }
-                        s.setEnrolledCourses(enrolledList);
-                    }
+            body.run();
+        } finally {
+            lock.unlock();
+        }
+    }
 
-                    // completedLessons
-                    if (obj.has("completedLessons")) {
-                        JSONObject completedObj = obj.getJSONObject("completedLessons");
-                        Map<String, List<String>> completedMap = new HashMap<>();
-                        Iterator<String> keys = completedObj.keys();
-                        while (keys.hasNext()) {
-                            String courseId = keys.next();
-                            JSONArray lessons = completedObj.getJSONArray(courseId);
-                            List<String> lessonList = new ArrayList<>();
-                            for (int j = 0; j < lessons.length(); j++) {
-                                lessonList.add(lessons.getString(j));
-                            }
-                            completedMap.put(courseId, lessonList);
-                        }
-                        s.setCompletedLessons(completedMap);
-                    }
+    private static <R> R changeQuizzes(Supplier<R> body) {
+        return locked(courseLock.writeLock(), () -> locked(quizLock.writeLock(), body));
+    }
 
-                    // quizScores - ADDED
-                    if (obj.has("quizScores")) {
-                        JSONObject scoresObj = obj.getJSONObject("quizScores");
-                        Map<String, Double> scoresMap = new HashMap<>();
-                        Iterator<String> scoreKeys = scoresObj.keys();
-                        while (scoreKeys.hasNext()) {
-                            String lessonId = scoreKeys.next();
-                            scoresMap.put(lessonId, scoresObj.getDouble(lessonId));
-                        }
-                        s.setQuizScores(scoresMap);
-                    }
+    private static void changeQuizzes(Runnable body) {
+        locked(courseLock.writeLock(), () -> locked(quizLock.writeLock(), body));
+    }
 
-                    // earnedCertificates - ADDED
-                    if (obj.has("earnedCertificates")) {
-                        JSONArray certsArr = obj.getJSONArray("earnedCertificates");
-                        List<String> certsList = new ArrayList<>();
-                        for (int j = 0; j < certsArr.length(); j++) {
-                            certsList.add(certsArr.getString(j));
-                        }
-                        s.setEarnedCertificates(certsList);
-                    }
+    private List<String> readStringArray(JsonStreamReader reader) {
+        List<String> list = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            list.add(reader.nextString());
+        }
+        reader.endArray();
+        return list;
+    }
 
-                    users.add(s);
+    // Streams `{"<arrayName>": [ ... ]}` to the file; records writes the elements.
+    // The file is replaced atomically; callers hold its write lock.
+    private void writeFileNow(String path, String arrayName, Consumer<JsonStreamWriter> records) {
+        try {
+            AtomicFileWriter.write(new File(path), out -> {
+                JsonStreamWriter writer = new JsonStreamWriter(out, prettyPrint);
+                writer.beginObject().name(arrayName).beginArray();
+                records.accept(writer);
+                writer.endArray().endObject();
+                writer.flush();
+            });
+        } catch (IOException | JSONException e) {
+            e.printStackTrace();
+        }
+    }
 
-                } else if (role.equals("Instructor")) {
-                    Instructor t = new Instructor(userId, username, email, pass);
+    // Replaces every record of the file with entities
+    private <T> void saveChanges(JournaledFile<T> file, List<T> entities, BiConsumer<JsonStreamWriter, T> records) {
+        if (writeBehind != null) {
+            file.defer(entities);
+            deferred(file.getPath());
+            return;
+        }
+        try {
+            file.compact(entities, records, prettyPrint);
+        } catch (IOException | JSONException e) {
+            e.printStackTrace();
+        }
+    }
 
-                    if (obj.has("createdCourses")) {
-                        JSONArray created = obj.getJSONArray("createdCourses");
-                        List<String> createdList = new ArrayList<>();
-                        for (int j = 0; j < created.length(); j++) {
-                            createdList.add(created.getString(j));
-                        }
-                        t.setCreatedCourses(createdList);
-                    }
+    // Persists one new or changed entity; all loads the file's entities,
+    // only needed when the journal is due for compaction
+    private <T> void saveEntity(JournaledFile<T> file, T entity, BiConsumer<JsonStreamWriter, T> records,
+                                Supplier<List<T>> all) {
+        saveEntity(file, entity, null, records, all);
+    }
 
-                    users.add(t);
-                    
-                } else if (role.equals("Admin")) {
-                    // Handle Admin users
-                    Admin admin = new Admin(userId, username, email, pass);
-                    
-                    if (obj.has("managedCourses")) {
-                        JSONArray managed = obj.getJSONArray("managedCourses");
-                        List<String> managedList = new ArrayList<>();
-                        for (int j = 0; j < managed.length(); j++) {
-                            managedList.add(managed.getString(j));
-                        }
-                        admin.setManagedCourses(managedList);
-                    }
-                    
-                    users.add(admin);
-                }
+    // Persists one changed entity or, when entity is null, deletes deleted
+    private <T> void saveEntity(JournaledFile<T> file, T entity, String deleted,
+                                BiConsumer<JsonStreamWriter, T> records, Supplier<List<T>> all) {
+        if (writeBehind != null) {
+            if (entity != null) {
+                file.defer(entity);
+            } else {
+                file.deferDelete(deleted);
             }
-
-        } catch (JSONException e) {
+            deferred(file.getPath());
+            return;
+        }
+        try {
+            file.save(entity != null ? List.of(entity) : List.of(), deleted != null ? List.of(deleted) : List.of(),
+                    records, prettyPrint, all);
+        } catch (IOException | JSONException e) {
             e.printStackTrace();
         }
-
-        return users;
     }
 
-    public void saveUsers(List<User> users) {
-        JSONArray arr = new JSONArray();
+    // A save of the file was queued under its write lock: that hold writes
+    // nothing, the flusher writes it later in a hold of its own
+    private void deferred(String path) {
+        lockOf(path).deferWrite();
+        WriteBehindFlusher flusher = writeBehind;
+        if (flusher != null) {
+            flusher.submit(path, () -> flushPending(path));
+        } else {
+            // write-behind was turned off meanwhile
+            flushPending(path);
+        }
+    }
 
-        for (User u : users) {
-            JSONObject obj = new JSONObject();
+    // Writes the file's queued write-behind saves under its write lock, so
+    // other processes neither interleave with the write nor see the new
+    // generation before the data is on disk. The compaction a save may
+    // trigger reloads the file through the cache with the lock still held.
+    private void flushPending(String path) {
+        switch (path) {
+            case USERS_FILE:
+                flushDeferred(userLock, userFile, this::writeUser, this::loadUsers);
+                break;
+            case COURSES_FILE:
+                flushDeferred(courseLock, courseFile, this::writeCourse, this::loadCourses);
+                break;
+            case CERTIFICATES_FILE:
+                flushDeferred(certificateLock, certificateFile, this::writeCertificate, this::loadCertificates);
+                break;
+            default:
+                if (pendingQuizzes != null) {
+                    locked(quizLock.writeLock(), () -> {
+                        List<Quiz> quizzes = pendingQuizzes;
+                        if (quizzes != null) {
+                            quizLock.wrote();
+                            writeQuizFile(quizzes);
+                            pendingQuizzes = null;
+                        }
+                    });
+                }
+        }
+    }
 
-            obj.put("userId", u.getUserId());
-            obj.put("username", u.getUsername());
-            obj.put("email", u.getEmail());
-            obj.put("passwordHash", u.getPasswordHash());
-            obj.put("role", u.getRole());
+    private <T> void flushDeferred(SharedFileLock lock, JournaledFile<T> file, BiConsumer<JsonStreamWriter, T> records,
+                                   Supplier<List<T>> all) {
+        if (!file.hasDeferred()) {
+            return;
+        }
+        locked(lock.writeLock(), () -> {
+            lock.wrote();
+            try {
+                file.flushDeferred(records, prettyPrint, all);
+            } catch (IOException | JSONException e) {
+                e.printStackTrace();
+            }
+        });
+    }
 
-            if (u instanceof Student) {
-                Student s = (Student) u;
-                obj.put("enrolledCourses", new JSONArray(s.getEnrolledCourses()));
+    private SharedFileLock lockOf(String path) {
+        switch (path) {
+            case USERS_FILE:
+                return userLock;
+            case COURSES_FILE:
+                return courseLock;
+            case CERTIFICATES_FILE:
+                return certificateLock;
+            default:
+                return quizLock;
+        }
+    }
 
-                JSONObject completedObj = new JSONObject();
-                for (String courseId : s.getCompletedLessons().keySet()) {
-                    completedObj.put(courseId, new JSONArray(s.getCompletedLessons().get(courseId)));
-                }
-                obj.put("completedLessons", completedObj);
+    // Loads from the binary snapshot when it is current (adopt then gets the
+    // loaded entities), otherwise parses the JSON and refreshes the snapshot
+    private <T> List<T> readPreferringSnapshot(BinarySnapshot<T> snapshot, BinarySnapshot.JsonSource<T> json,
+                                               SnapshotLoad<T> adopt) throws IOException {
+        List<T> loaded = snapshot.readIfCurrent();
+        if (loaded == null) {
+            return snapshot.readJson(json);
+        }
+        if (adopt != null) {
+            adopt.accept(loaded);
+        }
+        return loaded;
+    }
 
-                // quizScores - ADDED
-                JSONObject scoresObj = new JSONObject();
-                for (String lessonId : s.getQuizScores().keySet()) {
-                    scoresObj.put(lessonId, s.getQuizScores().get(lessonId));
-                }
-                obj.put("quizScores", scoresObj);
+    private interface SnapshotLoad<T> {
+        void accept(List<T> loaded) throws IOException;
+    }
 
-                // earnedCertificates - ADDED
-                obj.put("earnedCertificates", new JSONArray(s.getEarnedCertificates()));
+    // Write-behind: saves update the in-memory caches right away and reach the
+    // disk from a background thread every flushIntervalMillis, or sooner once
+    // maxDirtySaves saves are pending. Call flush() (or disable it) to persist
+    // everything; a JVM shutdown hook does the same on a clean exit.
+    public static synchronized void enableWriteBehind(long flushIntervalMillis, int maxDirtySaves) {
+        disableWriteBehind();
+        writeBehind = new WriteBehindFlusher(flushIntervalMillis, maxDirtySaves);
+    }
 
-            } else if (u instanceof Instructor) {
-                Instructor t = (Instructor) u;
-                obj.put("createdCourses", new JSONArray(t.getCreatedCourses()));
-                
-            } else if (u instanceof Admin) {
-                // Save Admin-specific data
-                Admin admin = (Admin) u;
-                obj.put("managedCourses", new JSONArray(admin.getManagedCourses()));
-            }
+    public static synchronized void disableWriteBehind() {
+        if (writeBehind != null) {
+            WriteBehindFlusher flusher = writeBehind;
+            writeBehind = null;
+            flusher.shutdown();
+        }
+    }
 
-            arr.put(obj);
+    public static void flush() {
+        WriteBehindFlusher flusher = writeBehind;
+        if (flusher != null) {
+            flusher.flush();
         }
+    }
 
-        JSONObject root = new JSONObject();
-        root.put("users", arr);
+    // Other processes sharing the database directory are seen through the
+    // generation in the lock files
+    @Override
+    public void addChangeListener(DatabaseWatcher.Listener listener) {
+        watcher.addListener(listener);
+    }
 
-        writeFile(USERS_FILE, root.toString(4));
+    @Override
+    public void removeChangeListener(DatabaseWatcher.Listener listener) {
+        watcher.removeListener(listener);
     }
 
+    // Pretty-printed files are easier to read by hand but bigger and slower to write
+    public static void setPrettyPrint(boolean enabled) {
+        prettyPrint = enabled;
+    }
 
-    public List<Course> loadCourses() {
-    List<Course> courses = new ArrayList<>();
-    
-    List<Quiz> allQuizzes = loadQuizzes();
 
-    try {
-        String json = readFile(COURSES_FILE);
-        
-        JSONObject root = new JSONObject(json);
-        if (!root.has("courses")) {
-            return courses;
+    public List<User> loadUsers() {
+        return locked(userLock.readLock(), () -> userCache.get(this::readUsers));
+    }
+
+    private List<User> readUsers() {
+        List<User> users = new ArrayList<>();
+
+        try {
+                users.addAll(readPreferringSnapshot(userSnapshot,
+                    () -> userFile.read(this::readUser),
+                    userFile::adopt));
+        } catch (JSONException | IOException e) {
+            e.printStackTrace();
         }
-        
-        JSONArray arr = root.getJSONArray("courses");
-
-        for (int i = 0; i < arr.length(); i++) {
-            JSONObject cobj = arr.getJSONObject(i);
-
-            Course c = new Course(
-                cobj.getInt("courseId"),
-                cobj.getString("title"),
-                cobj.getString("description"),
-                cobj.getInt("instructorId")
-            );
-
-            // Load approval status (with backward compatibility)
-            if (cobj.has("approvalStatus")) {
-                String statusStr = cobj.getString("approvalStatus");
-                c.setApprovalStatus(ApprovalStatus.valueOf(statusStr));
-            } else {
-                // Default for old courses without approval status
-                c.setApprovalStatus(ApprovalStatus.APPROVED);
-            }
-            
-            // Load approval-related fields
-            if (cobj.has("rejectionReason") && !cobj.isNull("rejectionReason")) {
-                c.setRejectionReason(cobj.getString("rejectionReason"));
-            }
-            
-            if (cobj.has("reviewedBy") && !cobj.isNull("reviewedBy")) {
-                c.setReviewedBy(cobj.getString("reviewedBy"));
-            }
-            
-            // Load dates
-            if (cobj.has("submissionDate") && !cobj.isNull("submissionDate")) {
-                try {
-                    Date submissionDate = dateFormat.parse(cobj.getString("submissionDate"));
-                    c.setSubmissionDate(submissionDate);
-                } catch (ParseException e) {
-                    System.err.println("Error parsing submission date: " + e.getMessage());
-                }
-            }
-            
-            if (cobj.has("approvalDate") && !cobj.isNull("approvalDate")) {
-                try {
-                    Date approvalDate = dateFormat.parse(cobj.getString("approvalDate"));
-                    c.setApprovalDate(approvalDate);
-                } catch (ParseException e) {
-                    System.err.println("Error parsing approval date: " + e.getMessage());
-                }
-            }
 
-            // lessons
-            if (cobj.has("lessons")) {
-                JSONArray lessonsArr = cobj.getJSONArray("lessons");
-                for (int j = 0; j < lessonsArr.length(); j++) {
-                    JSONObject lobj = lessonsArr.getJSONObject(j);
-
-                    Lesson l = new Lesson(
-                        lobj.getInt("lessonId"),
-                        lobj.getString("title"),
-                        lobj.getString("content")
-                    );
-
-                    for (Quiz quiz : allQuizzes) {
-                        if (quiz.getCourseID() == c.getCourseID() 
-                            && quiz.getLessonID() == l.getLessonID()) {
-                            l.setQuiz(quiz);
-                            l.setQuizRequired(quiz.isRequired());
-                            break;
-                        }
-                    }
+        // write-behind saves still queued
+        return userFile.withDeferred(users);
+    }
 
-                    c.getLessons().add(l);
-                }
+    private User readUser(JsonStreamReader reader) {
+        String role = null, userId = null, username = null, email = null, pass = null;
+        long version = 1;
+        List<String> enrolledList = null, certsList = null, createdList = null, managedList = null;
+        Map<String, List<String>> completedMap = null;
+        Map<String, Double> scoresMap = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "role": role = reader.nextString(); break;
+                case "userId": userId = reader.nextString(); break;
+                case "username": username = reader.nextString(); break;
+                case "email": email = reader.nextString(); break;
+                case "passwordHash": pass = reader.nextString(); break;
+                case "version": version = reader.nextLong(); break;
+                case "enrolledCourses": enrolledList = readStringArray(reader); break;
+                case "earnedCertificates": certsList = readStringArray(reader); break;
+                case "createdCourses": createdList = readStringArray(reader); break;
+                case "managedCourses": managedList = readStringArray(reader); break;
+                case "completedLessons":
+                    // courseId -> lessonIds
+                    completedMap = new HashMap<>();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String courseId = reader.nextName();
+                        completedMap.put(courseId, readStringArray(reader));
+                    }
+                    reader.endObject();
+                    break;
+                case "quizScores":
+                    scoresMap = new HashMap<>();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String lessonId = reader.nextName();
+                        scoresMap.put(lessonId, reader.nextDouble());
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
             }
+        }
+        reader.endObject();
 
-            // students
-            if (cobj.has("students")) {
-                JSONArray studs = cobj.getJSONArray("students");
-                List<Integer> studentIds = new ArrayList<>();
-                for (int j = 0; j < studs.length(); j++) {
-                    studentIds.add(studs.getInt(j));
-                }
-                c.setEnrolledStudentIDs(studentIds);
-            }
+        if (role == null || userId == null) {
+            throw new JSONException("User record without role or userId");
+        }
 
-            courses.add(c);
+        if (role.equals("Student")) {
+            Student s = new Student(userId, username, email, pass);
+            if (enrolledList != null) s.setEnrolledCourses(enrolledList);
+            if (completedMap != null) s.setCompletedLessons(completedMap);
+            if (scoresMap != null) s.setQuizScores(scoresMap);
+            if (certsList != null) s.setEarnedCertificates(certsList);
+            s.setVersion(version);
+            return s;
+
+        } else if (role.equals("Instructor")) {
+            Instructor t = new Instructor(userId, username, email, pass);
+            if (createdList != null) t.setCreatedCourses(createdList);
+            t.setVersion(version);
+            return t;
+
+        } else if (role.equals("Admin")) {
+            Admin admin = new Admin(userId, username, email, pass);
+            if (managedList != null) admin.setManagedCourses(managedList);
+            admin.setVersion(version);
+            return admin;
         }
 
-    } catch (JSONException e) {
-        e.printStackTrace();
+        return null;
     }
 
-    return courses;}
-    public void saveCourses(List<Course> courses) {
-        JSONArray arr = new JSONArray();
-
-        for (Course c : courses) {
-            JSONObject obj = new JSONObject();
-
-            obj.put("courseId", c.getCourseID());
-            obj.put("title", c.getCourseTitle());
-            obj.put("description", c.getCourseDescription());
-            obj.put("instructorId", c.getInstructorID());
-            
-            // Save approval status fields
-            obj.put("approvalStatus", c.getApprovalStatus().toString());
-            
-            if (c.getRejectionReason() != null) {
-                obj.put("rejectionReason", c.getRejectionReason());
-            } else {
-                obj.put("rejectionReason", JSONObject.NULL);
-            }
-            
-            if (c.getReviewedBy() != null) {
-                obj.put("reviewedBy", c.getReviewedBy());
-            } else {
-                obj.put("reviewedBy", JSONObject.NULL);
-            }
-            
-            if (c.getSubmissionDate() != null) {
-                obj.put("submissionDate", dateFormat.format(c.getSubmissionDate()));
-            } else {
-                obj.put("submissionDate", JSONObject.NULL);
+    public void saveUsers(List<User> users) {
+        locked(userLock.writeLock(), () -> {
+            // copied: with write-behind the file is rendered later
+            List<User> snapshot = new ArrayList<>(users);
+            saveChanges(userFile, snapshot, this::writeUser);
+            userCache.put(snapshot);
+        });
+    }
+
+    // Saves one new or changed user without rewriting the others
+    public void saveUser(User user) {
+        locked(userLock.writeLock(), () -> {
+            User current = findUser(user.getUserId());
+            user.setVersion((current != null ? current.getVersion() : 0) + 1);
+            storeUser(user);
+        });
+    }
+
+    public boolean compareAndSetUser(User user, long expectedVersion) {
+        return locked(userLock.writeLock(), () -> {
+            User current = findUser(user.getUserId());
+            if ((current != null ? current.getVersion() : 0) != expectedVersion) {
+                return false;
             }
-            
-            if (c.getApprovalDate() != null) {
-                obj.put("approvalDate", dateFormat.format(c.getApprovalDate()));
-            } else {
-                obj.put("approvalDate", JSONObject.NULL);
+            user.setVersion(expectedVersion + 1);
+            storeUser(user);
+            return true;
+        });
+    }
+
+    private void storeUser(User user) {
+        saveEntity(userFile, user, this::writeUser, this::loadUsers);
+        userCache.upsert(user, USER_ID);
+    }
+
+    private void writeUser(JsonStreamWriter writer, User u) {
+        writer.beginObject();
+
+        writer.name("userId").value(u.getUserId());
+        writer.name("username").value(u.getUsername());
+        writer.name("email").value(u.getEmail());
+        writer.name("passwordHash").value(u.getPasswordHash());
+        writer.name("role").value(u.getRole());
+        writer.name("version").value(u.getVersion());
+
+        if (u instanceof Student) {
+            Student s = (Student) u;
+            writer.name("enrolledCourses").stringArray(s.getEnrolledCourses());
+
+            writer.name("completedLessons").beginObject();
+            for (Map.Entry<String, List<String>> e : s.getCompletedLessons().entrySet()) {
+                writer.name(e.getKey()).stringArray(e.getValue());
             }
+            writer.endObject();
 
-            JSONArray lessons = new JSONArray();
-            for (Lesson l : c.getLessons()) {
-                JSONObject lo = new JSONObject();
-                lo.put("lessonId", l.getLessonID());
-                lo.put("title", l.getLessonTitle());
-                lo.put("content", l.getLessonContent());
-                lessons.put(lo);
+            writer.name("quizScores").beginObject();
+            for (Map.Entry<String, Double> e : s.getQuizScores().entrySet()) {
+                writer.name(e.getKey()).value(e.getValue());
             }
-            obj.put("lessons", lessons);
+            writer.endObject();
 
-            obj.put("students", new JSONArray(c.getEnrolledStudentIDs()));
+            writer.name("earnedCertificates").stringArray(s.getEarnedCertificates());
 
-            arr.put(obj);
+        } else if (u instanceof Instructor) {
+            Instructor t = (Instructor) u;
+            writer.name("createdCourses").stringArray(t.getCreatedCourses());
+
+        } else if (u instanceof Admin) {
+            // Save Admin-specific data
+            Admin admin = (Admin) u;
+            writer.name("managedCourses").stringArray(admin.getManagedCourses());
         }
 
-        JSONObject root = new JSONObject();
-        root.put("courses", arr);
+        writer.endObject();
+    }
+
 
-        writeFile(COURSES_FILE, root.toString(4));
+    public List<Course> loadCourses() {
+        return locked(courseLock.readLock(), () -> courseCache.get(this::readCourses));
     }
 
-    public List<Quiz> loadQuizzes() {
-        List<Quiz> quizzes = new ArrayList<>();
+    private List<Course> readCourses() {
+        List<Course> courses = new ArrayList<>();
+
+        QuizCatalog catalog = quizCatalog();
 
         try {
-            String json = readFile(QUIZZES_FILE);
-            JSONObject root = new JSONObject(json);
+            courses.addAll(readPreferringSnapshot(courseSnapshot,
+                    () -> courseFile.read(reader -> readCourse(reader, catalog)),
+                    loaded -> {
+                        for (Course c : loaded) {
+                            attachQuizzes(c, catalog);
+                        }
+                        courseFile.adopt(loaded);
+                    }));
+        } catch (JSONException | IOException e) {
+            e.printStackTrace();
+        }
+
+        return courseFile.withDeferred(courses);
+    }
 
-            if (!root.has("quizzes")) {
-                return quizzes;
+    private Course readCourse(JsonStreamReader reader, QuizCatalog catalog) {
+        Integer courseId = null, instructorId = null;
+        long version = 1;
+        String title = null, description = null, statusStr = null;
+        String rejectionReason = null, reviewedBy = null, submissionDate = null, approvalDate = null;
+        List<Lesson> lessons = new ArrayList<>();
+        List<Integer> studentIds = null;
+        IdBitmap studentBitmap = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "courseId": courseId = reader.nextInt(); break;
+                case "title": title = reader.nextString(); break;
+                case "description": description = reader.nextString(); break;
+                case "instructorId": instructorId = reader.nextInt(); break;
+                case "approvalStatus": statusStr = reader.nextString(); break;
+                case "rejectionReason": rejectionReason = reader.nextStringOrNull(); break;
+                case "reviewedBy": reviewedBy = reader.nextStringOrNull(); break;
+                case "submissionDate": submissionDate = reader.nextStringOrNull(); break;
+                case "approvalDate": approvalDate = reader.nextStringOrNull(); break;
+                case "version": version = reader.nextLong(); break;
+                case "lessons":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        lessons.add(readLesson(reader));
+                    }
+                    reader.endArray();
+                    break;
+                case "students":
+                    studentIds = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        studentIds.add(reader.nextInt());
+                    }
+                    reader.endArray();
+                    break;
+                case "studentBitmap":
+                    try {
+                        studentBitmap = IdBitmap.fromBytes(Base64.getDecoder().decode(reader.nextString()));
+                    } catch (IllegalArgumentException | java.nio.BufferUnderflowException e) {
+                        System.err.println("Error reading enrolled students of course " + courseId + ": " + e.getMessage());
+                    }
+                    break;
+                default:
+                    reader.skipValue();
             }
+        }
+        reader.endObject();
 
-            JSONArray arr = root.getJSONArray("quizzes");
+        if (courseId == null || instructorId == null) {
+            throw new JSONException("Course record without courseId or instructorId");
+        }
 
-            for (int i = 0; i < arr.length(); i++) {
-                JSONObject quizObj = arr.getJSONObject(i);
+        Course c = new Course(courseId, title, description, instructorId);
 
-                Quiz quiz = new Quiz(
-                        quizObj.getInt("quizId"),
-                        quizObj.getInt("passingScore"),
-                        quizObj.getBoolean("required")
-                );
+        // Load approval status (with backward compatibility)
+        if (statusStr != null) {
+            c.setApprovalStatus(ApprovalStatus.valueOf(statusStr));
+        } else {
+            // Default for old courses without approval status
+            c.setApprovalStatus(ApprovalStatus.APPROVED);
+        }
 
-                // Set additional fields
-                quiz.setCourseID(quizObj.getInt("courseId"));
-                quiz.setLessonID(quizObj.getInt("lessonId"));
+        c.setRejectionReason(rejectionReason);
+        c.setReviewedBy(reviewedBy);
+        c.setVersion(version);
 
-                // Load questions
-                if (quizObj.has("questions")) {
-                    JSONArray questionsArr = quizObj.getJSONArray("questions");
-                    List<Question> questions = new ArrayList<>();
+        // Load dates
+        if (submissionDate != null) {
+            try {
+                c.setSubmissionDate(parseDate(submissionDate));
+            } catch (DateTimeParseException e) {
+                System.err.println("Error parsing submission date: " + e.getMessage());
+            }
+        }
 
-                    for (int j = 0; j < questionsArr.length(); j++) {
-                        JSONObject qobj = questionsArr.getJSONObject(j);
+        if (approvalDate != null) {
+            try {
+                c.setApprovalDate(parseDate(approvalDate));
+            } catch (DateTimeParseException e) {
+                System.err.println("Error parsing approval date: " + e.getMessage());
+            }
+        }
 
-                        Question question = new Question(
-                                qobj.getInt("questionId"),
-                                qobj.getString("questionText"),
-                                qobj.getString("optionA"),
-                                qobj.getString("optionB"),
-                                qobj.getString("optionC"),
-                                qobj.getString("optionD"),
-                                qobj.getString("correctAnswer"),
-                                qobj.has("explanation") && !qobj.isNull("explanation")
-                                        ? qobj.getString("explanation") : null
-                        );
+        c.getLessons().addAll(lessons);
+        attachQuizzes(c, catalog);
 
-                        questions.add(question);
-                    }
+        if (studentBitmap != null) {
+            c.setEnrolledStudents(studentBitmap);
+        } else if (studentIds != null) {
+            c.setEnrolledStudentIDs(studentIds);
+        }
 
-                    quiz.setQuestions(questions);
-                }
+        return c;
+    }
+
+    // attach each lesson's quiz
+    private void attachQuizzes(Course c, QuizCatalog catalog) {
+        for (Lesson l : c.getLessons()) {
+            Quiz quiz = catalog.getQuiz(c.getCourseID(), l.getLessonID());
+            if (quiz != null) {
+                l.setQuiz(quiz);
+                l.setQuizRequired(quiz.isRequired());
+            }
+        }
+    }
+
+    private Lesson readLesson(JsonStreamReader reader) {
+        int lessonId = 0;
+        String title = null, content = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "lessonId": lessonId = reader.nextInt(); break;
+                case "title": title = reader.nextString(); break;
+                case "content": content = reader.nextString(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new Lesson(lessonId, title, content);
+    }
+
+    public void saveCourses(List<Course> courses) {
+        locked(courseLock.writeLock(), () -> {
+            // copied: with write-behind the file is rendered later
+            List<Course> snapshot = new ArrayList<>(courses);
+            saveChanges(courseFile, snapshot, this::writeCourse);
+            courseCache.put(snapshot);
+        });
+    }
 
-                quizzes.add(quiz);
+    private void writeCourse(JsonStreamWriter writer, Course c) {
+        writer.beginObject();
+
+        writer.name("courseId").value(c.getCourseID());
+        writer.name("title").value(c.getCourseTitle());
+        writer.name("description").value(c.getCourseDescription());
+        writer.name("instructorId").value(c.getInstructorID());
+
+        // Save approval status fields
+        writer.name("approvalStatus").value(c.getApprovalStatus().toString());
+        writer.name("rejectionReason").value(c.getRejectionReason());
+        writer.name("reviewedBy").value(c.getReviewedBy());
+        writer.name("submissionDate").value(
+                c.getSubmissionDate() != null ? formatDate(c.getSubmissionDate()) : null);
+        writer.name("approvalDate").value(
+                c.getApprovalDate() != null ? formatDate(c.getApprovalDate()) : null);
+        writer.name("version").value(c.getVersion());
+
+        writer.name("lessons").beginArray();
+        for (Lesson l : c.getLessons()) {
+            writer.beginObject();
+            writer.name("lessonId").value(l.getLessonID());
+            writer.name("title").value(l.getLessonTitle());
+            writer.name("content").value(l.getLessonContent());
+            writer.endObject();
+        }
+        writer.endArray();
+
+        // large classes as a base64 IdBitmap, the rest as a readable array
+        IdBitmap students = c.getEnrolledStudents();
+        if (students.cardinality() >= ENROLLMENT_BITMAP_MIN) {
+            writer.name("studentBitmap").value(Base64.getEncoder().encodeToString(students.toBytes()));
+        } else {
+            writer.name("students").beginArray();
+            for (int studentId : students.toArray()) {
+                writer.value(studentId);
             }
+            writer.endArray();
+        }
+
+        writer.endObject();
+    }
 
-        } catch (JSONException e) {
+    // Dates are stored as local time, as SimpleDateFormat wrote them
+    private static Date parseDate(String text) {
+        return Date.from(LocalDateTime.parse(text, dateFormat).atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    private static String formatDate(Date date) {
+        return LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault()).format(dateFormat);
+    }
+
+    public List<Quiz> loadQuizzes() {
+        return locked(quizLock.readLock(), () -> quizCache.get(this::readQuizzes));
+    }
+
+    private List<Quiz> readQuizzes() {
+        List<Quiz> pending = pendingQuizzes;
+        if (pending != null) {
+            return new ArrayList<>(pending);
+        }
+        List<Quiz> quizzes = new ArrayList<>();
+
+        try {
+            quizzes.addAll(readPreferringSnapshot(quizSnapshot, () -> {
+                List<Quiz> parsed = new ArrayList<>();
+                JsonStreamReader.readArray(QUIZZES_FILE, "quizzes", reader -> parsed.add(readQuiz(reader)));
+                return parsed;
+            }, null));
+        } catch (JSONException | IOException e) {
             e.printStackTrace();
         }
 
         return quizzes;
     }
 
-    private void saveQuizzesAndAttempts(List<Quiz> quizzes, List<QuizAttempt> attempts) {
-        JSONObject root = new JSONObject();
+    private Quiz readQuiz(JsonStreamReader reader) {
+        int quizId = 0, passingScore = 0, courseId = 0, lessonId = 0;
+        long version = 1;
+        boolean required = false;
+        List<Question> questions = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "quizId": quizId = reader.nextInt(); break;
+                case "passingScore": passingScore = reader.nextInt(); break;
+                case "required": required = reader.nextBoolean(); break;
+                case "courseId": courseId = reader.nextInt(); break;
+                case "lessonId": lessonId = reader.nextInt(); break;
+                case "version": version = reader.nextLong(); break;
+                case "questions":
+                    questions = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        questions.add(readQuestion(reader));
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        Quiz quiz = new Quiz(quizId, passingScore, required);
 
-        // Save quizzes
-        JSONArray quizzesArr = new JSONArray();
-        for (Quiz quiz : quizzes) {
-            JSONObject obj = new JSONObject();
+        // Set additional fields
+        quiz.setCourseID(courseId);
+        quiz.setLessonID(lessonId);
+        quiz.setVersion(version);
 
-            obj.put("quizId", quiz.getQuizId());
-            obj.put("courseId", quiz.getCourseID());
-            obj.put("lessonId", quiz.getLessonID());
-            obj.put("passingScore", quiz.getPassingScore());
-            obj.put("required", quiz.isRequired());
+        if (questions != null) {
+            quiz.setQuestions(questions);
+        }
 
-            // Save questions
-            JSONArray questionsArr = new JSONArray();
-            for (Question q : quiz.getQuestions()) {
-                JSONObject qobj = new JSONObject();
-                qobj.put("questionId", q.getQuestionID());
-                qobj.put("questionText", q.getQuestionText());
-                qobj.put("optionA", q.getOptionA());
-                qobj.put("optionB", q.getOptionB());
-                qobj.put("optionC", q.getOptionC());
-                qobj.put("optionD", q.getOptionD());
-                qobj.put("correctAnswer", q.getCorrectAnswer());
-                qobj.put("explanation", q.getExplanation());
+        return quiz;
+    }
 
-                questionsArr.put(qobj);
+    private Question readQuestion(JsonStreamReader reader) {
+        int questionId = 0;
+        String text = null, a = null, b = null, c = null, d = null, correct = null, explanation = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "questionId": questionId = reader.nextInt(); break;
+                case "questionText": text = reader.nextString(); break;
+                case "optionA": a = reader.nextString(); break;
+                case "optionB": b = reader.nextString(); break;
+                case "optionC": c = reader.nextString(); break;
+                case "optionD": d = reader.nextString(); break;
+                case "correctAnswer": correct = reader.nextString(); break;
+                case "explanation": explanation = reader.nextStringOrNull(); break;
+                default: reader.skipValue();
             }
-
-            obj.put("questions", questionsArr);
-            quizzesArr.put(obj);
         }
-        root.put("quizzes", quizzesArr);
+        reader.endObject();
 
-        // Save attempts
-        JSONArray attemptsArr = new JSONArray();
-        for (QuizAttempt a : attempts) {
-            JSONObject obj = new JSONObject();
+        return new Question(questionId, text, a, b, c, d, correct, explanation);
+    }
+
+    private void writeQuizzes(List<Quiz> quizzes) {
+        // copied: with write-behind the file is rendered later
+        List<Quiz> snapshot = new ArrayList<>(quizzes);
+        if (writeBehind != null) {
+            pendingQuizzes = snapshot;
+            deferred(QUIZZES_FILE);
+        } else {
+            writeQuizFile(snapshot);
+        }
+        quizCache.put(snapshot);
+        // lessons carry their quiz, so courses have to be re-joined
+        courseCache.invalidate();
+    }
 
-            obj.put("attemptId", a.getAttemptId());
-            obj.put("studentId", a.getStudentId());
-            obj.put("quizId", a.getQuizId());
-            obj.put("lessonId", a.getLessonId());
-            obj.put("courseId", a.getCourseId());
-            obj.put("studentAnswers", new JSONArray(a.getStudentAnswers()));
-            obj.put("score", a.getScore());
-            obj.put("passed", a.isPassed());
-            obj.put("attemptDate", a.getAttemptDate().toString());
+    private void writeQuizFile(List<Quiz> quizzes) {
+        writeFileNow(QUIZZES_FILE, "quizzes", writer -> {
+            for (Quiz quiz : quizzes) {
+                writeQuiz(writer, quiz);
+            }
+        });
+    }
 
-            attemptsArr.put(obj);
+    private void writeQuiz(JsonStreamWriter writer, Quiz quiz) {
+        writer.beginObject();
+
+        writer.name("quizId").value(quiz.getQuizId());
+        writer.name("courseId").value(quiz.getCourseID());
+        writer.name("lessonId").value(quiz.getLessonID());
+        writer.name("passingScore").value(quiz.getPassingScore());
+        writer.name("required").value(quiz.isRequired());
+        writer.name("version").value(quiz.getVersion());
+
+        writer.name("questions").beginArray();
+        for (Question q : quiz.getQuestions()) {
+            writer.beginObject();
+            writer.name("questionId").value(q.getQuestionID());
+            writer.name("questionText").value(q.getQuestionText());
+            writer.name("optionA").value(q.getOptionA());
+            writer.name("optionB").value(q.getOptionB());
+            writer.name("optionC").value(q.getOptionC());
+            writer.name("optionD").value(q.getOptionD());
+            writer.name("correctAnswer").value(q.getCorrectAnswer());
+            writer.name("explanation").value(q.getExplanation());
+            writer.endObject();
         }
-        root.put("attempts", attemptsArr);
+        writer.endArray();
 
-        writeFile(QUIZZES_FILE, root.toString(4));
+        writer.endObject();
     }
 
     public void saveQuizzes(List<Quiz> quizzes) {
-        List<QuizAttempt> attempts = loadQuizAttempts();
-        saveQuizzesAndAttempts(quizzes, attempts);
+        changeQuizzes(() -> {
+            // make sure legacy attempts are moved to the log before they are dropped from quizzes.json
+            loadQuizAttempts();
+            writeQuizzes(quizzes);
+        });
     }
 
     public void saveQuiz(Quiz quiz) {
+        changeQuizzes(() -> {
+            Quiz current = getQuizById(quiz.getQuizId());
+            quiz.setVersion((current != null ? current.getVersion() : 0) + 1);
+            storeQuiz(quiz);
+        });
+    }
+
+    public boolean compareAndSetQuiz(Quiz quiz, long expectedVersion) {
+        return changeQuizzes(() -> {
+            Quiz current = getQuizById(quiz.getQuizId());
+            if ((current != null ? current.getVersion() : 0) != expectedVersion) {
+                return false;
+            }
+            quiz.setVersion(expectedVersion + 1);
+            storeQuiz(quiz);
+            return true;
+        });
+    }
+
+    private void storeQuiz(Quiz quiz) {
         List<Quiz> quizzes = loadQuizzes();
 
         // Remove existing quiz with same ID (if any)
@@ -540,379 +946,675 @@ public class JsonDatabaseManager {
     }
 
     public Quiz getQuizById(int quizId) {
-        List<Quiz> quizzes = loadQuizzes();
-        for (Quiz q : quizzes) {
-            if (q.getQuizId() == quizId) {
-                return q;
-            }
-        }
-        return null;
+        return locked(quizLock.readLock(), () -> quizCache.lookup(this::readQuizzes, QUIZ_ID, quizId));
     }
     
     public Quiz getQuizByCourseAndLessonId(int courseId, int lessonId) {
-        List<Quiz> quizzes = loadQuizzes();
-        for (Quiz q : quizzes) {
-            if (q.getCourseID() == courseId && q.getLessonID() == lessonId) {
-                return q;
-            }
-        }
-        return null;
+        return quizCatalog().getQuiz(courseId, lessonId);
     }
 
     public List<Quiz> getQuizzesForCourse(int courseID) {
-        List<Quiz> result = new ArrayList<>();
-        List<Quiz> allQuizzes = loadQuizzes();
-
-        for (Quiz q : allQuizzes) {
-            if (q.getCourseID() == courseID) {
-                result.add(q);
-            }
-        }
+        return quizCatalog().getQuizzesForCourse(courseID);
+    }
 
-        return result;
+    // Built once per version of quizzes.json and then only read: quizCache
+    // is replaced as a whole on every save, which starts a new catalog
+    private QuizCatalog quizCatalog() {
+        return locked(quizLock.readLock(), () -> quizCache.query(this::readQuizzes, QUIZ_CATALOG, catalog -> catalog));
     }
 
     public boolean deleteQuiz(int quizId) {
-        List<Quiz> quizzes = loadQuizzes();
-        boolean removed = quizzes.removeIf(q -> q.getQuizId() == quizId);
+        return changeQuizzes(() -> {
+            List<Quiz> quizzes = loadQuizzes();
+            boolean removed = quizzes.removeIf(q -> q.getQuizId() == quizId);
 
-        if (removed) {
-            saveQuizzes(quizzes);
-        }
+            if (removed) {
+                saveQuizzes(quizzes);
+            }
 
-        return removed;
+            return removed;
+        });
     }
 
     public boolean deleteQuizByLessonId(int lessonID) {
-        List<Quiz> quizzes = loadQuizzes();
-        boolean removed = quizzes.removeIf(q -> q.getLessonID() == lessonID);
-
-        if (removed) {
-            saveQuizzes(quizzes);
-        }
+        return changeQuizzes(() -> {
+            List<Quiz> quizzes = loadQuizzes();
+            boolean removed = quizzes.removeIf(q -> q.getLessonID() == lessonID);
 
-        return removed;
-    }
+            if (removed) {
+                saveQuizzes(quizzes);
+            }
 
-    public boolean hasQuiz(int courseId, int lessonId) {
-        return getQuizByCourseAndLessonId(courseId, lessonId) != null;
+            return removed;
+        });
     }
 
     public int generateQuizId() {
-        List<Quiz> quizzes = loadQuizzes();
-        int maxId = 0;
-        for (Quiz q : quizzes) {
-            if (q.getQuizId() > maxId) {
-                maxId = q.getQuizId();
-            }
-        }
-        return maxId + 1;
+        return ids.next("quiz", () -> highest(loadQuizzes(), Quiz::getQuizId));
     }
 
     
     public List<QuizAttempt> loadQuizAttempts() {
-        List<QuizAttempt> attempts = new ArrayList<>();
+        return locked(attemptLock.readLock(), () -> attemptCache.get(this::readQuizAttempts));
+    }
+
+    private List<QuizAttempt> readQuizAttempts() {
+        if (!attemptLog.exists()) {
+            migrateLegacyAttempts();
+        }
 
         try {
-            String json = readFile(QUIZZES_FILE);
-            JSONObject root = new JSONObject(json);
+            return readPreferringSnapshot(attemptSnapshot, this::readAttemptLog, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
 
-            if (!root.has("attempts")) {
-                return attempts;
+    private List<QuizAttempt> readAttemptLog() {
+        // keyed by id: a record can appear twice if a compaction was interrupted
+        Map<Integer, QuizAttempt> attempts = new LinkedHashMap<>();
+        for (String record : attemptLog.readAll()) {
+            try {
+                QuizAttempt a = readAttempt(new JsonStreamReader(new StringReader(record)));
+                attempts.putIfAbsent(a.getAttemptId(), a);
+            } catch (JSONException e) {
+                // torn write at the end of a segment
+                System.err.println("Skipping unreadable attempt record: " + e.getMessage());
             }
+        }
 
-            JSONArray arr = root.getJSONArray("attempts");
+        return new ArrayList<>(attempts.values());
+    }
 
-            for (int i = 0; i < arr.length(); i++) {
-                JSONObject obj = arr.getJSONObject(i);
+    // Older databases kept attempts in quizzes.json; copy them into the log once
+    private void migrateLegacyAttempts() {
+        List<String> records = new ArrayList<>();
 
-                List<String> answers = new ArrayList<>();
-                JSONArray answersArr = obj.getJSONArray("studentAnswers");
-                for (int j = 0; j < answersArr.length(); j++) {
-                    answers.add(answersArr.getString(j));
-                }
+        try {
+            JsonStreamReader.readArray(QUIZZES_FILE, "attempts",
+                    reader -> records.add(attemptRecord(readAttempt(reader))));
+        } catch (JSONException | IOException e) {
+            e.printStackTrace();
+        }
 
-                QuizAttempt a = new QuizAttempt(
-                        obj.getInt("attemptId"),
-                        obj.getString("studentId"),
-                        obj.getInt("quizId"),
-                        obj.getInt("lessonId"),
-                        obj.getInt("courseId"),
-                        answers,
-                        obj.getDouble("score"),
-                        obj.getBoolean("passed"),
-                        java.time.Instant.parse(obj.getString("attemptDate"))
-                );
+        attemptLog.rewrite(records);
+    }
 
-                attempts.add(a);
+    // Reads both record forms: answers packed (see AnswerCodec) or as a
+    // string array, and the date as epoch millis or an ISO string
+    private QuizAttempt readAttempt(JsonStreamReader reader) {
+        QuizAttempt a = new QuizAttempt();
+        String packedAnswers = null;
+        int answerCount = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "attemptId": a.setAttemptId(reader.nextInt()); break;
+                case "studentId": a.setStudentId(reader.nextString()); break;
+                case "quizId": a.setQuizId(reader.nextInt()); break;
+                case "lessonId": a.setLessonId(reader.nextInt()); break;
+                case "courseId": a.setCourseId(reader.nextInt()); break;
+                case "studentAnswers": a.setStudentAnswers(readStringArray(reader)); break;
+                case "answers": packedAnswers = reader.nextString(); break;
+                case "answerCount": answerCount = reader.nextInt(); break;
+                case "score": a.setScore(reader.nextDouble()); break;
+                case "passed": a.setPassed(reader.nextBoolean()); break;
+                case "attemptDate": a.setAttemptDate(java.time.Instant.parse(reader.nextString())); break;
+                case "attemptMillis": a.setAttemptDate(java.time.Instant.ofEpochMilli(reader.nextLong())); break;
+                default: reader.skipValue();
             }
+        }
+        reader.endObject();
 
-        } catch (JSONException e) {
-            e.printStackTrace();
+        if (packedAnswers != null) {
+            try {
+                a.setStudentAnswers(AnswerCodec.unpack(packedAnswers, answerCount));
+            } catch (IllegalArgumentException e) {
+                throw new JSONException("Bad packed answers: " + e.getMessage());
+            }
         }
 
-        return attempts;
+        if (a.getStudentId() == null || a.getAttemptDate() == null) {
+            throw new JSONException("Incomplete attempt record");
+        }
+        return a;
+    }
+
+    // One compact JSON line of the attempt log. Letter answers are packed
+    // and whole-millisecond dates written as epoch millis; anything else
+    // keeps the older string form, which readAttempt takes as well.
+    private String attemptRecord(QuizAttempt a) {
+        StringWriter out = new StringWriter();
+        JsonStreamWriter writer = new JsonStreamWriter(out, false);
+
+        writer.beginObject();
+        writer.name("attemptId").value(a.getAttemptId());
+        writer.name("studentId").value(a.getStudentId());
+        writer.name("quizId").value(a.getQuizId());
+        writer.name("lessonId").value(a.getLessonId());
+        writer.name("courseId").value(a.getCourseId());
+        String packed = AnswerCodec.pack(a.getStudentAnswers());
+        if (packed != null) {
+            writer.name("answers").value(packed);
+            writer.name("answerCount").value(a.getStudentAnswers().size());
+        } else {
+            writer.name("studentAnswers").stringArray(a.getStudentAnswers());
+        }
+        writer.name("score").value(a.getScore());
+        writer.name("passed").value(a.isPassed());
+        java.time.Instant date = a.getAttemptDate();
+        if (date.getNano() % 1_000_000 == 0) {
+            writer.name("attemptMillis").value(date.toEpochMilli());
+        } else {
+            writer.name("attemptDate").value(date.toString());
+        }
+        writer.endObject();
+
+        return out.toString();
     }
 
     public void saveQuizAttempts(List<QuizAttempt> attempts) {
-        List<Quiz> quizzes = loadQuizzes();
-        saveQuizzesAndAttempts(quizzes, attempts);
+        locked(attemptLock.writeLock(), () -> {
+            List<String> records = new ArrayList<>();
+            for (QuizAttempt a : attempts) {
+                records.add(attemptRecord(a));
+            }
+            attemptLog.rewrite(records);
+            attemptCache.put(attempts);
+        });
     }
 
     public void addQuizAttempt(QuizAttempt attempt) {
-        List<QuizAttempt> list = loadQuizAttempts();
-        list.add(attempt);
-        saveQuizAttempts(list);
+        locked(attemptLock.writeLock(), () -> {
+            if (!attemptLog.exists()) {
+                loadQuizAttempts();
+            }
+            // a single sequential append; the attempt index is updated in place
+            attemptLog.append(attemptRecord(attempt));
+            attemptCache.append(attempt);
+        });
     }
 
     public List<QuizAttempt> getStudentQuizAttempts(String studentId, int quizId) {
-        List<QuizAttempt> all = loadQuizAttempts();
-        List<QuizAttempt> result = new ArrayList<>();
+        return locked(attemptLock.readLock(), () -> attemptCache.query(this::readQuizAttempts, ATTEMPT_INDEX,
+                index -> index.getAttempts(studentId, quizId)));
+    }
 
-        for (QuizAttempt a : all) {
-            if (a.getStudentId().equals(studentId) && a.getQuizId() == quizId) {
-                result.add(a);
-            }
-        }
+    public int getQuizAttemptCount(String studentId, int quizId) {
+        return locked(attemptLock.readLock(), () -> attemptCache.query(this::readQuizAttempts, ATTEMPT_INDEX,
+                index -> index.getAttemptCount(studentId, quizId)));
+    }
 
-        return result;
+    public double getBestQuizScore(String studentId, int quizId) {
+        return locked(attemptLock.readLock(), () -> attemptCache.query(this::readQuizAttempts, ATTEMPT_INDEX,
+                index -> index.getBestScore(studentId, quizId)));
     }
 
     public boolean hasPassedQuiz(String studentId, int lessonId, int quizId) {
-        List<QuizAttempt> all = loadQuizAttempts();
-
-        for (QuizAttempt a : all) {
-            if (a.getStudentId().equals(studentId)
-                    && a.getLessonId() == lessonId
-                    && a.getQuizId() == quizId
-                    && a.isPassed()) {
-                return true;
-            }
-        }
-
-        return false;
+        return locked(attemptLock.readLock(), () -> attemptCache.query(this::readQuizAttempts, ATTEMPT_INDEX,
+                index -> index.hasPassed(studentId, lessonId, quizId)));
     }
 
     public int generateAttemptId() {
-        List<QuizAttempt> attempts = loadQuizAttempts();
-        int maxId = 0;
-        for (QuizAttempt attempt : attempts) {
-            try {
-                int id = attempt.getAttemptId();
-                if (id > maxId) {
-                    maxId = id;
-                }
-            } catch (NumberFormatException e) {
-                // Skip non-numeric IDs
-            }
-        }
-        return maxId + 1;
+        return ids.next("attempt", () -> highest(loadQuizAttempts(), QuizAttempt::getAttemptId));
     }
 
     public List<Certificate> loadCertificates() {
+        return locked(certificateLock.readLock(), () -> certificateCache.get(this::readCertificates));
+    }
+
+    private List<Certificate> readCertificates() {
         List<Certificate> certificates = new ArrayList<>();
         
         try {
-            String json = readFile(CERTIFICATES_FILE);
-            JSONObject root = new JSONObject(json);
-            
-            if (!root.has("certificates")) {
-                return certificates;
-            }
-            
-            JSONArray arr = root.getJSONArray("certificates");
-            
-            for (int i = 0; i < arr.length(); i++) {
-                JSONObject obj = arr.getJSONObject(i);
-                
-                Certificate cert = new Certificate();
-                cert.setCertificateID(obj.getInt("certificateId"));
-                cert.setStudentID(obj.getInt("studentId"));
-                cert.setCourseID(obj.getInt("courseId"));
-                cert.setStudentName(obj.getString("studentName"));
-                cert.setCourseTitle(obj.getString("courseTitle"));
-                cert.setInstructorName(obj.getString("instructorName"));
-                cert.setFinalScore(obj.getDouble("finalScore"));
-                
-                // Parse date
-                if (obj.has("issueDate")) {
-                    long timestamp = obj.getLong("issueDate");
-                    cert.setIssueDate(new java.util.Date(timestamp));
-                }
-                
-                certificates.add(cert);
-            }
-            
-        } catch (JSONException e) {
+            certificates.addAll(readPreferringSnapshot(certificateSnapshot,
+                    () -> certificateFile.read(this::readCertificate),
+                    certificateFile::adopt));
+        } catch (JSONException | IOException e) {
             System.err.println("Error loading certificates: " + e.getMessage());
             e.printStackTrace();
         }
         
-        return certificates;
+        return certificateFile.withDeferred(certificates);
     }
 
-    public void saveCertificates(List<Certificate> certificates) {
-        JSONArray arr = new JSONArray();
-        
-        for (Certificate cert : certificates) {
-            JSONObject obj = new JSONObject();
-            obj.put("certificateId", cert.getCertificateID());
-            obj.put("studentId", cert.getStudentID());
-            obj.put("courseId", cert.getCourseID());
-            obj.put("studentName", cert.getStudentName());
-            obj.put("courseTitle", cert.getCourseTitle());
-            obj.put("instructorName", cert.getInstructorName());
-            obj.put("finalScore", cert.getFinalScore());
-            obj.put("issueDate", cert.getIssueDate().getTime());
-            
-            arr.put(obj);
+    private Certificate readCertificate(JsonStreamReader reader) {
+        Certificate cert = new Certificate();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "certificateId": cert.setCertificateID(reader.nextInt()); break;
+                case "studentId": cert.setStudentID(reader.nextInt()); break;
+                case "courseId": cert.setCourseID(reader.nextInt()); break;
+                case "studentName": cert.setStudentName(reader.nextString()); break;
+                case "courseTitle": cert.setCourseTitle(reader.nextString()); break;
+                case "instructorName": cert.setInstructorName(reader.nextString()); break;
+                case "finalScore": cert.setFinalScore(reader.nextDouble()); break;
+                case "issueDate": cert.setIssueDate(new java.util.Date(reader.nextLong())); break;
+                case "version": cert.setVersion(reader.nextLong()); break;
+                default: reader.skipValue();
+            }
         }
-        
-        JSONObject root = new JSONObject();
-        root.put("certificates", arr);
-        
-        writeFile(CERTIFICATES_FILE, root.toString(4));
+        reader.endObject();
+
+        return cert;
+    }
+
+    public void saveCertificates(List<Certificate> certificates) {
+        locked(certificateLock.writeLock(), () -> {
+            // copied: with write-behind the file is rendered later
+            List<Certificate> snapshot = new ArrayList<>(certificates);
+            saveChanges(certificateFile, snapshot, this::writeCertificate);
+            certificateCache.put(snapshot);
+        });
+    }
+
+    private void writeCertificate(JsonStreamWriter writer, Certificate cert) {
+        writer.beginObject();
+        writer.name("certificateId").value(cert.getCertificateID());
+        writer.name("studentId").value(cert.getStudentID());
+        writer.name("courseId").value(cert.getCourseID());
+        writer.name("studentName").value(cert.getStudentName());
+        writer.name("courseTitle").value(cert.getCourseTitle());
+        writer.name("instructorName").value(cert.getInstructorName());
+        writer.name("finalScore").value(cert.getFinalScore());
+        writer.name("issueDate").value(cert.getIssueDate().getTime());
+        writer.name("version").value(cert.getVersion());
+        writer.endObject();
+    }
+
+    public Certificate getCertificateById(int certificateId) {
+        return locked(certificateLock.readLock(),
+                () -> certificateCache.lookup(this::readCertificates, CERTIFICATE_ID, certificateId));
     }
 
     public void saveCertificate(Certificate cert) {
-        List<Certificate> certificates = loadCertificates();
-        certificates.add(cert);
-        saveCertificates(certificates);
+        locked(certificateLock.writeLock(), () -> {
+            Certificate current = getCertificateById(cert.getCertificateID());
+            cert.setVersion((current != null ? current.getVersion() : 0) + 1);
+            storeCertificate(cert);
+        });
     }
 
-    public int generateCertificateId(List<Certificate> certificates) {
-        int maxId = 0;
-        for (Certificate cert : certificates) {
-            if (cert.getCertificateID() > maxId) {
-                maxId = cert.getCertificateID();
+    public boolean compareAndSetCertificate(Certificate cert, long expectedVersion) {
+        return locked(certificateLock.writeLock(), () -> {
+            Certificate current = getCertificateById(cert.getCertificateID());
+            if ((current != null ? current.getVersion() : 0) != expectedVersion) {
+                return false;
             }
-        }
-        return maxId + 1;
+            cert.setVersion(expectedVersion + 1);
+            storeCertificate(cert);
+            return true;
+        });
     }
 
-    public int generateUserId(List<User> users) {
-        int maxId = 0;
-        for (User user : users) {
-            try {
-                int id = Integer.parseInt(user.getUserId());
-                if (id > maxId) {
-                    maxId = id;
-                }
-            } catch (NumberFormatException e) {
-                // Skip non-numeric IDs
-            }
-        }
-        return maxId + 1;
+    private void storeCertificate(Certificate cert) {
+        saveEntity(certificateFile, cert, this::writeCertificate, this::loadCertificates);
+        certificateCache.upsert(cert, CERTIFICATE_ID);
     }
 
-    public int generateCourseId(List<Course> courses) {
-        return courses.stream().mapToInt(Course::getCourseID).max().orElse(0) + 1;
+    public User findUser(String userId) {
+        return locked(userLock.readLock(), () -> userCache.lookup(this::readUsers, USER_ID, userId));
     }
 
-    public int generateLessonId(Course course) {
-        return course.getLessons().stream()
-            .mapToInt(Lesson::getLessonID)
-            .max().orElse(0) + 1;
+    public Course getCourseById(int courseId) {
+        return locked(courseLock.readLock(),
+                () -> courseCache.lookup(this::readCourses, COURSE_ID, courseId));
     }
     
-    public Student findStudent(String studentId) {
-        for (User u : loadUsers()) {
-            if (u instanceof Student && u.getUserId().equals(studentId)) {
-                return (Student) u;
+    public void updateCourse(Course updatedCourse) {
+        locked(courseLock.writeLock(), () -> {
+            Course current = getCourseById(updatedCourse.getCourseID());
+            if (current == null) {
+                System.err.println("Course not found for update: " + updatedCourse.getCourseID());
+                return;
             }
-        }
-        return null; 
+            updatedCourse.setVersion(current.getVersion() + 1);
+            storeCourse(updatedCourse);
+        });
     }
 
-    public Course findCourse(String courseId) {
-        for (Course c : loadCourses()) {
-            if (String.valueOf(c.getCourseID()).equals(courseId)) {
-                return c;
+    public boolean compareAndSetCourse(Course course, long expectedVersion) {
+        return locked(courseLock.writeLock(), () -> {
+            Course current = getCourseById(course.getCourseID());
+            if (current == null || current.getVersion() != expectedVersion) {
+                return false;
             }
-        }
-        return null;
+            course.setVersion(expectedVersion + 1);
+            storeCourse(course);
+            return true;
+        });
     }
-    
-    public List<Course> getAllCourses() {
-        return loadCourses();
+
+    private void storeCourse(Course course) {
+        // Only this course's record is written
+        saveEntity(courseFile, course, this::writeCourse, this::loadCourses);
+        courseCache.upsert(course, COURSE_ID);
     }
     
-    public Course getCourseById(int courseId) {
-        List<Course> courses = loadCourses();
-        
-        for (Course course : courses) {
-            if (course.getCourseID() == courseId) {
-                return course;
+    // Checks every expected version, logs the whole change set durably and
+    // only then writes the data files; a crash part way through is redone
+    // from the log on the next start
+    @Override
+    public boolean commit(Transaction tx) {
+        List<Lock> locks = new ArrayList<>();
+        if (tx.touches(Transaction.Kind.USER)) {
+            locks.add(userLock.writeLock());
+        }
+        if (tx.touches(Transaction.Kind.COURSE)) {
+            locks.add(courseLock.writeLock());
+        }
+        if (tx.touches(Transaction.Kind.CERTIFICATE)) {
+            locks.add(certificateLock.writeLock());
+        }
+        for (Lock lock : locks) {
+            lock.lock();
+        }
+        try {
+            List<Long> current = new ArrayList<>();
+            for (Transaction.Op op : tx.ops()) {
+                long version = storedVersion(op.kind, op.key);
+                if (op.expectedVersion != Transaction.ANY_VERSION && op.expectedVersion != version) {
+                    return false;
+                }
+                current.add(version);
+            }
+
+            StringWriter ops = new StringWriter();
+            JsonStreamWriter writer = new JsonStreamWriter(ops, false);
+            writer.beginArray();
+            for (int i = 0; i < tx.ops().size(); i++) {
+                Transaction.Op op = tx.ops().get(i);
+                writer.beginObject();
+                if (op.isDelete()) {
+                    writer.name("delete").value(fileOf(op.kind));
+                    writer.name("key").value(String.valueOf(op.key));
+                    writer.name("version").value(current.get(i));
+                } else {
+                    setVersion(op.entity, current.get(i) + 1);
+                    writer.name("put").value(fileOf(op.kind));
+                    writer.name("record");
+                    writeRecord(writer, op.entity);
+                }
+                writer.endObject();
+            }
+            writer.endArray().flush();
+
+            long id;
+            try {
+                id = txLog.commit(ops.toString());
+            } catch (IOException e) {
+                e.printStackTrace();
+                tx.revertVersions();
+                return false;
+            }
+
+            for (Transaction.Op op : tx.ops()) {
+                apply(op.kind, op.key, op.entity);
+            }
+            // the D record may only follow data that is really on disk
+            if (tx.touches(Transaction.Kind.USER)) {
+                flushPending(USERS_FILE);
+            }
+            if (tx.touches(Transaction.Kind.COURSE)) {
+                flushPending(COURSES_FILE);
+            }
+            if (tx.touches(Transaction.Kind.CERTIFICATE)) {
+                flushPending(CERTIFICATES_FILE);
+            }
+            try {
+                txLog.finish(id);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return true;
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
             }
         }
-        
-        return null;
     }
-    
-    public void updateCourse(Course updatedCourse) {
-        List<Course> courses = loadCourses();
-        boolean found = false;
-        
-        // Find and replace the course
-        for (int i = 0; i < courses.size(); i++) {
-            if (courses.get(i).getCourseID() == updatedCourse.getCourseID()) {
-                courses.set(i, updatedCourse);
-                found = true;
-                break;
-            }
+
+    // The read locks are held only while the four resident lists are pinned
+    // (no copying unless a file has to be parsed); a transaction holds its
+    // write locks until all of its files are updated, so the cut never falls
+    // inside one. The attempt columns, kept up to date as the attempt log is
+    // appended, are handed over frozen at the same cut.
+    @Override
+    public StoreSnapshot snapshot() {
+        return locked(userLock.readLock(), () -> locked(courseLock.readLock(),
+                () -> locked(quizLock.readLock(), () -> locked(attemptLock.readLock(),
+                        () -> {
+                            // copies: the cached users, courses and quizzes may be
+                            // changed in place; attempts never are once logged
+                            List<User> users = userCache.pin(this::readUsers, User::copy);
+                            List<Course> courses = courseCache.pin(this::readCourses, Course::copy);
+                            List<Quiz> quizzes = quizCache.pin(this::readQuizzes, Quiz::copy);
+                            return attemptCache.pin(this::readQuizAttempts, ATTEMPT_COLUMNS,
+                                    (attempts, columns) -> new StoreSnapshot(users, courses, quizzes, attempts,
+                                            columns.frozen()));
+                        }))));
+    }
+
+    private long storedVersion(Transaction.Kind kind, Object key) {
+        Object stored;
+        switch (kind) {
+            case USER: stored = findUser((String) key); break;
+            case COURSE: stored = getCourseById((Integer) key); break;
+            default: stored = getCertificateById((Integer) key); break;
         }
-        
-        if (!found) {
-            System.err.println("Course not found for update: " + updatedCourse.getCourseID());
-            return;
+        if (stored instanceof User) {
+            return ((User) stored).getVersion();
+        } else if (stored instanceof Course) {
+            return ((Course) stored).getVersion();
+        } else if (stored instanceof Certificate) {
+            return ((Certificate) stored).getVersion();
         }
-        
-        // Save all courses back to file
-        saveCourses(courses);
+        return 0;
     }
-    
-    public List<Course> getCoursesByStatus(ApprovalStatus status) {
-        List<Course> allCourses = loadCourses();
-        List<Course> filteredCourses = new ArrayList<>();
-        
-        for (Course course : allCourses) {
-            if (course.getApprovalStatus() == status) {
-                filteredCourses.add(course);
-            }
+
+    private static void setVersion(Object entity, long version) {
+        if (entity instanceof User) {
+            ((User) entity).setVersion(version);
+        } else if (entity instanceof Course) {
+            ((Course) entity).setVersion(version);
+        } else {
+            ((Certificate) entity).setVersion(version);
         }
-        
-        return filteredCourses;
     }
-    
-    public Admin findAdminByUsername(String username) {
-        List<User> users = loadUsers();
-        
-        for (User user : users) {
-            if (user instanceof Admin && user.getUsername().equals(username)) {
-                return (Admin) user;
-            }
+
+    private static String fileOf(Transaction.Kind kind) {
+        switch (kind) {
+            case USER: return "users";
+            case COURSE: return "courses";
+            default: return "certificates";
         }
-        
-        return null;
     }
-    
-    public void saveAdmin(Admin admin) {
-        List<User> users = loadUsers();
-        boolean found = false;
-        
-        // Update existing admin or add new one
-        for (int i = 0; i < users.size(); i++) {
-            if (users.get(i).getUserId().equals(admin.getUserId())) {
-                users.set(i, admin);
-                found = true;
+
+    private void writeRecord(JsonStreamWriter writer, Object entity) {
+        if (entity instanceof User) {
+            writeUser(writer, (User) entity);
+        } else if (entity instanceof Course) {
+            writeCourse(writer, (Course) entity);
+        } else {
+            writeCertificate(writer, (Certificate) entity);
+        }
+    }
+
+    // Writes one record (null entity: deletes it) with the file's lock held
+    private void apply(Transaction.Kind kind, Object key, Object entity) {
+        switch (kind) {
+            case USER:
+                storeUser((User) entity);
                 break;
+            case COURSE:
+                if (entity != null) {
+                    storeCourse((Course) entity);
+                } else {
+                    List<Course> rest = new ArrayList<>(loadCourses());
+                    if (rest.removeIf(c -> key.equals(c.getCourseID()))) {
+                        saveEntity(courseFile, null, String.valueOf(key), this::writeCourse, this::loadCourses);
+                        courseCache.put(rest);
+                    }
+                }
+                break;
+            default:
+                storeCertificate((Certificate) entity);
+                break;
+        }
+    }
+
+    // Replays one logged commit. Versions only grow, so a record already
+    // at or past the logged version was written (or overwritten) after it
+    private void redo(String ops) {
+        JsonStreamReader reader = new JsonStreamReader(new StringReader(ops));
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginObject();
+            String op = reader.nextName();
+            String file = reader.nextString();
+            Transaction.Kind kind = file.equals("users") ? Transaction.Kind.USER
+                    : file.equals("courses") ? Transaction.Kind.COURSE : Transaction.Kind.CERTIFICATE;
+            Lock lock = kind == Transaction.Kind.USER ? userLock.writeLock()
+                    : kind == Transaction.Kind.COURSE ? courseLock.writeLock() : certificateLock.writeLock();
+            if (op.equals("delete")) {
+                reader.nextName();
+                String key = reader.nextString();
+                reader.nextName();
+                long version = reader.nextLong();
+                Object k = kind == Transaction.Kind.USER ? key : (Object) Integer.valueOf(key);
+                locked(lock, () -> {
+                    if (storedVersion(kind, k) <= version) {
+                        apply(kind, k, null);
+                    }
+                });
+            } else {
+                reader.nextName();
+                Object entity = kind == Transaction.Kind.USER ? readUser(reader)
+                        : kind == Transaction.Kind.COURSE ? readCourse(reader, quizCatalog()) : readCertificate(reader);
+                locked(lock, () -> {
+                    long logged = kind == Transaction.Kind.USER ? ((User) entity).getVersion()
+                            : kind == Transaction.Kind.COURSE ? ((Course) entity).getVersion()
+                            : ((Certificate) entity).getVersion();
+                    Object k = kind == Transaction.Kind.USER ? ((User) entity).getUserId()
+                            : kind == Transaction.Kind.COURSE ? (Object) ((Course) entity).getCourseID()
+                            : ((Certificate) entity).getCertificateID();
+                    if (storedVersion(kind, k) < logged) {
+                        apply(kind, k, entity);
+                    }
+                });
             }
+            reader.endObject();
         }
-        
-        if (!found) {
-            users.add(admin);
+        reader.endArray();
+    }
+
+    @Override
+    public int generateUserId() {
+        return ids.next("user", () -> {
+            long maxId = 0;
+            for (User u : loadUsers()) {
+                try {
+                    maxId = Math.max(maxId, Long.parseLong(u.getUserId()));
+                } catch (NumberFormatException e) {
+                    // Skip non-numeric IDs
+                }
+            }
+            return maxId;
+        });
+    }
+
+    @Override
+    public int generateCourseId() {
+        return ids.next("course", () -> highest(loadCourses(), Course::getCourseID));
+    }
+
+    @Override
+    public int generateLessonId() {
+        return ids.next("lesson", () -> {
+            long maxId = 0;
+            for (Course c : loadCourses()) {
+                maxId = Math.max(maxId, highest(c.getLessons(), Lesson::getLessonID));
+            }
+            return maxId;
+        });
+    }
+
+    @Override
+    public int generateCertificateId() {
+        return ids.next("certificate", () -> highest(loadCertificates(), Certificate::getCertificateID));
+    }
+
+    // Floor for an id sequence: the highest id in use
+    private static <T> long highest(List<T> entities, ToIntFunction<T> id) {
+        long maxId = 0;
+        for (T entity : entities) {
+            maxId = Math.max(maxId, id.applyAsInt(entity));
         }
-        
-        saveUsers(users);
+        return maxId;
+    }
+
+    public Admin findAdminByUsername(String username) {
+        return locked(userLock.readLock(), () -> (Admin) userCache.lookup(this::readUsers, ADMIN_USERNAME, username));
+    }
+    
+    public long getCacheHits() {
+        return userCache.getHits() + courseCache.getHits() + quizCache.getHits()
+                + attemptCache.getHits() + certificateCache.getHits();
+    }
+    
+    public long getCacheMisses() {
+        return userCache.getMisses() + courseCache.getMisses() + quizCache.getMisses()
+                + attemptCache.getMisses() + certificateCache.getMisses();
+    }
+    
+    // JSON -> binary: writes all snapshots from the current data files
+    public void exportSnapshots() throws IOException {
+        flush();
+        quizSnapshot.write(loadQuizzes());
+        attemptSnapshot.write(loadQuizAttempts());
+        courseSnapshot.write(loadCourses());
+        userSnapshot.write(loadUsers());
+        certificateSnapshot.write(loadCertificates());
+    }
+
+    // Binary -> JSON: replaces the data files with the snapshots' contents
+    public void importSnapshots() throws IOException {
+        // read everything first so a bad snapshot leaves the JSON untouched
+        List<Quiz> quizzes = quizSnapshot.readAny();
+        List<QuizAttempt> attempts = attemptSnapshot.readAny();
+        List<Course> courses = courseSnapshot.readAny();
+        List<User> users = userSnapshot.readAny();
+        List<Certificate> certificates = certificateSnapshot.readAny();
+
+        saveQuizAttempts(attempts);
+        saveQuizzes(quizzes);
+        flush();
+        compactLocked(courseLock, COURSES_FILE, courseFile, courses, this::writeCourse);
+        compactLocked(userLock, USERS_FILE, userFile, users, this::writeUser);
+        compactLocked(certificateLock, CERTIFICATES_FILE, certificateFile, certificates, this::writeCertificate);
+        invalidateCaches();
+    }
+
+    private <T> void compactLocked(ReadWriteLock lock, String path, JournaledFile<T> file, List<T> entities,
+                                   BiConsumer<JsonStreamWriter, T> records) throws IOException {
+        lock.writeLock().lock();
+        try {
+            flushPending(path);
+            file.compact(entities, records, prettyPrint);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void invalidateCaches() {
+        userCache.invalidate();
+        courseCache.invalidate();
+        quizCache.invalidate();
+        attemptCache.invalidate();
+        certificateCache.invalidate();
     }
 }
@@ -0,0 +1,447 @@
+package database;
+
+import org.json.JSONException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Pull parser that walks a JSON document token by token, so loaders can map
+// records straight into model objects without building an org.json tree.
+// Only the current token is held in memory. Malformed input is reported as
+// a JSONException, like the rest of the database code expects.
+class JsonStreamReader implements Closeable {
+
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY,
+        NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    // What the parser expects next at each nesting level
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int DANGLING_NAME = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+
+    private final List<Integer> stack = new ArrayList<>();
+    private Token peeked;
+    private final StringBuilder text = new StringBuilder();
+
+    JsonStreamReader(Reader in) {
+        this.in = in;
+        stack.add(EMPTY_DOCUMENT);
+    }
+
+    // Streams every element of the top-level array `name` of a data file to
+    // recordReader, which must consume exactly one value. A missing file
+    // reads as empty.
+    static void readArray(String path, String name, Consumer<JsonStreamReader> recordReader)
+            throws IOException {
+        readArray(path, name, recordReader, (field, reader) -> reader.skipValue());
+    }
+
+    // Same, handing every other top-level field to otherField, which must
+    // consume exactly its value
+    static void readArray(String path, String name, Consumer<JsonStreamReader> recordReader,
+                          BiConsumer<String, JsonStreamReader> otherField) throws IOException {
+        File file = new File(path);
+        if (!file.exists()) {
+            file.getParentFile().mkdirs();
+            return;
+        }
+        try (JsonStreamReader reader = new JsonStreamReader(
+                Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if (!field.equals(name)) {
+                    otherField.accept(field, reader);
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    recordReader.accept(reader);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+    }
+
+    Token peek() {
+        if (peeked != null) {
+            return peeked;
+        }
+
+        int top = stack.size() - 1;
+        switch (stack.get(top)) {
+            case EMPTY_DOCUMENT:
+                stack.set(top, NONEMPTY_DOCUMENT);
+                return peeked = readValueToken();
+            case NONEMPTY_DOCUMENT:
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError("Unexpected data after document");
+                }
+                return peeked = Token.END_DOCUMENT;
+            case EMPTY_ARRAY: {
+                stack.set(top, NONEMPTY_ARRAY);
+                int c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c == -1) {
+                    throw syntaxError("Unterminated array");
+                }
+                pos--;
+                return peeked = readValueToken();
+            }
+            case NONEMPTY_ARRAY: {
+                int c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                return peeked = readValueToken();
+            }
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT: {
+                int c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (stack.get(top) == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                stack.set(top, DANGLING_NAME);
+                return peeked = Token.NAME;
+            }
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                stack.set(top, NONEMPTY_OBJECT);
+                return peeked = readValueToken();
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    boolean hasNext() {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    void beginObject() {
+        expect(Token.BEGIN_OBJECT);
+        stack.add(EMPTY_OBJECT);
+    }
+
+    void endObject() {
+        expect(Token.END_OBJECT);
+        stack.remove(stack.size() - 1);
+    }
+
+    void beginArray() {
+        expect(Token.BEGIN_ARRAY);
+        stack.add(EMPTY_ARRAY);
+    }
+
+    void endArray() {
+        expect(Token.END_ARRAY);
+        stack.remove(stack.size() - 1);
+    }
+
+    String nextName() {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    // Numbers are accepted too, mirroring JSONObject.getString on older files
+    String nextString() {
+        Token token = peek();
+        if (token == Token.STRING) {
+            peeked = null;
+            return readString();
+        }
+        if (token == Token.NUMBER) {
+            peeked = null;
+            return readNumber();
+        }
+        throw syntaxError("Expected a string but was " + token);
+    }
+
+    // Returns null for a JSON null
+    String nextStringOrNull() {
+        if (peek() == Token.NULL) {
+            nextNull();
+            return null;
+        }
+        return nextString();
+    }
+
+    int nextInt() {
+        String value = nextNumberText();
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            double d = Double.parseDouble(value);
+            if (d != (int) d) {
+                throw syntaxError("Expected an int but was " + value);
+            }
+            return (int) d;
+        }
+    }
+
+    long nextLong() {
+        String value = nextNumberText();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return (long) Double.parseDouble(value);
+        }
+    }
+
+    double nextDouble() {
+        try {
+            return Double.parseDouble(nextNumberText());
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a number");
+        }
+    }
+
+    boolean nextBoolean() {
+        Token token = peek();
+        if (token == Token.STRING) {
+            return Boolean.parseBoolean(nextString());
+        }
+        expect(Token.BOOLEAN);
+        return readLiteral().equals("true");
+    }
+
+    void nextNull() {
+        expect(Token.NULL);
+        readLiteral();
+    }
+
+    void skipValue() {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case NAME:
+                    nextName();
+                    break;
+                case STRING:
+                case NUMBER:
+                    nextString();
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                default:
+                    throw syntaxError("Unexpected end of document");
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token expected) {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private String nextNumberText() {
+        Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING) {
+            throw syntaxError("Expected a number but was " + token);
+        }
+        peeked = null;
+        return token == Token.NUMBER ? readNumber() : readString().trim();
+    }
+
+    // Classifies the next value; only the opening character is consumed
+    private Token readValueToken() {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                pos--;
+                return Token.BOOLEAN;
+            case 'n':
+                pos--;
+                return Token.NULL;
+            case -1:
+                throw syntaxError("Unexpected end of document");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    pos--;
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private String readString() {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw syntaxError("Unterminated string");
+            }
+            if (c == '"') {
+                return text.toString();
+            }
+            if (c == '\\') {
+                int e = read();
+                switch (e) {
+                    case 'b': text.append('\b'); break;
+                    case 'f': text.append('\f'); break;
+                    case 'n': text.append('\n'); break;
+                    case 'r': text.append('\r'); break;
+                    case 't': text.append('\t'); break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int h = Character.digit(read(), 16);
+                            if (h < 0) {
+                                throw syntaxError("Bad unicode escape");
+                            }
+                            code = code * 16 + h;
+                        }
+                        text.append((char) code);
+                        break;
+                    case -1:
+                        throw syntaxError("Unterminated string");
+                    default:
+                        text.append((char) e);
+                }
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private String readNumber() {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                text.append((char) c);
+            } else {
+                if (c != -1) {
+                    pos--;
+                }
+                return text.toString();
+            }
+        }
+    }
+
+    private String readLiteral() {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c >= 'a' && c <= 'z') {
+                text.append((char) c);
+            } else {
+                if (c != -1) {
+                    pos--;
+                }
+                String literal = text.toString();
+                if (!literal.equals("true") && !literal.equals("false") && !literal.equals("null")) {
+                    throw syntaxError("Unexpected literal '" + literal + "'");
+                }
+                return literal;
+            }
+        }
+    }
+
+    private int nextNonWhitespace() {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    // Stepping back one char with pos-- is safe because fill() only runs once
+    // the buffer is used up; it is never done after end of input
+    private int read() {
+        if (pos >= limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    private boolean fill() {
+        try {
+            limit = in.read(buffer, 0, buffer.length);
+        } catch (IOException e) {
+            throw new JSONException("Error reading JSON", e);
+        }
+        pos = 0;
+        if (limit <= 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message);
+    }
+}
@@ -0,0 +1,191 @@
+package database;
+
+import org.json.JSONException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Writes JSON token by token to a (buffered) Writer so saves never build an
+// org.json tree or the whole document as one String. Output is compact
+// unless pretty printing is asked for. I/O failures surface as
+// JSONException, the same way org.json's own JSONWriter reports them.
+class JsonStreamWriter implements Closeable {
+
+    private final Writer out;
+    private final String indent;
+
+    // per nesting level: has a value already been written at this level?
+    private final List<Boolean> nonEmpty = new ArrayList<>();
+    private boolean afterName;
+
+    JsonStreamWriter(Writer out, boolean pretty) {
+        this.out = out;
+        this.indent = pretty ? "    " : null;
+    }
+
+    JsonStreamWriter beginObject() {
+        return open('{');
+    }
+
+    JsonStreamWriter endObject() {
+        return close('}');
+    }
+
+    JsonStreamWriter beginArray() {
+        return open('[');
+    }
+
+    JsonStreamWriter endArray() {
+        return close(']');
+    }
+
+    JsonStreamWriter name(String name) {
+        beforeValue();
+        writeString(name);
+        write(indent != null ? ": " : ":");
+        afterName = true;
+        return this;
+    }
+
+    JsonStreamWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    JsonStreamWriter value(long value) {
+        beforeValue();
+        write(Long.toString(value));
+        return this;
+    }
+
+    JsonStreamWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new JSONException("JSON does not allow non-finite numbers");
+        }
+        beforeValue();
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            write(Long.toString((long) value));
+        } else {
+            write(Double.toString(value));
+        }
+        return this;
+    }
+
+    JsonStreamWriter value(boolean value) {
+        beforeValue();
+        write(value ? "true" : "false");
+        return this;
+    }
+
+    JsonStreamWriter nullValue() {
+        beforeValue();
+        write("null");
+        return this;
+    }
+
+    JsonStreamWriter stringArray(List<String> values) {
+        beginArray();
+        for (String v : values) {
+            value(v);
+        }
+        return endArray();
+    }
+
+    void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new JSONException("Error writing JSON", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private JsonStreamWriter open(char c) {
+        beforeValue();
+        write(String.valueOf(c));
+        nonEmpty.add(false);
+        return this;
+    }
+
+    private JsonStreamWriter close(char c) {
+        boolean hadValues = nonEmpty.remove(nonEmpty.size() - 1);
+        if (hadValues) {
+            newline();
+        }
+        write(String.valueOf(c));
+        return this;
+    }
+
+    // Separator and indentation before a name or a value
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        int depth = nonEmpty.size();
+        if (depth == 0) {
+            return;
+        }
+        if (nonEmpty.get(depth - 1)) {
+            write(",");
+        }
+        nonEmpty.set(depth - 1, true);
+        newline();
+    }
+
+    private void newline() {
+        if (indent == null) {
+            return;
+        }
+        write("\n");
+        for (int i = 0; i < nonEmpty.size(); i++) {
+            write(indent);
+        }
+    }
+
+    private void writeString(String s) {
+        try {
+            out.write('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"': out.write("\\\""); break;
+                    case '\\': out.write("\\\\"); break;
+                    case '\n': out.write("\\n"); break;
+                    case '\r': out.write("\\r"); break;
+                    case '\t': out.write("\\t"); break;
+                    case '\b': out.write("\\b"); break;
+                    case '\f': out.write("\\f"); break;
+                    default:
+                        if (c < 0x20) {
+                            out.write(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.write(c);
+                        }
+                }
+            }
+            out.write('"');
+        } catch (IOException e) {
+            throw new JSONException("Error writing JSON", e);
+        }
+    }
+
+    private void write(String s) {
+        try {
+            out.write(s);
+        } catch (IOException e) {
+            throw new JSONException("Error writing JSON", e);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package model;
+
+import java.util.Arrays;
+
+// Which lessons of a course one student has completed, one bit per lesson
+// position in the course (bit i is course.getLessons().get(i)). The number
+// of set bits is counted once, so progress and "all done" are O(1) and the
+// completed positions come from scanning words, not lessons.
+//
+// Instances come from Student.getLessonCompletion and are not changed
+// after that, so they can be shared between threads.
+public final class LessonBitmap {
+
+    private final long[] words;
+    private final int length;
+    private int cardinality;
+
+    LessonBitmap(int length) {
+        this.words = new long[(length + 63) >>> 6];
+        this.length = length;
+    }
+
+    private LessonBitmap(long[] words, int length) {
+        this.words = words;
+        this.length = length;
+        for (long w : words) {
+            cardinality += Long.bitCount(w);
+        }
+    }
+
+    // Used while building; out-of-range positions are ignored
+    void set(int position) {
+        if (position < 0 || position >= length) {
+            return;
+        }
+        long bit = 1L << position;
+        if ((words[position >>> 6] & bit) == 0) {
+            words[position >>> 6] |= bit;
+            cardinality++;
+        }
+    }
+
+    // Number of lessons in the course when the bitmap was built
+    public int length() {
+        return length;
+    }
+
+    public boolean get(int position) {
+        return position >= 0 && position < length
+                && (words[position >>> 6] & (1L << position)) != 0;
+    }
+
+    // Number of completed lessons
+    public int cardinality() {
+        return cardinality;
+    }
+
+    // false for a course without lessons, as before
+    public boolean isComplete() {
+        return length > 0 && cardinality == length;
+    }
+
+    public double percentComplete() {
+        return length == 0 ? 0.0 : (cardinality * 100.0) / length;
+    }
+
+    // Positions of the completed lessons, ascending
+    public int[] positions() {
+        int[] positions = new int[cardinality];
+        int n = 0;
+        for (int i = 0; i < words.length; i++) {
+            long w = words[i];
+            while (w != 0) {
+                positions[n++] = (i << 6) + Long.numberOfTrailingZeros(w);
+                w &= w - 1;
+            }
+        }
+        return positions;
+    }
+
+    // Lessons completed in both
+    public LessonBitmap and(LessonBitmap other) {
+        int n = Math.min(words.length, other.words.length);
+        long[] result = new long[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = words[i] & other.words[i];
+        }
+        return new LessonBitmap(result, Math.min(length, other.length));
+    }
+
+    // Lessons completed in either
+    public LessonBitmap or(LessonBitmap other) {
+        LessonBitmap longer = words.length >= other.words.length ? this : other;
+        LessonBitmap shorter = longer == this ? other : this;
+        long[] result = longer.words.clone();
+        for (int i = 0; i < shorter.words.length; i++) {
+            result[i] |= shorter.words[i];
+        }
+        return new LessonBitmap(result, Math.max(length, other.length));
+    }
+
+    // For each lesson position below length, how many of the bitmaps have
+    // it set. The counts are kept as bit-sliced counters (plane p holds bit
+    // p of every position's count), so adding a bitmap is a ripple-carry of
+    // word-wide AND/XOR over a few planes rather than a loop over lessons.
+    public static int[] countPerPosition(Iterable<LessonBitmap> bitmaps, int length) {
+        int wordCount = (length + 63) >>> 6;
+        long[][] planes = new long[0][];
+        for (LessonBitmap bitmap : bitmaps) {
+            int n = Math.min(wordCount, bitmap.words.length);
+            for (int i = 0; i < n; i++) {
+                long carry = bitmap.words[i];
+                for (int p = 0; carry != 0; p++) {
+                    if (p == planes.length) {
+                        planes = Arrays.copyOf(planes, p + 1);
+                        planes[p] = new long[wordCount];
+                    }
+                    long sum = planes[p][i] ^ carry;
+                    carry &= planes[p][i];
+                    planes[p][i] = sum;
+                }
+            }
+        }
+
+        int[] counts = new int[length];
+        for (int p = 0; p < planes.length; p++) {
+            for (int i = 0; i < wordCount; i++) {
+                long w = planes[p][i];
+                while (w != 0) {
+                    int position = (i << 6) + Long.numberOfTrailingZeros(w);
+                    if (position < length) {
+                        counts[position] += 1 << p;
+                    }
+                    w &= w - 1;
+                }
+            }
+        }
+        return counts;
+    }
+}
@@ -21,7 +21,7 @@ public class LoginFrame extends JFrame {
   
 // In your constructor:
 public LoginFrame() {
-    JsonDatabaseManager db = new JsonDatabaseManager();
+    DataStore db = DataStores.getDefault();
     userService = new UserService(db);
     
     setLocationRelativeTo(null);
@@ -268,7 +268,7 @@ private boolean checkRoleSelected() {
 private void openStudentDashboard(Student student) {
         SwingUtilities.invokeLater(() -> {
             try {
-                JsonDatabaseManager db = new JsonDatabaseManager();
+                DataStore db = DataStores.getDefault();
                 StudentService studentService = new StudentService(db);
 
                 JFrame frame = new JFrame("SkillForge - Student Dashboard");
@@ -0,0 +1,577 @@
+package database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+import model.*;
+
+// DataStore on the embedded log-structured engine (LsmTree) in one
+// directory. Records are the SnapshotCodec encodings under these keys:
+//   user/<userId>                            admin/<username> -> userId
+//   course/<courseId>                        cert/<certificateId>
+//   quiz/<quizId>                            quiz-at/<courseId>/<lessonId>/<quizId> (index)
+//   attempt/<studentId>/<quizId>/<attemptId>
+//   seq/<name>                               highest id reserved or stored (IdSequences)
+// Numeric key parts are fixed-width so key order is numeric order, which
+// makes "all attempts of a student at a quiz" one prefix scan. A record and
+// its index entries are written as one atomic batch.
+public class LsmDataStore implements DataStore {
+
+    private static final String USER = "user/";
+    private static final String ADMIN = "admin/";
+    private static final String COURSE = "course/";
+    private static final String QUIZ = "quiz/";
+    private static final String QUIZ_AT = "quiz-at/";
+    private static final String ATTEMPT = "attempt/";
+    private static final String CERTIFICATE = "cert/";
+    private static final String SEQ = "seq/";
+    private static final String QUIZ_SEQ = SEQ + "quiz";
+    private static final String ATTEMPT_SEQ = SEQ + "attempt";
+
+    private final LsmTree tree;
+    private final IdSequences ids = new IdSequences(this::advanceSequence);
+
+    public LsmDataStore(File dir) throws IOException {
+        tree = new LsmTree(dir);
+    }
+
+    public void close() {
+        tree.close();
+    }
+
+    // ---- users
+
+    @Override
+    public List<User> loadUsers() {
+        return usersIn(tree::scan);
+    }
+
+    private static List<User> usersIn(Function<String, SortedMap<String, byte[]>> scan) {
+        return decodeAll(scan.apply(USER), SnapshotCodec::readUser);
+    }
+
+    @Override
+    public synchronized void saveUsers(List<User> users) {
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        deleteAll(batch, USER);
+        deleteAll(batch, ADMIN);
+        for (User u : users) {
+            putUser(batch, u);
+        }
+        tree.write(batch);
+    }
+
+    @Override
+    public synchronized void saveUser(User user) {
+        User old = findUser(user.getUserId());
+        user.setVersion((old != null ? old.getVersion() : 0) + 1);
+        storeUser(user, old);
+    }
+
+    @Override
+    public synchronized boolean compareAndSetUser(User user, long expectedVersion) {
+        User old = findUser(user.getUserId());
+        if ((old != null ? old.getVersion() : 0) != expectedVersion) {
+            return false;
+        }
+        user.setVersion(expectedVersion + 1);
+        storeUser(user, old);
+        return true;
+    }
+
+    private void storeUser(User user, User old) {
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        if (old instanceof Admin && !old.getUsername().equals(user.getUsername())) {
+            batch.put(ADMIN + old.getUsername(), LsmSegment.TOMBSTONE);
+        }
+        putUser(batch, user);
+        tree.write(batch);
+    }
+
+    @Override
+    public int generateUserId() {
+        return ids.next("user", () -> {
+            long maxId = 0;
+            for (String k : tree.scan(USER).keySet()) {
+                try {
+                    maxId = Math.max(maxId, Long.parseLong(k.substring(USER.length())));
+                } catch (NumberFormatException e) {
+                    // Skip non-numeric IDs
+                }
+            }
+            return maxId;
+        });
+    }
+
+    @Override
+    public User findUser(String userId) {
+        return decode(tree.get(USER + userId), SnapshotCodec::readUser);
+    }
+
+    @Override
+    public Admin findAdminByUsername(String username) {
+        byte[] userId = tree.get(ADMIN + username);
+        if (userId == null) {
+            return null;
+        }
+        User u = findUser(new String(userId, StandardCharsets.UTF_8));
+        return u instanceof Admin ? (Admin) u : null;
+    }
+
+    private void putUser(Map<String, byte[]> batch, User u) {
+        batch.put(USER + u.getUserId(), encode(u, SnapshotCodec::writeUser));
+        if (u instanceof Admin && u.getUsername() != null) {
+            batch.put(ADMIN + u.getUsername(), u.getUserId().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // ---- courses
+
+    @Override
+    public List<Course> loadCourses() {
+        return coursesIn(tree::scan);
+    }
+
+    private static List<Course> coursesIn(Function<String, SortedMap<String, byte[]>> scan) {
+        List<Course> courses = decodeAll(scan.apply(COURSE), SnapshotCodec::readCourse);
+        Map<String, Quiz> quizzes = new HashMap<>();
+        for (Quiz q : quizzesIn(scan)) {
+            quizzes.putIfAbsent(q.getCourseID() + "#" + q.getLessonID(), q);
+        }
+        for (Course c : courses) {
+            for (Lesson l : c.getLessons()) {
+                attach(l, quizzes.get(c.getCourseID() + "#" + l.getLessonID()));
+            }
+        }
+        return courses;
+    }
+
+    @Override
+    public synchronized void saveCourses(List<Course> courses) {
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        deleteAll(batch, COURSE);
+        for (Course c : courses) {
+            batch.put(COURSE + key(c.getCourseID()), encode(c, SnapshotCodec::writeCourse));
+        }
+        tree.write(batch);
+    }
+
+    @Override
+    public Course getCourseById(int courseId) {
+        Course c = decode(tree.get(COURSE + key(courseId)), SnapshotCodec::readCourse);
+        if (c != null) {
+            for (Lesson l : c.getLessons()) {
+                attach(l, getQuizByCourseAndLessonId(courseId, l.getLessonID()));
+            }
+        }
+        return c;
+    }
+
+    @Override
+    public synchronized void updateCourse(Course updatedCourse) {
+        String key = COURSE + key(updatedCourse.getCourseID());
+        Course old = decode(tree.get(key), SnapshotCodec::readCourse);
+        if (old == null) {
+            System.err.println("Course not found for update: " + updatedCourse.getCourseID());
+            return;
+        }
+        updatedCourse.setVersion(old.getVersion() + 1);
+        tree.put(key, encode(updatedCourse, SnapshotCodec::writeCourse));
+    }
+
+    @Override
+    public synchronized boolean compareAndSetCourse(Course course, long expectedVersion) {
+        String key = COURSE + key(course.getCourseID());
+        Course old = decode(tree.get(key), SnapshotCodec::readCourse);
+        if (old == null || old.getVersion() != expectedVersion) {
+            return false;
+        }
+        course.setVersion(expectedVersion + 1);
+        tree.put(key, encode(course, SnapshotCodec::writeCourse));
+        return true;
+    }
+
+    @Override
+    public int generateCourseId() {
+        return ids.next("course", () -> {
+            SortedMap<String, byte[]> courses = tree.scan(COURSE);
+            return courses.isEmpty() ? 0 : idAt(courses.lastKey());
+        });
+    }
+
+    @Override
+    public int generateLessonId() {
+        return ids.next("lesson", () -> {
+            long maxId = 0;
+            for (Course c : decodeAll(tree.scan(COURSE), SnapshotCodec::readCourse)) {
+                for (Lesson l : c.getLessons()) {
+                    maxId = Math.max(maxId, l.getLessonID());
+                }
+            }
+            return maxId;
+        });
+    }
+
+    private static void attach(Lesson l, Quiz quiz) {
+        if (quiz != null) {
+            l.setQuiz(quiz);
+            l.setQuizRequired(quiz.isRequired());
+        }
+    }
+
+    // ---- quizzes
+
+    @Override
+    public List<Quiz> loadQuizzes() {
+        return quizzesIn(tree::scan);
+    }
+
+    private static List<Quiz> quizzesIn(Function<String, SortedMap<String, byte[]>> scan) {
+        return decodeAll(scan.apply(QUIZ), SnapshotCodec::readQuiz);
+    }
+
+    @Override
+    public synchronized void saveQuizzes(List<Quiz> quizzes) {
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        deleteAll(batch, QUIZ);
+        deleteAll(batch, QUIZ_AT);
+        int maxId = 0;
+        for (Quiz quiz : quizzes) {
+            putQuiz(batch, quiz);
+            maxId = Math.max(maxId, quiz.getQuizId());
+        }
+        batch.put(QUIZ_SEQ, intValue(Math.max(maxId, readInt(QUIZ_SEQ))));
+        tree.write(batch);
+    }
+
+    @Override
+    public synchronized void saveQuiz(Quiz quiz) {
+        Quiz old = getQuizById(quiz.getQuizId());
+        quiz.setVersion((old != null ? old.getVersion() : 0) + 1);
+        storeQuiz(quiz, old);
+    }
+
+    @Override
+    public synchronized boolean compareAndSetQuiz(Quiz quiz, long expectedVersion) {
+        Quiz old = getQuizById(quiz.getQuizId());
+        if ((old != null ? old.getVersion() : 0) != expectedVersion) {
+            return false;
+        }
+        quiz.setVersion(expectedVersion + 1);
+        storeQuiz(quiz, old);
+        return true;
+    }
+
+    private void storeQuiz(Quiz quiz, Quiz old) {
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        if (old != null) {
+            batch.put(quizAtKey(old), LsmSegment.TOMBSTONE);
+        }
+        putQuiz(batch, quiz);
+        if (quiz.getQuizId() > readInt(QUIZ_SEQ)) {
+            batch.put(QUIZ_SEQ, intValue(quiz.getQuizId()));
+        }
+        tree.write(batch);
+    }
+
+    @Override
+    public Quiz getQuizById(int quizId) {
+        return decode(tree.get(QUIZ + key(quizId)), SnapshotCodec::readQuiz);
+    }
+
+    @Override
+    public Quiz getQuizByCourseAndLessonId(int courseId, int lessonId) {
+        for (String k : tree.scan(QUIZ_AT + key(courseId) + "/" + key(lessonId) + "/").keySet()) {
+            Quiz quiz = getQuizById(idAt(k));
+            if (quiz != null) {
+                return quiz;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Quiz> getQuizzesForCourse(int courseID) {
+        List<Quiz> quizzes = new ArrayList<>();
+        for (String k : tree.scan(QUIZ_AT + key(courseID) + "/").keySet()) {
+            Quiz quiz = getQuizById(idAt(k));
+            if (quiz != null) {
+                quizzes.add(quiz);
+            }
+        }
+        quizzes.sort(Comparator.comparingInt(Quiz::getQuizId));
+        return quizzes;
+    }
+
+    @Override
+    public synchronized boolean deleteQuiz(int quizId) {
+        Quiz old = getQuizById(quizId);
+        if (old == null) {
+            return false;
+        }
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        batch.put(QUIZ + key(quizId), LsmSegment.TOMBSTONE);
+        batch.put(quizAtKey(old), LsmSegment.TOMBSTONE);
+        tree.write(batch);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean deleteQuizByLessonId(int lessonID) {
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        for (Quiz q : loadQuizzes()) {
+            if (q.getLessonID() == lessonID) {
+                batch.put(QUIZ + key(q.getQuizId()), LsmSegment.TOMBSTONE);
+                batch.put(quizAtKey(q), LsmSegment.TOMBSTONE);
+            }
+        }
+        tree.write(batch);
+        return !batch.isEmpty();
+    }
+
+    @Override
+    public int generateQuizId() {
+        return ids.next("quiz", () -> readInt(QUIZ_SEQ));
+    }
+
+    private void putQuiz(Map<String, byte[]> batch, Quiz quiz) {
+        batch.put(QUIZ + key(quiz.getQuizId()), encode(quiz, SnapshotCodec::writeQuiz));
+        batch.put(quizAtKey(quiz), new byte[0]);
+    }
+
+    private static String quizAtKey(Quiz quiz) {
+        return QUIZ_AT + key(quiz.getCourseID()) + "/" + key(quiz.getLessonID()) + "/" + key(quiz.getQuizId());
+    }
+
+    // ---- attempts
+
+    @Override
+    public List<QuizAttempt> loadQuizAttempts() {
+        return attemptsIn(tree::scan);
+    }
+
+    private static List<QuizAttempt> attemptsIn(Function<String, SortedMap<String, byte[]>> scan) {
+        List<QuizAttempt> attempts = decodeAll(scan.apply(ATTEMPT), SnapshotCodec::readAttempt);
+        attempts.sort(Comparator.comparingInt(QuizAttempt::getAttemptId));
+        return attempts;
+    }
+
+    @Override
+    public synchronized void saveQuizAttempts(List<QuizAttempt> attempts) {
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        deleteAll(batch, ATTEMPT);
+        int maxId = 0;
+        for (QuizAttempt a : attempts) {
+            batch.put(attemptKey(a), encode(a, SnapshotCodec::writeAttempt));
+            maxId = Math.max(maxId, a.getAttemptId());
+        }
+        batch.put(ATTEMPT_SEQ, intValue(Math.max(maxId, readInt(ATTEMPT_SEQ))));
+        tree.write(batch);
+    }
+
+    @Override
+    public synchronized void addQuizAttempt(QuizAttempt attempt) {
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        batch.put(attemptKey(attempt), encode(attempt, SnapshotCodec::writeAttempt));
+        if (attempt.getAttemptId() > readInt(ATTEMPT_SEQ)) {
+            batch.put(ATTEMPT_SEQ, intValue(attempt.getAttemptId()));
+        }
+        tree.write(batch);
+    }
+
+    @Override
+    public List<QuizAttempt> getStudentQuizAttempts(String studentId, int quizId) {
+        return decodeAll(tree.scan(ATTEMPT + studentId + "/" + key(quizId) + "/"), SnapshotCodec::readAttempt);
+    }
+
+    @Override
+    public int getQuizAttemptCount(String studentId, int quizId) {
+        return tree.scan(ATTEMPT + studentId + "/" + key(quizId) + "/").size();
+    }
+
+    @Override
+    public double getBestQuizScore(String studentId, int quizId) {
+        double best = 0.0;
+        for (QuizAttempt a : getStudentQuizAttempts(studentId, quizId)) {
+            best = Math.max(best, a.getScore());
+        }
+        return best;
+    }
+
+    @Override
+    public boolean hasPassedQuiz(String studentId, int lessonId, int quizId) {
+        for (QuizAttempt a : getStudentQuizAttempts(studentId, quizId)) {
+            if (a.getLessonId() == lessonId && a.isPassed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int generateAttemptId() {
+        return ids.next("attempt", () -> readInt(ATTEMPT_SEQ));
+    }
+
+    private static String attemptKey(QuizAttempt a) {
+        return ATTEMPT + a.getStudentId() + "/" + key(a.getQuizId()) + "/" + key(a.getAttemptId());
+    }
+
+    // ---- certificates
+
+    @Override
+    public List<Certificate> loadCertificates() {
+        return decodeAll(tree.scan(CERTIFICATE), SnapshotCodec::readCertificate);
+    }
+
+    @Override
+    public synchronized void saveCertificates(List<Certificate> certificates) {
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        deleteAll(batch, CERTIFICATE);
+        for (Certificate cert : certificates) {
+            batch.put(CERTIFICATE + key(cert.getCertificateID()), encode(cert, SnapshotCodec::writeCertificate));
+        }
+        tree.write(batch);
+    }
+
+    @Override
+    public synchronized void saveCertificate(Certificate cert) {
+        Certificate old = getCertificateById(cert.getCertificateID());
+        cert.setVersion((old != null ? old.getVersion() : 0) + 1);
+        tree.put(CERTIFICATE + key(cert.getCertificateID()), encode(cert, SnapshotCodec::writeCertificate));
+    }
+
+    @Override
+    public synchronized boolean compareAndSetCertificate(Certificate cert, long expectedVersion) {
+        Certificate old = getCertificateById(cert.getCertificateID());
+        if ((old != null ? old.getVersion() : 0) != expectedVersion) {
+            return false;
+        }
+        cert.setVersion(expectedVersion + 1);
+        tree.put(CERTIFICATE + key(cert.getCertificateID()), encode(cert, SnapshotCodec::writeCertificate));
+        return true;
+    }
+
+    @Override
+    public int generateCertificateId() {
+        return ids.next("certificate", () -> {
+            SortedMap<String, byte[]> certificates = tree.scan(CERTIFICATE);
+            return certificates.isEmpty() ? 0 : idAt(certificates.lastKey());
+        });
+    }
+
+    @Override
+    public Certificate getCertificateById(int certificateId) {
+        return decode(tree.get(CERTIFICATE + key(certificateId)), SnapshotCodec::readCertificate);
+    }
+
+    // ---- transactions
+
+    // Every write is one tree batch, so a cut of the tree is a consistent
+    // state; writers wait only while the cut copies the memtable, not for
+    // the decoding
+    @Override
+    public StoreSnapshot snapshot() {
+        try (LsmTree.Cut cut = tree.cut()) {
+            return new StoreSnapshot(usersIn(cut::scan), coursesIn(cut::scan), quizzesIn(cut::scan),
+                    attemptsIn(cut::scan));
+        }
+    }
+
+    // All checks run before anything is written; the writes go out as one batch
+    @Override
+    public synchronized boolean commit(Transaction tx) {
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        for (Transaction.Op op : tx.ops()) {
+            long version;
+            if (op.kind == Transaction.Kind.USER) {
+                User old = findUser((String) op.key);
+                version = old != null ? old.getVersion() : 0;
+                if (old instanceof Admin && !old.getUsername().equals(((User) op.entity).getUsername())) {
+                    batch.put(ADMIN + old.getUsername(), LsmSegment.TOMBSTONE);
+                }
+            } else if (op.kind == Transaction.Kind.COURSE) {
+                Course old = decode(tree.get(COURSE + key((Integer) op.key)), SnapshotCodec::readCourse);
+                version = old != null ? old.getVersion() : 0;
+            } else {
+                Certificate old = getCertificateById((Integer) op.key);
+                version = old != null ? old.getVersion() : 0;
+            }
+            if (op.expectedVersion != Transaction.ANY_VERSION && op.expectedVersion != version) {
+                tx.revertVersions();
+                return false;
+            }
+
+            if (op.isDelete()) {
+                batch.put(COURSE + key((Integer) op.key), LsmSegment.TOMBSTONE);
+            } else if (op.entity instanceof User) {
+                ((User) op.entity).setVersion(version + 1);
+                putUser(batch, (User) op.entity);
+            } else if (op.entity instanceof Course) {
+                ((Course) op.entity).setVersion(version + 1);
+                batch.put(COURSE + key((Integer) op.key), encode((Course) op.entity, SnapshotCodec::writeCourse));
+            } else {
+                ((Certificate) op.entity).setVersion(version + 1);
+                batch.put(CERTIFICATE + key((Integer) op.key),
+                        encode((Certificate) op.entity, SnapshotCodec::writeCertificate));
+            }
+        }
+        tree.write(batch);
+        return true;
+    }
+
+    // Counter for IdSequences
+    private synchronized long advanceSequence(String name, long floor, int count) {
+        long last = Math.max(readInt(SEQ + name), floor) + count;
+        tree.put(SEQ + name, intValue(Math.toIntExact(last)));
+        return last;
+    }
+
+    // ---- encoding
+
+    // Fixed-width and order-preserving, negatives included
+    private static String key(int id) {
+        return String.format("%08x", id ^ Integer.MIN_VALUE);
+    }
+
+    // The id in the last part of an index key
+    private static int idAt(String key) {
+        return (int) Long.parseLong(key.substring(key.lastIndexOf('/') + 1), 16) ^ Integer.MIN_VALUE;
+    }
+
+    private void deleteAll(Map<String, byte[]> batch, String prefix) {
+        for (String k : tree.scan(prefix).keySet()) {
+            batch.put(k, LsmSegment.TOMBSTONE);
+        }
+    }
+
+    private int readInt(String key) {
+        byte[] value = tree.get(key);
+        return value != null ? ByteBuffer.wrap(value).getInt() : 0;
+    }
+
+    private static byte[] intValue(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    private static <T> byte[] encode(T entity, BinarySnapshot.Encoder<T> encoder) {
+        BinarySnapshot.Out out = new BinarySnapshot.Out();
+        encoder.write(out, entity);
+        return out.toByteArray();
+    }
+
+    private static <T> T decode(byte[] value, BinarySnapshot.Decoder<T> decoder) {
+        return value != null ? decoder.read(new BinarySnapshot.In(ByteBuffer.wrap(value))) : null;
+    }
+
+    private static <T> List<T> decodeAll(SortedMap<String, byte[]> records, BinarySnapshot.Decoder<T> decoder) {
+        List<T> entities = new ArrayList<>(records.size());
+        for (byte[] value : records.values()) {
+            entities.add(decode(value, decoder));
+        }
+        return entities;
+    }
+}
@@ -0,0 +1,379 @@
+package database;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// An immutable sorted run of key/value records on disk (see LsmTree).
+// Layout: the records in key order ([keyLen][key][valueLen or -1][value]),
+// a sparse index holding the key and offset of every INDEX_INTERVAL-th
+// record, a Bloom filter over all keys, and a fixed-size footer pointing at
+// both. Index and filter are kept in memory, so a lookup costs at most one
+// block read and a miss usually none.
+//
+// Readers retain() a segment for as long as they read it; the tree holds
+// one reference while the segment is live. Once a compaction has replaced
+// it and the last reader releases it, the file is closed and deleted.
+final class LsmSegment {
+
+    static final byte[] TOMBSTONE = new byte[0];
+
+    private static final int INDEX_INTERVAL = 16;
+    private static final int FOOTER_SIZE = 8 + 8 + 8 + 4;
+    private static final int MAGIC = 0x4C534D31; // "LSM1"
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+
+    private final File file;
+    private final FileChannel channel;
+    private final String[] indexKeys;
+    private final long[] indexOffsets;
+    private final long dataEnd;
+    private final long[] bloom;
+    private final long recordCount;
+    private final long size;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private LsmSegment(File file, FileChannel channel, String[] indexKeys, long[] indexOffsets,
+                       long dataEnd, long[] bloom, long recordCount, long size) {
+        this.file = file;
+        this.channel = channel;
+        this.indexKeys = indexKeys;
+        this.indexOffsets = indexOffsets;
+        this.dataEnd = dataEnd;
+        this.bloom = bloom;
+        this.recordCount = recordCount;
+        this.size = size;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getRecordCount() {
+        return recordCount;
+    }
+
+    // File size in bytes
+    long getSize() {
+        return size;
+    }
+
+    // false once the segment is closed; then read the tree's current list again
+    boolean retain() {
+        for (int n = refs.get(); n > 0; n = refs.get()) {
+            if (refs.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void release() {
+        if (refs.decrementAndGet() == 0) {
+            delete();
+        }
+    }
+
+    // Writes records (sorted by key, TOMBSTONE for deletes) to a new segment
+    // file. It ends after the record that takes its data past maxBytes; the
+    // rest stays in records for the next segment.
+    static LsmSegment write(File target, Iterator<Map.Entry<String, byte[]>> records, long maxBytes)
+            throws IOException {
+        File tmp = new File(target.getPath() + ".tmp");
+        List<String> indexKeys = new ArrayList<>();
+        List<Long> indexOffsets = new ArrayList<>();
+        int[] hashes = new int[1024]; // of the keys, for the Bloom filter sized at the end
+        int count = 0;
+        long written = 0; // counted here: DataOutputStream.size() is an int
+
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            while (written < maxBytes && records.hasNext()) {
+                Map.Entry<String, byte[]> record = records.next();
+                byte[] key = record.getKey().getBytes(StandardCharsets.UTF_8);
+                if (count % INDEX_INTERVAL == 0) {
+                    indexKeys.add(record.getKey());
+                    indexOffsets.add(written);
+                }
+                if (count == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, count * 2);
+                }
+                hashes[count] = record.getKey().hashCode();
+                out.writeInt(key.length);
+                out.write(key);
+                written += 4 + key.length + 4;
+                byte[] value = record.getValue();
+                if (value == TOMBSTONE) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(value.length);
+                    out.write(value);
+                    written += value.length;
+                }
+                count++;
+            }
+
+            long indexOffset = written;
+            out.writeInt(indexKeys.size());
+            written += 4;
+            for (int i = 0; i < indexKeys.size(); i++) {
+                byte[] key = indexKeys.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeLong(indexOffsets.get(i));
+                written += 4 + key.length + 8;
+            }
+            long bloomOffset = written;
+            long[] bloom = new long[Math.max(1, (int) ((Math.max(count, 1) * (long) BITS_PER_KEY + 63) / 64))];
+            for (int i = 0; i < count; i++) {
+                addToBloom(bloom, hashes[i]);
+            }
+            out.writeInt(bloom.length);
+            for (long word : bloom) {
+                out.writeLong(word);
+            }
+            out.writeLong(indexOffset);
+            out.writeLong(bloomOffset);
+            out.writeLong(count);
+            out.writeInt(MAGIC);
+            out.flush();
+            fos.getFD().sync();
+        }
+
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Cannot rename " + tmp + " to " + target);
+        }
+        return open(target);
+    }
+
+    static LsmSegment open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < FOOTER_SIZE) {
+                throw new IOException("Truncated segment " + file);
+            }
+            ByteBuffer footer = read(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            long bloomOffset = footer.getLong();
+            long count = footer.getLong();
+            if (footer.getInt() != MAGIC) {
+                throw new IOException("Not a segment file: " + file);
+            }
+
+            ByteBuffer index = read(channel, indexOffset, (int) (bloomOffset - indexOffset));
+            int entries = index.getInt();
+            String[] keys = new String[entries];
+            long[] offsets = new long[entries];
+            for (int i = 0; i < entries; i++) {
+                keys[i] = readKey(index);
+                offsets[i] = index.getLong();
+            }
+
+            ByteBuffer filter = read(channel, bloomOffset, (int) (size - FOOTER_SIZE - bloomOffset));
+            long[] bloom = new long[filter.getInt()];
+            for (int i = 0; i < bloom.length; i++) {
+                bloom[i] = filter.getLong();
+            }
+            return new LsmSegment(file, channel, keys, offsets, indexOffset, bloom, count, size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // The stored value, TOMBSTONE if the key was deleted here, null if absent
+    byte[] get(String key) throws IOException {
+        if (!mightContain(bloom, key)) {
+            return null;
+        }
+        int block = floorBlock(key);
+        if (block < 0) {
+            return null;
+        }
+        ByteBuffer buf = readBlock(block);
+        while (buf.hasRemaining()) {
+            String k = readKey(buf);
+            int cmp = k.compareTo(key);
+            if (cmp == 0) {
+                return readValue(buf);
+            } else if (cmp > 0) {
+                return null;
+            }
+            skipValue(buf);
+        }
+        return null;
+    }
+
+    // Records whose key starts with prefix, in key order
+    Iterator<Map.Entry<String, byte[]>> scan(String prefix) {
+        int block = Math.max(0, floorBlock(prefix));
+        return new RecordIterator(block, prefix);
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    void delete() {
+        close();
+        file.delete();
+    }
+
+    private int floorBlock(String key) {
+        int lo = 0, hi = indexKeys.length - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (indexKeys[mid].compareTo(key) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private ByteBuffer readBlock(int block) throws IOException {
+        long start = indexOffsets[block];
+        long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+        return read(channel, start, (int) (end - start));
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static String readKey(ByteBuffer buf) {
+        int length = buf.getInt();
+        String key = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return key;
+    }
+
+    private static byte[] readValue(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) {
+            return TOMBSTONE;
+        }
+        byte[] value = new byte[length];
+        buf.get(value);
+        return value;
+    }
+
+    private static void skipValue(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length > 0) {
+            buf.position(buf.position() + length);
+        }
+    }
+
+    // Walks the data blocks from a starting block, one block in memory at a time
+    private final class RecordIterator implements Iterator<Map.Entry<String, byte[]>> {
+        private final String prefix;
+        private int block;
+        private ByteBuffer buf;
+        private Map.Entry<String, byte[]> next;
+        private boolean done;
+
+        RecordIterator(int block, String prefix) {
+            this.block = block;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !done) {
+                try {
+                    if (buf == null || !buf.hasRemaining()) {
+                        if (block >= indexOffsets.length) {
+                            done = true;
+                            break;
+                        }
+                        buf = readBlock(block++);
+                        continue;
+                    }
+                } catch (IOException e) {
+                    throw new LsmTree.StorageException("Error reading " + file, e);
+                }
+                String key = readKey(buf);
+                if (key.compareTo(prefix) < 0) {
+                    skipValue(buf);
+                } else if (key.startsWith(prefix)) {
+                    next = Map.entry(key, readValue(buf));
+                } else {
+                    done = true;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, byte[]> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, byte[]> record = next;
+            next = null;
+            return record;
+        }
+    }
+
+    private static void addToBloom(long[] bloom, int h1) {
+        long bits = bloom.length * 64L;
+        int h2 = mix(h1);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bits);
+            bloom[(int) (bit >>> 6)] |= 1L << (bit & 63);
+        }
+    }
+
+    private static boolean mightContain(long[] bloom, String key) {
+        long bits = bloom.length * 64L;
+        int h1 = key.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bits);
+            if ((bloom[(int) (bit >>> 6)] & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Second, independent hash for double hashing (murmur3 finalizer)
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+}
@@ -0,0 +1,609 @@
+package database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// A log-structured key/value store over one directory:
+//   wal-<n>.log    write-ahead log of the current memtable, one CRC'd
+//                  batch per write, fsynced before the write returns
+//   seg-<n>.sst    immutable sorted segments (see LsmSegment)
+//   MANIFEST       live segment names, oldest first
+// Writes go to the WAL and an in-memory sorted memtable. A full memtable is
+// frozen, a new WAL started and the frozen table written out as a segment
+// by a background thread. Another one compacts by size tier: COMPACT_AT or
+// more adjacent segments of about the same size are merged into one of the
+// next tier, so a record is rewritten once per tier, not on every merge.
+// Merged output is split at MAX_SEGMENT_BYTES, and segments too big to
+// merge COMPACT_AT of under that cap are left alone. Reads check the
+// memtable, the frozen memtable, then segments newest first. Keys are
+// compared as Strings; scans are by prefix.
+class LsmTree {
+
+    private static final long MEMTABLE_LIMIT = 4L << 20;
+    private static final int COMPACT_AT = 4;
+    private static final long MAX_SEGMENT_BYTES = 256L << 20;
+    // tries at writing out a frozen memtable, one second apart and doubling
+    private static final int FLUSH_ATTEMPTS = 5;
+    private static final String MANIFEST = "MANIFEST";
+
+    static final class StorageException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StorageException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private final File dir;
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "lsm-flush");
+        t.setDaemon(true);
+        return t;
+    });
+    // separate so a long merge never holds up a memtable flush
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "lsm-compaction");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile ConcurrentSkipListMap<String, byte[]> memtable = new ConcurrentSkipListMap<>();
+    private volatile ConcurrentSkipListMap<String, byte[]> frozen;
+    // last failure writing out frozen; writes are refused until it is written
+    private volatile IOException flushError;
+    private volatile List<LsmSegment> segments = new ArrayList<>(); // oldest first, replaced on change
+    private long memtableBytes;
+    private long walNumber;
+    private long nextFileNumber;
+    private FileChannel wal;
+
+    LsmTree(File dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir.toPath());
+
+        long maxNumber = 0;
+        List<Long> wals = new ArrayList<>();
+        File[] files = dir.listFiles();
+        for (File f : files != null ? files : new File[0]) {
+            long n = fileNumber(f.getName());
+            maxNumber = Math.max(maxNumber, n);
+            if (f.getName().startsWith("wal-")) {
+                wals.add(n);
+            }
+        }
+        nextFileNumber = maxNumber + 1;
+
+        File manifest = new File(dir, MANIFEST);
+        Set<String> live = new HashSet<>();
+        if (manifest.exists()) {
+            List<LsmSegment> opened = new ArrayList<>();
+            for (String name : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+                if (!name.isBlank()) {
+                    opened.add(LsmSegment.open(new File(dir, name.trim())));
+                    live.add(name.trim());
+                }
+            }
+            segments = opened;
+        }
+        // leftovers of an interrupted flush or compaction
+        for (File f : files != null ? files : new File[0]) {
+            if ((f.getName().startsWith("seg-") && !live.contains(f.getName())) || f.getName().endsWith(".tmp")) {
+                f.delete();
+            }
+        }
+
+        Collections.sort(wals);
+        for (long n : wals) {
+            replay(walFile(n));
+        }
+        openWal(nextFileNumber++);
+        if (!memtable.isEmpty()) {
+            // recovered writes go straight to a segment so the old logs can go
+            freezeMemtable();
+            flushFrozen();
+        }
+        for (long n : wals) {
+            walFile(n).delete();
+        }
+    }
+
+    byte[] get(String key) {
+        byte[] value = memtable.get(key);
+        if (value == null) {
+            ConcurrentSkipListMap<String, byte[]> f = frozen;
+            value = f != null ? f.get(key) : null;
+        }
+        if (value == null) {
+            List<LsmSegment> current = retainSegments();
+            try {
+                for (int i = current.size() - 1; i >= 0 && value == null; i--) {
+                    value = current.get(i).get(key);
+                }
+            } catch (IOException e) {
+                throw new StorageException("Error reading " + key, e);
+            } finally {
+                release(current);
+            }
+        }
+        return value == LsmSegment.TOMBSTONE ? null : value;
+    }
+
+    // Live keys starting with prefix and their values, in key order
+    SortedMap<String, byte[]> scan(String prefix) {
+        // taken in the order a flush moves data, so nothing falls in between
+        ConcurrentSkipListMap<String, byte[]> m = memtable;
+        ConcurrentSkipListMap<String, byte[]> f = frozen;
+        List<LsmSegment> current = retainSegments();
+        try {
+            return scan(prefix, m, f, current);
+        } finally {
+            release(current);
+        }
+    }
+
+    // The tree as it is between two writes, for several scans that must
+    // see the same state while writes go on. Only the memtable is copied
+    // (at most MEMTABLE_LIMIT); the frozen table and the segments never
+    // change. The segments stay open until the cut is closed.
+    synchronized Cut cut() {
+        return new Cut(memtable.clone(), frozen, retainSegments());
+    }
+
+    static final class Cut implements AutoCloseable {
+        private final ConcurrentSkipListMap<String, byte[]> memtable;
+        private final ConcurrentSkipListMap<String, byte[]> frozen;
+        private final List<LsmSegment> segments;
+        private boolean closed;
+
+        private Cut(ConcurrentSkipListMap<String, byte[]> memtable, ConcurrentSkipListMap<String, byte[]> frozen,
+                    List<LsmSegment> segments) {
+            this.memtable = memtable;
+            this.frozen = frozen;
+            this.segments = segments;
+        }
+
+        SortedMap<String, byte[]> scan(String prefix) {
+            if (closed) {
+                throw new IllegalStateException("Cut of the LSM tree is closed");
+            }
+            return LsmTree.scan(prefix, memtable, frozen, segments);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(segments);
+            }
+        }
+    }
+
+    // The live segments, each retained; release them when done reading
+    private List<LsmSegment> retainSegments() {
+        while (true) {
+            List<LsmSegment> current = segments;
+            int retained = 0;
+            while (retained < current.size() && current.get(retained).retain()) {
+                retained++;
+            }
+            if (retained == current.size()) {
+                return current;
+            }
+            // a compaction replaced the list and a segment in it is gone
+            release(current.subList(0, retained));
+        }
+    }
+
+    private static void release(List<LsmSegment> held) {
+        for (LsmSegment segment : held) {
+            segment.release();
+        }
+    }
+
+    private static SortedMap<String, byte[]> scan(String prefix, ConcurrentSkipListMap<String, byte[]> m,
+                                                  ConcurrentSkipListMap<String, byte[]> f, List<LsmSegment> current) {
+        // oldest source first so newer versions overwrite older ones
+        TreeMap<String, byte[]> result = new TreeMap<>();
+        for (LsmSegment segment : current) {
+            segment.scan(prefix).forEachRemaining(e -> result.put(e.getKey(), e.getValue()));
+        }
+        if (f != null) {
+            result.putAll(prefixOf(f, prefix));
+        }
+        result.putAll(prefixOf(m, prefix));
+        result.values().removeIf(v -> v == LsmSegment.TOMBSTONE);
+        return result;
+    }
+
+    void put(String key, byte[] value) {
+        write(Collections.singletonMap(key, value));
+    }
+
+    void delete(String key) {
+        write(Collections.singletonMap(key, LsmSegment.TOMBSTONE));
+    }
+
+    // Applies all puts (null or TOMBSTONE = delete) atomically: one WAL record
+    synchronized void write(Map<String, byte[]> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        IOException error = flushError;
+        if (error != null) {
+            throw new StorageException("Memtable of " + dir + " could not be written out", error);
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(batch.size());
+            long size = 0;
+            for (Map.Entry<String, byte[]> e : batch.entrySet()) {
+                byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] value = e.getValue();
+                out.writeInt(key.length);
+                out.write(key);
+                if (value == null || value == LsmSegment.TOMBSTONE) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(value.length);
+                    out.write(value);
+                    size += value.length;
+                }
+                size += key.length + 32;
+            }
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+            record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+            while (record.hasRemaining()) {
+                wal.write(record);
+            }
+            wal.force(false);
+
+            for (Map.Entry<String, byte[]> e : batch.entrySet()) {
+                memtable.put(e.getKey(), e.getValue() != null ? e.getValue() : LsmSegment.TOMBSTONE);
+            }
+            memtableBytes += size;
+            if (memtableBytes >= MEMTABLE_LIMIT) {
+                rotate();
+            }
+        } catch (IOException e) {
+            throw new StorageException("Error writing to " + dir, e);
+        }
+    }
+
+    synchronized void close() {
+        flusher.shutdown();
+        compactor.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+            wal.close();
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+        for (LsmSegment segment : segments) {
+            segment.close();
+        }
+    }
+
+    // ---- memtable flush
+
+    private void rotate() throws IOException {
+        // a frozen table still being written out: wait (only under heavy write load)
+        while (frozen != null) {
+            if (flushError != null) {
+                // this write is in the WAL; the memtable grows until the retry succeeds
+                return;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for a memtable flush", e);
+            }
+        }
+        long oldWal = walNumber;
+        freezeMemtable();
+        wal.close();
+        openWal(nextFileNumber++);
+        flusher.execute(() -> flushInBackground(oldWal));
+    }
+
+    // Retries a failed flush; frozen stays readable meanwhile. After the
+    // last try the WAL is kept and replayed on the next start.
+    private void flushInBackground(long oldWal) {
+        for (int attempt = 1; ; attempt++) {
+            IOException failure = null;
+            boolean written = false;
+            try {
+                flushFrozen();
+                written = true;
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException(e);
+            } finally {
+                if (!written) {
+                    synchronized (this) {
+                        // a writer waiting in rotate() must not wait for this one
+                        flushError = failure != null ? failure : new IOException("Memtable flush stopped");
+                        notifyAll();
+                    }
+                }
+            }
+            if (written) {
+                walFile(oldWal).delete();
+                compactor.execute(this::compact);
+                return;
+            }
+            System.err.println("Error flushing memtable to " + dir + " (attempt " + attempt + "): "
+                    + failure.getMessage());
+            if (attempt == FLUSH_ATTEMPTS) {
+                return;
+            }
+            try {
+                Thread.sleep(1000L << (attempt - 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void freezeMemtable() {
+        frozen = memtable;
+        memtable = new ConcurrentSkipListMap<>();
+        memtableBytes = 0;
+    }
+
+    private void flushFrozen() throws IOException {
+        ConcurrentSkipListMap<String, byte[]> table = frozen;
+        LsmSegment segment = LsmSegment.write(newSegmentFile(), table.entrySet().iterator(), Long.MAX_VALUE);
+        synchronized (this) {
+            List<LsmSegment> next = new ArrayList<>(segments);
+            next.add(segment);
+            writeManifest(next);
+            segments = next;
+            frozen = null;
+            flushError = null;
+            notifyAll();
+        }
+    }
+
+    // ---- compaction
+
+    private void compact() {
+        while (true) {
+            int from;
+            List<LsmSegment> inputs;
+            synchronized (this) {
+                int[] run = pickRun(segments);
+                if (run == null) {
+                    return;
+                }
+                from = run[0];
+                inputs = new ArrayList<>(segments.subList(run[0], run[1]));
+            }
+            // the tree's references keep the inputs open: only this thread replaces them
+            List<LsmSegment> outputs = new ArrayList<>();
+            try {
+                List<Iterator<Map.Entry<String, byte[]>>> sources = new ArrayList<>();
+                for (LsmSegment segment : inputs) {
+                    sources.add(segment.scan(""));
+                }
+                // nothing older can hold a deleted key when the run starts at the oldest segment
+                MergingIterator merged = new MergingIterator(sources, from == 0);
+                while (merged.hasNext()) {
+                    outputs.add(LsmSegment.write(newSegmentFile(), merged, MAX_SEGMENT_BYTES));
+                }
+
+                synchronized (this) {
+                    // flushes only append, so the run is still at from
+                    List<LsmSegment> next = new ArrayList<>(segments.subList(0, from));
+                    next.addAll(outputs);
+                    next.addAll(segments.subList(from + inputs.size(), segments.size()));
+                    writeManifest(next);
+                    segments = next;
+                }
+            } catch (IOException | StorageException e) {
+                // the inputs stay live; the next flush tries again
+                outputs.forEach(LsmSegment::delete);
+                System.err.println("Error compacting " + dir + ": " + e.getMessage());
+                return;
+            }
+            // deleted once the last reader is done with them
+            release(inputs);
+        }
+    }
+
+    // The oldest run of COMPACT_AT or more adjacent segments of one tier, as
+    // {from, to}; null if there is none
+    private static int[] pickRun(List<LsmSegment> list) {
+        int from = 0;
+        for (int i = 1; i <= list.size(); i++) {
+            if (i == list.size() || tier(list.get(i)) != tier(list.get(from))) {
+                if (tier(list.get(from)) >= 0 && i - from >= COMPACT_AT) {
+                    return new int[] {from, i};
+                }
+                from = i;
+            }
+        }
+        return null;
+    }
+
+    // 0 below MEMTABLE_LIMIT and one more per COMPACT_AT times that; -1 when
+    // COMPACT_AT such segments would not fit in one under MAX_SEGMENT_BYTES
+    private static int tier(LsmSegment segment) {
+        long size = segment.getSize();
+        if (size * COMPACT_AT > MAX_SEGMENT_BYTES) {
+            return -1;
+        }
+        int tier = 0;
+        for (long limit = MEMTABLE_LIMIT; size >= limit; limit *= COMPACT_AT) {
+            tier++;
+        }
+        return tier;
+    }
+
+    // K-way merge of sorted sources (oldest first): newest version wins;
+    // deletes are dropped or kept as tombstones
+    private static final class MergingIterator implements Iterator<Map.Entry<String, byte[]>> {
+        private final List<Iterator<Map.Entry<String, byte[]>>> sources;
+        private final boolean dropDeletes;
+        private final PriorityQueue<Object[]> heads; // {entry, source index}
+        private Map.Entry<String, byte[]> next;
+
+        MergingIterator(List<Iterator<Map.Entry<String, byte[]>>> sources, boolean dropDeletes) {
+            this.sources = sources;
+            this.dropDeletes = dropDeletes;
+            this.heads = new PriorityQueue<>((a, b) -> {
+                int cmp = key(a).compareTo(key(b));
+                // same key: the newer source (higher index) first
+                return cmp != 0 ? cmp : Integer.compare((Integer) b[1], (Integer) a[1]);
+            });
+            for (int i = 0; i < sources.size(); i++) {
+                advance(i);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static String key(Object[] head) {
+            return ((Map.Entry<String, byte[]>) head[0]).getKey();
+        }
+
+        private void advance(int source) {
+            if (sources.get(source).hasNext()) {
+                heads.add(new Object[] {sources.get(source).next(), source});
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean hasNext() {
+            while (next == null && !heads.isEmpty()) {
+                Object[] head = heads.poll();
+                Map.Entry<String, byte[]> newest = (Map.Entry<String, byte[]>) head[0];
+                advance((Integer) head[1]);
+                while (!heads.isEmpty() && key(heads.peek()).equals(newest.getKey())) {
+                    advance((Integer) heads.poll()[1]);
+                }
+                if (!dropDeletes || newest.getValue() != LsmSegment.TOMBSTONE) {
+                    next = newest;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, byte[]> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, byte[]> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+
+    // ---- files
+
+    private void openWal(long number) throws IOException {
+        walNumber = number;
+        wal = FileChannel.open(walFile(number).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Loads a WAL into the memtable; a torn or corrupt tail ends the log
+    private void replay(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte[] payload;
+                int checksum;
+                try {
+                    int length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 0 || length > (64 << 20)) {
+                        return;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    return;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    System.err.println("Ignoring corrupt tail of " + file);
+                    return;
+                }
+                ByteBuffer buf = ByteBuffer.wrap(payload);
+                int count = buf.getInt();
+                for (int i = 0; i < count; i++) {
+                    byte[] key = new byte[buf.getInt()];
+                    buf.get(key);
+                    int length = buf.getInt();
+                    byte[] value = LsmSegment.TOMBSTONE;
+                    if (length >= 0) {
+                        value = new byte[length];
+                        buf.get(value);
+                    }
+                    memtable.put(new String(key, StandardCharsets.UTF_8), value);
+                }
+            }
+        }
+    }
+
+    private void writeManifest(List<LsmSegment> live) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (LsmSegment segment : live) {
+            sb.append(segment.getFile().getName()).append('\n');
+        }
+        AtomicFileWriter.write(new File(dir, MANIFEST), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private synchronized File newSegmentFile() {
+        return new File(dir, String.format("seg-%08d.sst", nextFileNumber++));
+    }
+
+    private File walFile(long number) {
+        return new File(dir, String.format("wal-%08d.log", number));
+    }
+
+    private static long fileNumber(String name) {
+        if ((name.startsWith("wal-") || name.startsWith("seg-")) && name.length() >= 12) {
+            try {
+                return Long.parseLong(name.substring(4, 12));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    private static SortedMap<String, byte[]> prefixOf(ConcurrentSkipListMap<String, byte[]> map, String prefix) {
+        if (prefix.isEmpty()) {
+            return map;
+        }
+        // every key with the prefix sorts below prefix + '\uffff'
+        return map.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+}
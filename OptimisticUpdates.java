@@ -0,0 +1,76 @@
+package service;
+
+import database.DataStore;
+import database.Transaction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import model.Course;
+import model.Student;
+import model.User;
+
+// Read-modify-write without holding a lock across the services: the change
+// is applied to a copy of the stored entity and written with a
+// compare-and-set on the version it was read at. A concurrent writer makes
+// the set fail, and the change is re-applied to the fresh record.
+final class OptimisticUpdates {
+
+    static final int MAX_ATTEMPTS = 10;
+
+    private OptimisticUpdates() {
+    }
+
+    // change returns false when there is nothing to save; the result is
+    // false too when the course is missing or every attempt conflicted
+    static boolean updateCourse(DataStore db, int courseId, Predicate<Course> change) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Course current = db.getCourseById(courseId);
+            if (current == null) {
+                return false;
+            }
+            Course updated = current.copy();
+            if (!change.test(updated)) {
+                return false;
+            }
+            if (db.compareAndSetCourse(updated, current.getVersion())) {
+                return true;
+            }
+        }
+        System.err.println("Course " + courseId + " kept changing, update abandoned");
+        return false;
+    }
+
+    static boolean updateStudent(DataStore db, String studentId, Predicate<Student> change) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            User current = db.findUser(studentId);
+            if (!(current instanceof Student)) {
+                return false;
+            }
+            Student updated = ((Student) current).copy();
+            if (!change.test(updated)) {
+                return false;
+            }
+            if (db.compareAndSetUser(updated, current.getVersion())) {
+                return true;
+            }
+        }
+        System.err.println("Student " + studentId + " kept changing, update abandoned");
+        return false;
+    }
+
+    // Changes that span records go through one transaction. build reads the
+    // records afresh and pins the versions it read; it returns null when
+    // there is nothing (left) to do
+    static boolean commit(DataStore db, String what, Supplier<Transaction> build) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Transaction tx = build.get();
+            if (tx == null) {
+                return false;
+            }
+            if (db.commit(tx)) {
+                return true;
+            }
+        }
+        System.err.println(what + " kept conflicting, abandoned");
+        return false;
+    }
+}
@@ -11,6 +11,7 @@ public class Quiz {
     private boolean required;
     private int courseID;
     private int lessonID;
+    private long version = 1; // bumped on every save; 0 stands for a record not stored yet
 
 // Keep a constructor that accepts an explicit quizID (used by DB when IDs are generated externally)
     public Quiz(int quizID) {
@@ -82,6 +83,26 @@ public class Quiz {
         this.required = required;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    // An independent copy; the questions are shared
+    public Quiz copy() {
+        Quiz q = new Quiz(quizID);
+        q.questions = new ArrayList<>(questions);
+        q.passingScore = passingScore;
+        q.required = required;
+        q.courseID = courseID;
+        q.lessonID = lessonID;
+        q.version = version;
+        return q;
+    }
+
     public void addQuestion(Question question) {
         this.questions.add(question);
     }
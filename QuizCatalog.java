@@ -0,0 +1,36 @@
+package database;
+
+import model.Quiz;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Quizzes indexed by (courseId, lessonId) and by courseId. Where a lesson
+// has more than one quiz stored, the first one in file order is the lesson's
+// quiz, as it was for the linear scans this replaces.
+class QuizCatalog implements EntityCache.View<Quiz> {
+
+    private final Map<Long, Quiz> byLesson = new HashMap<>();
+    private final Map<Integer, List<Quiz>> byCourse = new HashMap<>();
+
+    @Override
+    public void add(Quiz quiz) {
+        byLesson.putIfAbsent(key(quiz.getCourseID(), quiz.getLessonID()), quiz);
+        byCourse.computeIfAbsent(quiz.getCourseID(), k -> new ArrayList<>()).add(quiz);
+    }
+
+    Quiz getQuiz(int courseId, int lessonId) {
+        return byLesson.get(key(courseId, lessonId));
+    }
+
+    List<Quiz> getQuizzesForCourse(int courseId) {
+        List<Quiz> quizzes = byCourse.get(courseId);
+        return quizzes == null ? new ArrayList<>() : new ArrayList<>(quizzes);
+    }
+
+    private static long key(int courseId, int lessonId) {
+        return ((long) courseId << 32) | (lessonId & 0xffffffffL);
+    }
+}
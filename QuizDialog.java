@@ -318,7 +318,7 @@ public class QuizDialog extends javax.swing.JDialog {
 
         java.awt.EventQueue.invokeLater(() -> {
             // Create mock data for testing
-            database.JsonDatabaseManager db = database.JsonDatabaseManager.getInstance();
+            database.DataStore db = database.DataStores.getDefault();
             service.StudentService service = new service.StudentService(db);
             
             Student testStudent = new Student("1", "TestStudent", "test@test.com", "hash");
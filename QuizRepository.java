@@ -0,0 +1,36 @@
+package database;
+
+import java.util.List;
+import model.Quiz;
+
+// Storage of lesson quizzes and their questions
+public interface QuizRepository {
+
+    List<Quiz> loadQuizzes();
+
+    // Replaces the whole quiz collection
+    void saveQuizzes(List<Quiz> quizzes);
+
+    // Adds the quiz or replaces the one with the same id
+    void saveQuiz(Quiz quiz);
+
+    // saveQuiz if the stored quiz still has expectedVersion (0: not stored yet)
+    boolean compareAndSetQuiz(Quiz quiz, long expectedVersion);
+
+    Quiz getQuizById(int quizId);
+
+    Quiz getQuizByCourseAndLessonId(int courseId, int lessonId);
+
+    List<Quiz> getQuizzesForCourse(int courseID);
+
+    boolean deleteQuiz(int quizId);
+
+    boolean deleteQuizByLessonId(int lessonID);
+
+    // A new id that was never handed out before, also across processes
+    int generateQuizId();
+
+    default boolean hasQuiz(int courseId, int lessonId) {
+        return getQuizByCourseAndLessonId(courseId, lessonId) != null;
+    }
+}
@@ -3,30 +3,38 @@
 // ============================================================
 package service;
 
-import database.JsonDatabaseManager;
+import database.DataStore;
+import database.DataStores;
 import model.*;
 
 
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.ArrayList;
 
 public class QuizService {
 
-    private JsonDatabaseManager db;
+    private DataStore db;
 
     public QuizService() {
-        this.db = new JsonDatabaseManager();
+        this.db = DataStores.getDefault();
     }
 
-    public QuizService(JsonDatabaseManager db) {
+    public QuizService(DataStore db) {
         this.db = db;
     }
 
-    // Submit a quiz and save the attempt
+    // Submit a quiz and save the attempt; one submission at a time per
+    // student and course
     public QuizAttempt submitQuiz(String studentId, int courseId, int lessonId, 
                                    Quiz quiz, List<String> studentAnswers) {
-        
+        return StripedLocks.PROGRESS.withLock(studentId, String.valueOf(courseId),
+                () -> submitQuizLocked(studentId, courseId, lessonId, quiz, studentAnswers));
+    }
+
+    private QuizAttempt submitQuizLocked(String studentId, int courseId, int lessonId,
+                                         Quiz quiz, List<String> studentAnswers) {
         // Calculate score using the quiz's evaluate method
         double score = quiz.evaluate(studentAnswers);
         boolean passed = score >= quiz.getPassingScore();
@@ -41,7 +49,7 @@ public class QuizService {
             studentAnswers,
             score,
             passed,
-            Instant.now()
+            Instant.now().truncatedTo(ChronoUnit.MILLIS) // stored as epoch millis
         );
 
         // Save to database
@@ -96,25 +104,16 @@ public class QuizService {
 
     // Get the best score for a student on a quiz
     public double getBestScore(String studentId, int quizId) {
-        List<QuizAttempt> attempts = db.getStudentQuizAttempts(studentId, quizId);
-        double best = 0.0;
-
-        for (QuizAttempt a : attempts) {
-            if (a.getScore() > best) {
-                best = a.getScore();
-            }
-        }
-
-        return best;
+        return db.getBestQuizScore(studentId, quizId);
     }
 
     // Get number of attempts for a student on a quiz
     public int getAttemptCount(String studentId, int quizId) {
-        return db.getStudentQuizAttempts(studentId, quizId).size();
+        return db.getQuizAttemptCount(studentId, quizId);
     }
 
     // Check if student has passed a specific quiz
     public boolean hasPassed(String studentId, int lessonId, int quizId) {
         return db.hasPassedQuiz(studentId, lessonId, quizId);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,176 @@
+package database;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Append-only log of one-line records split into numbered segment files
+// (<prefix>-000001.jsonl, ...). Only the highest-numbered segment is ever
+// appended to; once it grows past SEGMENT_SIZE a new one is started.
+// Closed segments are merged into one by a background compaction so the
+// number of files stays small. Records are never rewritten in place.
+class SegmentedLog {
+
+    private static final long SEGMENT_SIZE = 4L * 1024 * 1024;
+    private static final int COMPACT_THRESHOLD = 8;
+    private static final long COMPACT_INTERVAL_MINUTES = 10;
+
+    private static final ScheduledExecutorService compactor =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "segmented-log-compactor");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private final File dir;
+    private final String prefix;
+    private boolean compacting;
+
+    SegmentedLog(String dir, String prefix) {
+        this.dir = new File(dir);
+        this.prefix = prefix;
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded,
+                COMPACT_INTERVAL_MINUTES, COMPACT_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    boolean exists() {
+        return segments().length > 0;
+    }
+
+    // Segment files in log order
+    File[] segments() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(prefix + "-") && name.endsWith(".jsonl"));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    synchronized void append(String record) {
+        File[] segments = segments();
+        File active = segments.length == 0 ? segmentFile(1) : segments[segments.length - 1];
+        boolean rolled = false;
+        if (active.length() >= SEGMENT_SIZE) {
+            active = segmentFile(sequenceOf(active) + 1);
+            rolled = true;
+        }
+
+        dir.mkdirs();
+        try (OutputStream out = new FileOutputStream(active, true)) {
+            out.write((record + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        if (rolled && segments.length >= COMPACT_THRESHOLD) {
+            compactor.execute(this::compactIfNeeded);
+        }
+    }
+
+    synchronized List<String> readAll() {
+        List<String> records = new ArrayList<>();
+        for (File segment : segments()) {
+            records.addAll(readSegment(segment));
+        }
+        return records;
+    }
+
+    // Replaces the whole log with the given records
+    synchronized void rewrite(List<String> records) {
+        File[] old = segments();
+        File first = segmentFile(old.length == 0 ? 1 : sequenceOf(old[0]));
+        try {
+            writeSegment(first, records);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        for (File segment : old) {
+            if (!segment.equals(first)) {
+                segment.delete();
+            }
+        }
+    }
+
+    // Merges every closed segment (all but the active one) into the first.
+    // Readers may briefly see a record twice if we crash between the rename
+    // and the deletes, so callers de-duplicate by record id.
+    void compactIfNeeded() {
+        File[] closed;
+        synchronized (this) {
+            File[] segments = segments();
+            if (compacting || segments.length - 1 < COMPACT_THRESHOLD) {
+                return;
+            }
+            compacting = true;
+            closed = Arrays.copyOf(segments, segments.length - 1);
+        }
+
+        try {
+            // closed segments are immutable, so they can be read without the lock
+            List<String> merged = new ArrayList<>();
+            for (File segment : closed) {
+                merged.addAll(readSegment(segment));
+            }
+            synchronized (this) {
+                writeSegment(closed[0], merged);
+                for (int i = 1; i < closed.length; i++) {
+                    closed[i].delete();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error compacting " + prefix + " log: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    private void writeSegment(File target, List<String> records) throws IOException {
+        AtomicFileWriter.write(target, out -> {
+            for (String record : records) {
+                out.write(record);
+                out.write('\n');
+            }
+        });
+    }
+
+    private List<String> readSegment(File segment) {
+        List<String> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(segment.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    records.add(line);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // removed by a compaction in another process
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return records;
+    }
+
+    private File segmentFile(int sequence) {
+        return new File(dir, String.format("%s-%06d.jsonl", prefix, sequence));
+    }
+
+    private int sequenceOf(File segment) {
+        String name = segment.getName();
+        return Integer.parseInt(name.substring(prefix.length() + 1, name.length() - ".jsonl".length()));
+    }
+}
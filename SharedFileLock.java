@@ -0,0 +1,210 @@
+package database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// The read/write lock of one data file, with the write side shared by every
+// process that opens the same database directory. Taking the write lock
+// (outermost hold only) also takes an exclusive FileChannel lock on
+// <data file>.lock; the JVM allows one such lock per file, which is why
+// threads of this process queue on the in-process lock first.
+//
+// The lock file holds a generation number that each write-lock holder
+// bumps on release (unless it only deferred its writes). A process that finds a generation it did not write
+// (on acquiring, or when the DatabaseWatcher sees the lock file change)
+// knows another process wrote the data and runs onForeignWrite to drop
+// whatever it keeps in memory about the file.
+class SharedFileLock implements ReadWriteLock {
+
+    private final ReentrantReadWriteLock local = new ReentrantReadWriteLock();
+    private final Lock writeLock = new WriteLock();
+    private final File lockFile;
+    private final Runnable onForeignWrite;
+
+    // guarded by the local write lock
+    private FileChannel channel;
+    private FileLock held;
+    private boolean deferred;
+
+    // last generation written or seen by this process; guarded by this
+    private long generation;
+
+    SharedFileLock(String lockPath, Runnable onForeignWrite) {
+        this.lockFile = new File(lockPath);
+        this.onForeignWrite = onForeignWrite;
+        // nothing has been read yet, so whatever is on disk now is known
+        try {
+            byte[] stored = lockFile.exists() ? Files.readAllBytes(lockFile.toPath()) : new byte[0];
+            generation = stored.length >= Long.BYTES ? ByteBuffer.wrap(stored).getLong() : 0;
+        } catch (IOException e) {
+            generation = -1;
+        }
+    }
+
+    File getLockFile() {
+        return lockFile;
+    }
+
+    @Override
+    public Lock readLock() {
+        return local.readLock();
+    }
+
+    @Override
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    // Compares the generation on disk with the last one this process knows;
+    // returns true (after running onForeignWrite) when another process wrote
+    synchronized boolean refresh() {
+        long current;
+        try {
+            current = readGeneration(openChannel());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        if (current == generation) {
+            return false;
+        }
+        generation = current;
+        onForeignWrite.run();
+        return true;
+    }
+
+    // The current write hold only queued changes for a later hold to write
+    // (write-behind): releasing it leaves the generation alone, so other
+    // processes do not reload the file before the data is on disk
+    void deferWrite() {
+        deferred = true;
+    }
+
+    // The current write hold puts data on disk after all
+    void wrote() {
+        deferred = false;
+    }
+
+    private void acquire() {
+        deferred = false;
+        try {
+            held = openChannel().lock();
+        } catch (IOException e) {
+            // carry on with in-process exclusion only
+            e.printStackTrace();
+            held = null;
+            return;
+        }
+        refresh();
+    }
+
+    private synchronized void release() {
+        if (held == null) {
+            return;
+        }
+        try {
+            if (deferred) {
+                return;
+            }
+            generation++;
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, generation);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, buffer.position());
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                held.release();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            held = null;
+        }
+    }
+
+    private synchronized FileChannel openChannel() throws IOException {
+        // an interrupt while blocked in lock() closes the channel
+        if (channel == null || !channel.isOpen()) {
+            lockFile.getAbsoluteFile().getParentFile().mkdirs();
+            channel = FileChannel.open(lockFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return channel;
+    }
+
+    private static long readGeneration(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                return 0;
+            }
+        }
+        return buffer.getLong(0);
+    }
+
+    private class WriteLock implements Lock {
+
+        @Override
+        public void lock() {
+            local.writeLock().lock();
+            if (local.getWriteHoldCount() == 1) {
+                acquire();
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            local.writeLock().lockInterruptibly();
+            if (local.getWriteHoldCount() == 1) {
+                acquire();
+            }
+        }
+
+        @Override
+        public boolean tryLock() {
+            if (!local.writeLock().tryLock()) {
+                return false;
+            }
+            if (local.getWriteHoldCount() == 1) {
+                acquire();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if (!local.writeLock().tryLock(time, unit)) {
+                return false;
+            }
+            if (local.getWriteHoldCount() == 1) {
+                acquire();
+            }
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            if (local.getWriteHoldCount() == 1) {
+                release();
+            }
+            local.writeLock().unlock();
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
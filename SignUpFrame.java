@@ -1,6 +1,7 @@
 package ui;
 
-import database.JsonDatabaseManager;
+import database.DataStore;
+import database.DataStores;
 import service.UserService;
 import javax.swing.JOptionPane;
 import java.util.Arrays;
@@ -8,12 +9,12 @@ import java.util.Arrays;
 public class SignUpFrame extends javax.swing.JFrame {
 
     private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(SignUpFrame.class.getName());
-    private JsonDatabaseManager db;
+    private DataStore db;
     private UserService userService;
 
     public SignUpFrame() {
         initComponents();
-        db = new JsonDatabaseManager();
+        db = DataStores.getDefault();
         userService = new UserService(db);
 
         // optional: set default role
@@ -0,0 +1,340 @@
+package database;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import model.*;
+import model.Course.ApprovalStatus;
+
+// Binary record layouts of the snapshot files (see BinarySnapshot). Field
+// order is the format: bump BinarySnapshot.VERSION when changing it.
+final class SnapshotCodec {
+
+    private static final byte STUDENT = 1;
+    private static final byte INSTRUCTOR = 2;
+    private static final byte ADMIN = 3;
+
+    // marks an id that isn't a plain int; the string follows
+    private static final int TEXT_ID = Integer.MIN_VALUE;
+    // in place of a course's student count: the enrollments follow as an
+    // IdBitmap. LsmDataStore stores records in these layouts as well, so
+    // readCourse still takes the count-and-ids form it used before.
+    private static final int ENROLLMENT_BITMAP = -1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private SnapshotCodec() {
+    }
+
+    static void writeUser(BinarySnapshot.Out out, User u) {
+        if (u instanceof Student) {
+            out.writeByte(STUDENT);
+        } else if (u instanceof Instructor) {
+            out.writeByte(INSTRUCTOR);
+        } else {
+            out.writeByte(ADMIN);
+        }
+        writeId(out, u.getUserId());
+        out.writeString(u.getUsername());
+        out.writeString(u.getEmail());
+        out.writeString(u.getPasswordHash());
+        out.writeLong(u.getVersion());
+
+        if (u instanceof Student) {
+            Student s = (Student) u;
+            writeIntIds(out, s.getEnrolledCourseIds());
+            int[] progressCourses = s.getProgressCourseIds();
+            out.writeInt(progressCourses.length);
+            for (int courseId : progressCourses) {
+                out.writeInt(courseId);
+                writeIntIds(out, s.getCompletedLessonIds(courseId));
+            }
+            out.writeInt(s.getQuizScores().size());
+            for (Map.Entry<String, Double> e : s.getQuizScores().entrySet()) {
+                writeId(out, e.getKey());
+                out.writeDouble(e.getValue());
+            }
+            writeIntIds(out, s.getCertificateIds());
+        } else if (u instanceof Instructor) {
+            writeIds(out, ((Instructor) u).getCreatedCourses());
+        } else if (u instanceof Admin) {
+            writeIds(out, ((Admin) u).getManagedCourses());
+        } else {
+            writeIds(out, new ArrayList<>());
+        }
+    }
+
+    static User readUser(BinarySnapshot.In in) {
+        int kind = in.readByte();
+        String userId = readId(in);
+        String username = in.readString();
+        String email = in.readString();
+        String pass = in.readString();
+        long version = in.readLong();
+
+        if (kind == STUDENT) {
+            Student s = new Student(userId, username, email, pass);
+            s.setEnrolledCourseIds(readIntIds(in));
+            int courses = in.readInt();
+            for (int i = 0; i < courses; i++) {
+                int courseId = in.readInt();
+                if (courseId == TEXT_ID) {
+                    in.readString();
+                    readIntIds(in);
+                    continue;
+                }
+                for (int lessonId : readIntIds(in)) {
+                    s.markLessonComplete(courseId, lessonId);
+                }
+            }
+            int scores = in.readInt();
+            Map<String, Double> quizScores = new HashMap<>();
+            for (int i = 0; i < scores; i++) {
+                String lessonId = readId(in);
+                quizScores.put(lessonId, in.readDouble());
+            }
+            s.setQuizScores(quizScores);
+            s.setCertificateIds(readIntIds(in));
+            s.setVersion(version);
+            return s;
+        } else if (kind == INSTRUCTOR) {
+            Instructor t = new Instructor(userId, username, email, pass);
+            t.setCreatedCourses(readIds(in));
+            t.setVersion(version);
+            return t;
+        } else {
+            Admin admin = new Admin(userId, username, email, pass);
+            admin.setManagedCourses(readIds(in));
+            admin.setVersion(version);
+            return admin;
+        }
+    }
+
+    // Lessons come back without their quiz; the caller joins quizzes
+    static void writeCourse(BinarySnapshot.Out out, Course c) {
+        out.writeInt(c.getCourseID());
+        out.writeString(c.getCourseTitle());
+        out.writeString(c.getCourseDescription());
+        out.writeInt(c.getInstructorID());
+        out.writeByte(c.getApprovalStatus().ordinal());
+        out.writeString(c.getRejectionReason());
+        out.writeString(c.getReviewedBy());
+        writeDate(out, c.getSubmissionDate());
+        writeDate(out, c.getApprovalDate());
+        out.writeLong(c.getVersion());
+
+        out.writeInt(c.getLessons().size());
+        for (Lesson l : c.getLessons()) {
+            out.writeInt(l.getLessonID());
+            out.writeString(l.getLessonTitle());
+            out.writeString(l.getLessonContent());
+        }
+
+        // a count of ENROLLMENT_BITMAP instead of a list of ids
+        out.writeInt(ENROLLMENT_BITMAP);
+        out.writeBytes(c.getEnrolledStudents().toBytes());
+    }
+
+    static Course readCourse(BinarySnapshot.In in) {
+        Course c = new Course(in.readInt(), in.readString(), in.readString(), in.readInt());
+        c.setApprovalStatus(ApprovalStatus.values()[in.readByte()]);
+        c.setRejectionReason(in.readString());
+        c.setReviewedBy(in.readString());
+        Date submitted = readDate(in);
+        if (submitted != null) {
+            c.setSubmissionDate(submitted);
+        }
+        c.setApprovalDate(readDate(in));
+        c.setVersion(in.readLong());
+
+        int lessons = in.readInt();
+        for (int i = 0; i < lessons; i++) {
+            c.getLessons().add(new Lesson(in.readInt(), in.readString(), in.readString()));
+        }
+
+        int students = in.readInt();
+        if (students == ENROLLMENT_BITMAP) {
+            c.setEnrolledStudents(IdBitmap.fromBytes(in.readBytes()));
+        } else {
+            // records written before the bitmap: a plain list of ids
+            List<Integer> studentIds = new ArrayList<>(students);
+            for (int i = 0; i < students; i++) {
+                studentIds.add(in.readInt());
+            }
+            c.setEnrolledStudentIDs(studentIds);
+        }
+        return c;
+    }
+
+    static void writeQuiz(BinarySnapshot.Out out, Quiz quiz) {
+        out.writeInt(quiz.getQuizId());
+        out.writeInt(quiz.getCourseID());
+        out.writeInt(quiz.getLessonID());
+        out.writeInt(quiz.getPassingScore());
+        out.writeBoolean(quiz.isRequired());
+        out.writeLong(quiz.getVersion());
+
+        out.writeInt(quiz.getQuestions().size());
+        for (Question q : quiz.getQuestions()) {
+            out.writeInt(q.getQuestionID());
+            out.writeString(q.getQuestionText());
+            out.writeString(q.getOptionA());
+            out.writeString(q.getOptionB());
+            out.writeString(q.getOptionC());
+            out.writeString(q.getOptionD());
+            out.writeString(q.getCorrectAnswer());
+            out.writeString(q.getExplanation());
+        }
+    }
+
+    static Quiz readQuiz(BinarySnapshot.In in) {
+        int quizId = in.readInt();
+        int courseId = in.readInt();
+        int lessonId = in.readInt();
+        Quiz quiz = new Quiz(quizId, in.readInt(), in.readBoolean());
+        quiz.setCourseID(courseId);
+        quiz.setLessonID(lessonId);
+        quiz.setVersion(in.readLong());
+
+        int count = in.readInt();
+        List<Question> questions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            questions.add(new Question(in.readInt(), in.readString(), in.readString(), in.readString(),
+                    in.readString(), in.readString(), in.readString(), in.readString()));
+        }
+        quiz.setQuestions(questions);
+        return quiz;
+    }
+
+    static void writeAttempt(BinarySnapshot.Out out, QuizAttempt a) {
+        out.writeInt(a.getAttemptId());
+        writeId(out, a.getStudentId());
+        out.writeInt(a.getQuizId());
+        out.writeInt(a.getLessonId());
+        out.writeInt(a.getCourseId());
+        out.writeInt(a.getStudentAnswers().size());
+        for (String answer : a.getStudentAnswers()) {
+            out.writeString(answer);
+        }
+        out.writeDouble(a.getScore());
+        out.writeBoolean(a.isPassed());
+        out.writeLong(a.getAttemptDate().getEpochSecond());
+        out.writeInt(a.getAttemptDate().getNano());
+    }
+
+    static QuizAttempt readAttempt(BinarySnapshot.In in) {
+        QuizAttempt a = new QuizAttempt();
+        a.setAttemptId(in.readInt());
+        a.setStudentId(readId(in));
+        a.setQuizId(in.readInt());
+        a.setLessonId(in.readInt());
+        a.setCourseId(in.readInt());
+        int answers = in.readInt();
+        List<String> studentAnswers = new ArrayList<>(answers);
+        for (int i = 0; i < answers; i++) {
+            studentAnswers.add(in.readString());
+        }
+        a.setStudentAnswers(studentAnswers);
+        a.setScore(in.readDouble());
+        a.setPassed(in.readBoolean());
+        long seconds = in.readLong();
+        a.setAttemptDate(Instant.ofEpochSecond(seconds, in.readInt()));
+        return a;
+    }
+
+    static void writeCertificate(BinarySnapshot.Out out, Certificate cert) {
+        out.writeInt(cert.getCertificateID());
+        out.writeInt(cert.getStudentID());
+        out.writeInt(cert.getCourseID());
+        out.writeString(cert.getStudentName());
+        out.writeString(cert.getCourseTitle());
+        out.writeString(cert.getInstructorName());
+        out.writeDouble(cert.getFinalScore());
+        writeDate(out, cert.getIssueDate());
+        out.writeLong(cert.getVersion());
+    }
+
+    static Certificate readCertificate(BinarySnapshot.In in) {
+        Certificate cert = new Certificate();
+        cert.setCertificateID(in.readInt());
+        cert.setStudentID(in.readInt());
+        cert.setCourseID(in.readInt());
+        cert.setStudentName(in.readString());
+        cert.setCourseTitle(in.readString());
+        cert.setInstructorName(in.readString());
+        cert.setFinalScore(in.readDouble());
+        cert.setIssueDate(readDate(in));
+        cert.setVersion(in.readLong());
+        return cert;
+    }
+
+    // Ids are kept as strings in the model but are ints in practice
+    private static void writeId(BinarySnapshot.Out out, String id) {
+        if (id != null && id.matches("-?\\d{1,9}")) {
+            int value = Integer.parseInt(id);
+            if (String.valueOf(value).equals(id)) {
+                out.writeInt(value);
+                return;
+            }
+        }
+        out.writeInt(TEXT_ID);
+        out.writeString(id);
+    }
+
+    private static String readId(BinarySnapshot.In in) {
+        int value = in.readInt();
+        return value == TEXT_ID ? in.readString() : String.valueOf(value);
+    }
+
+    private static void writeIds(BinarySnapshot.Out out, List<String> ids) {
+        out.writeInt(ids.size());
+        for (String id : ids) {
+            writeId(out, id);
+        }
+    }
+
+    private static List<String> readIds(BinarySnapshot.In in) {
+        int count = in.readInt();
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(readId(in));
+        }
+        return ids;
+    }
+
+    // Same layout as writeIds with numeric ids only
+    private static void writeIntIds(BinarySnapshot.Out out, int[] ids) {
+        out.writeInt(ids.length);
+        for (int id : ids) {
+            out.writeInt(id);
+        }
+    }
+
+    // Text ids from older snapshots are skipped, as Student's setters do
+    private static int[] readIntIds(BinarySnapshot.In in) {
+        int count = in.readInt();
+        int[] ids = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            int value = in.readInt();
+            if (value == TEXT_ID) {
+                in.readString();
+            } else {
+                ids[n++] = value;
+            }
+        }
+        return n == count ? ids : Arrays.copyOf(ids, n);
+    }
+
+    private static void writeDate(BinarySnapshot.Out out, Date date) {
+        out.writeLong(date != null ? date.getTime() : NO_DATE);
+    }
+
+    private static Date readDate(BinarySnapshot.In in) {
+        long time = in.readLong();
+        return time != NO_DATE ? new Date(time) : null;
+    }
+}
@@ -0,0 +1,30 @@
+package database;
+
+import java.io.IOException;
+
+// Converts between the JSON data files and the binary snapshots.
+// Usage: java database.SnapshotConverter to-binary | to-json
+// (run from the directory that contains database/)
+public class SnapshotConverter {
+
+    public static void main(String[] args) {
+        if (args.length != 1 || !(args[0].equals("to-binary") || args[0].equals("to-json"))) {
+            System.err.println("Usage: java database.SnapshotConverter to-binary | to-json");
+            System.exit(2);
+        }
+
+        JsonDatabaseManager db = JsonDatabaseManager.getInstance();
+        try {
+            if (args[0].equals("to-binary")) {
+                db.exportSnapshots();
+                System.out.println("Snapshots written to database/snapshots");
+            } else {
+                db.importSnapshots();
+                System.out.println("JSON data files rewritten from database/snapshots");
+            }
+        } catch (IOException e) {
+            System.err.println("Conversion failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
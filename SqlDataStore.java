@@ -0,0 +1,977 @@
+package database;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.*;
+import model.*;
+import model.Course.ApprovalStatus;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// DataStore backed by an embedded, file-based SQL database reached through
+// JDBC, e.g. jdbc:h2:./database/lms or jdbc:sqlite:database/lms.db (the
+// driver jar has to be on the classpath). Only portable SQL is used: no
+// upserts, a replace is a delete plus insert in one transaction. Every
+// lookup the services do goes through an index. Role-specific user lists
+// are stored as a JSON column since nothing queries inside them.
+public class SqlDataStore implements DataStore {
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS users ("
+            + " user_id VARCHAR(64) PRIMARY KEY, username VARCHAR(255), email VARCHAR(255),"
+            + " password_hash VARCHAR(255), role VARCHAR(32), details CLOB, version BIGINT DEFAULT 1)",
+        "CREATE INDEX IF NOT EXISTS idx_users_role_username ON users (role, username)",
+
+        "CREATE TABLE IF NOT EXISTS courses ("
+            + " course_id INTEGER PRIMARY KEY, title VARCHAR(255), description CLOB,"
+            + " instructor_id INTEGER, approval_status VARCHAR(16), rejection_reason CLOB,"
+            + " reviewed_by VARCHAR(255), submission_date BIGINT, approval_date BIGINT,"
+            + " version BIGINT DEFAULT 1)",
+        "CREATE INDEX IF NOT EXISTS idx_courses_status ON courses (approval_status)",
+        "CREATE TABLE IF NOT EXISTS lessons ("
+            + " course_id INTEGER NOT NULL, lesson_id INTEGER NOT NULL, sort_order INTEGER,"
+            + " title VARCHAR(255), content CLOB, PRIMARY KEY (course_id, lesson_id))",
+        "CREATE TABLE IF NOT EXISTS course_students ("
+            + " course_id INTEGER NOT NULL, student_id INTEGER NOT NULL, sort_order INTEGER,"
+            + " PRIMARY KEY (course_id, student_id))",
+        "CREATE INDEX IF NOT EXISTS idx_course_students_student ON course_students (student_id)",
+
+        "CREATE TABLE IF NOT EXISTS quizzes ("
+            + " quiz_id INTEGER PRIMARY KEY, course_id INTEGER, lesson_id INTEGER,"
+            + " passing_score INTEGER, is_required BOOLEAN, version BIGINT DEFAULT 1)",
+        "CREATE INDEX IF NOT EXISTS idx_quizzes_course_lesson ON quizzes (course_id, lesson_id)",
+        "CREATE INDEX IF NOT EXISTS idx_quizzes_lesson ON quizzes (lesson_id)",
+        "CREATE TABLE IF NOT EXISTS questions ("
+            + " quiz_id INTEGER NOT NULL, sort_order INTEGER NOT NULL, question_id INTEGER,"
+            + " question_text CLOB, option_a CLOB, option_b CLOB, option_c CLOB, option_d CLOB,"
+            + " correct_answer VARCHAR(255), explanation CLOB, PRIMARY KEY (quiz_id, sort_order))",
+
+        "CREATE TABLE IF NOT EXISTS quiz_attempts ("
+            + " attempt_id INTEGER PRIMARY KEY, student_id VARCHAR(64), quiz_id INTEGER,"
+            + " lesson_id INTEGER, course_id INTEGER, answers CLOB, score DOUBLE PRECISION,"
+            + " passed BOOLEAN, attempt_date VARCHAR(40))",
+        "CREATE INDEX IF NOT EXISTS idx_attempts_student_quiz ON quiz_attempts (student_id, quiz_id)",
+
+        "CREATE TABLE IF NOT EXISTS certificates ("
+            + " certificate_id INTEGER PRIMARY KEY, student_id INTEGER, course_id INTEGER,"
+            + " student_name VARCHAR(255), course_title VARCHAR(255), instructor_name VARCHAR(255),"
+            + " final_score DOUBLE PRECISION, issue_date BIGINT, version BIGINT DEFAULT 1)",
+        "CREATE INDEX IF NOT EXISTS idx_certificates_student ON certificates (student_id)",
+
+        "CREATE TABLE IF NOT EXISTS id_sequences (name VARCHAR(32) PRIMARY KEY, last_id BIGINT)",
+    };
+
+    // Tables that carry a version column; databases created before it get it added
+    private static final String[] VERSIONED = { "users", "courses", "quizzes", "certificates" };
+
+    private static final String USER_COLUMNS = "user_id, username, email, password_hash, role, details, version";
+    private static final String COURSE_COLUMNS = "course_id, title, description, instructor_id, approval_status,"
+            + " rejection_reason, reviewed_by, submission_date, approval_date, version";
+    private static final String QUIZ_COLUMNS = "quiz_id, course_id, lesson_id, passing_score, is_required, version";
+    private static final String ATTEMPT_COLUMNS = "attempt_id, student_id, quiz_id, lesson_id, course_id,"
+            + " answers, score, passed, attempt_date";
+    private static final String CERTIFICATE_COLUMNS = "certificate_id, student_id, course_id, student_name,"
+            + " course_title, instructor_name, final_score, issue_date, version";
+
+    // One connection; embedded engines serialize writers anyway
+    private final Connection connection;
+
+    private final IdSequences ids = new IdSequences(this::advanceSequence);
+
+    public SqlDataStore(String url, String user, String password) throws SQLException {
+        connection = DriverManager.getConnection(url, user, password);
+        try (Statement st = connection.createStatement()) {
+            for (String ddl : SCHEMA) {
+                st.execute(ddl);
+            }
+            for (String table : VERSIONED) {
+                try {
+                    st.executeQuery("SELECT version FROM " + table + " WHERE 1 = 0").close();
+                } catch (SQLException missing) {
+                    st.execute("ALTER TABLE " + table + " ADD COLUMN version BIGINT DEFAULT 1");
+                }
+            }
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private interface Work<R> {
+        R run() throws SQLException;
+    }
+
+    // Runs work as one transaction; failures are logged and give fallback
+    private synchronized <R> R transaction(R fallback, Work<R> work) {
+        try {
+            connection.setAutoCommit(false);
+            try {
+                R result = work.run();
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return fallback;
+        }
+    }
+
+    private synchronized <R> R query(R fallback, Work<R> work) {
+        try {
+            return work.run();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return fallback;
+        }
+    }
+
+    private int update(String sql, Object... params) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            bind(ps, params);
+            return ps.executeUpdate();
+        }
+    }
+
+    private int queryInt(String sql, Object... params) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    // Stored version of one row, null when there is no such row
+    private Long storedVersion(String table, String key, Object id) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT version FROM " + table + " WHERE " + key + " = ?")) {
+            bind(ps, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        }
+    }
+
+    // Next version for a blind save of one row
+    private long nextVersion(String table, String key, Object id) throws SQLException {
+        Long stored = storedVersion(table, key, id);
+        return (stored != null ? stored : 0) + 1;
+    }
+
+    // Removes the row only while it is still at expectedVersion; an absent
+    // row counts as version 0
+    private boolean deleteAtVersion(String table, String key, Object id, long expectedVersion) throws SQLException {
+        if (update("DELETE FROM " + table + " WHERE " + key + " = ? AND version = ?", id, expectedVersion) > 0) {
+            return true;
+        }
+        return expectedVersion == 0 && storedVersion(table, key, id) == null;
+    }
+
+    // Counter for IdSequences. The UPDATE comes first so the row is write
+    // locked before it is read back
+    private long advanceSequence(String name, long floor, int count) throws IOException {
+        Long last = transaction(null, () -> {
+            if (update("UPDATE id_sequences SET last_id = CASE WHEN last_id < ? THEN ? ELSE last_id END + ?"
+                    + " WHERE name = ?", floor, floor, (long) count, name) == 0) {
+                update("INSERT INTO id_sequences (name, last_id) VALUES (?, ?)", name, floor + count);
+            }
+            try (PreparedStatement ps = connection.prepareStatement("SELECT last_id FROM id_sequences WHERE name = ?")) {
+                bind(ps, name);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : null;
+                }
+            }
+        });
+        if (last == null) {
+            throw new IOException("id_sequences could not be updated");
+        }
+        return last;
+    }
+
+    private long highest(String sql) {
+        return query(0, () -> queryInt(sql));
+    }
+
+    private static void bind(PreparedStatement ps, Object... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            Object p = params[i];
+            if (p == null) {
+                ps.setNull(i + 1, Types.VARCHAR);
+            } else if (p instanceof Integer) {
+                ps.setInt(i + 1, (Integer) p);
+            } else if (p instanceof Long) {
+                ps.setLong(i + 1, (Long) p);
+            } else if (p instanceof Double) {
+                ps.setDouble(i + 1, (Double) p);
+            } else if (p instanceof Boolean) {
+                ps.setBoolean(i + 1, (Boolean) p);
+            } else {
+                ps.setString(i + 1, p.toString());
+            }
+        }
+    }
+
+    private static String placeholders(String columns) {
+        int count = columns.split(",").length;
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    // ---- users
+
+    @Override
+    public List<User> loadUsers() {
+        return query(new ArrayList<>(), () -> readUsers("SELECT " + USER_COLUMNS + " FROM users ORDER BY user_id"));
+    }
+
+    @Override
+    public void saveUsers(List<User> users) {
+        transaction(null, () -> {
+            update("DELETE FROM users");
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO users (" + USER_COLUMNS + ") VALUES (" + placeholders(USER_COLUMNS) + ")")) {
+                for (User u : users) {
+                    bindUser(ps, u);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void saveUser(User user) {
+        transaction(null, () -> {
+            user.setVersion(nextVersion("users", "user_id", user.getUserId()));
+            update("DELETE FROM users WHERE user_id = ?", user.getUserId());
+            insertUser(user);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean compareAndSetUser(User user, long expectedVersion) {
+        return transaction(false, () -> {
+            if (!deleteAtVersion("users", "user_id", user.getUserId(), expectedVersion)) {
+                return false;
+            }
+            user.setVersion(expectedVersion + 1);
+            insertUser(user);
+            return true;
+        });
+    }
+
+    private void insertUser(User user) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO users (" + USER_COLUMNS + ") VALUES (" + placeholders(USER_COLUMNS) + ")")) {
+            bindUser(ps, user);
+            ps.executeUpdate();
+        }
+    }
+
+    @Override
+    public int generateUserId() {
+        // user ids are strings and CAST fails on the first one that is not a
+        // number, so the highest is found here and those are skipped
+        return ids.next("user", () -> query(0L, () -> {
+            long maxId = 0;
+            try (PreparedStatement ps = connection.prepareStatement("SELECT user_id FROM users");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    try {
+                        maxId = Math.max(maxId, Long.parseLong(rs.getString(1)));
+                    } catch (NumberFormatException e) {
+                        // Skip non-numeric IDs
+                    }
+                }
+            }
+            return maxId;
+        }));
+    }
+
+    @Override
+    public User findUser(String userId) {
+        return query(null, () -> first(readUsers("SELECT " + USER_COLUMNS + " FROM users WHERE user_id = ?", userId)));
+    }
+
+    @Override
+    public Admin findAdminByUsername(String username) {
+        return query(null, () -> (Admin) first(readUsers(
+                "SELECT " + USER_COLUMNS + " FROM users WHERE role = ? AND username = ?", "Admin", username)));
+    }
+
+    private void bindUser(PreparedStatement ps, User u) throws SQLException {
+        JSONObject details = new JSONObject();
+        if (u instanceof Student) {
+            Student s = (Student) u;
+            details.put("enrolledCourses", new JSONArray(s.getEnrolledCourses()));
+            details.put("completedLessons", new JSONObject(s.getCompletedLessons()));
+            details.put("quizScores", new JSONObject(s.getQuizScores()));
+            details.put("earnedCertificates", new JSONArray(s.getEarnedCertificates()));
+        } else if (u instanceof Instructor) {
+            details.put("createdCourses", new JSONArray(((Instructor) u).getCreatedCourses()));
+        } else if (u instanceof Admin) {
+            details.put("managedCourses", new JSONArray(((Admin) u).getManagedCourses()));
+        }
+        bind(ps, u.getUserId(), u.getUsername(), u.getEmail(), u.getPasswordHash(), u.getRole(), details.toString(),
+                u.getVersion());
+    }
+
+    private List<User> readUsers(String sql, Object... params) throws SQLException {
+        List<User> users = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    User u = readUser(rs);
+                    if (u != null) {
+                        users.add(u);
+                    }
+                }
+            }
+        }
+        return users;
+    }
+
+    private User readUser(ResultSet rs) throws SQLException {
+        String userId = rs.getString("user_id");
+        String username = rs.getString("username");
+        String email = rs.getString("email");
+        String pass = rs.getString("password_hash");
+        String role = rs.getString("role");
+        String json = rs.getString("details");
+        long version = rs.getLong("version");
+        JSONObject details = new JSONObject(json != null ? json : "{}");
+
+        if ("Student".equals(role)) {
+            Student s = new Student(userId, username, email, pass);
+            s.setEnrolledCourses(strings(details.optJSONArray("enrolledCourses")));
+            Map<String, List<String>> completed = new HashMap<>();
+            JSONObject completedJson = details.optJSONObject("completedLessons");
+            if (completedJson != null) {
+                for (String courseId : completedJson.keySet()) {
+                    completed.put(courseId, strings(completedJson.getJSONArray(courseId)));
+                }
+            }
+            s.setCompletedLessons(completed);
+            Map<String, Double> scores = new HashMap<>();
+            JSONObject scoresJson = details.optJSONObject("quizScores");
+            if (scoresJson != null) {
+                for (String lessonId : scoresJson.keySet()) {
+                    scores.put(lessonId, scoresJson.getDouble(lessonId));
+                }
+            }
+            s.setQuizScores(scores);
+            s.setEarnedCertificates(strings(details.optJSONArray("earnedCertificates")));
+            s.setVersion(version);
+            return s;
+
+        } else if ("Instructor".equals(role)) {
+            Instructor t = new Instructor(userId, username, email, pass);
+            t.setCreatedCourses(strings(details.optJSONArray("createdCourses")));
+            t.setVersion(version);
+            return t;
+
+        } else if ("Admin".equals(role)) {
+            Admin admin = new Admin(userId, username, email, pass);
+            admin.setManagedCourses(strings(details.optJSONArray("managedCourses")));
+            admin.setVersion(version);
+            return admin;
+        }
+
+        return null;
+    }
+
+    private static List<String> strings(JSONArray array) {
+        List<String> list = new ArrayList<>();
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                list.add(array.getString(i));
+            }
+        }
+        return list;
+    }
+
+    // ---- courses
+
+    @Override
+    public List<Course> loadCourses() {
+        return query(new ArrayList<>(), () -> readCourses(""));
+    }
+
+    @Override
+    public Course getCourseById(int courseId) {
+        return query(null, () -> first(readCourses(" WHERE course_id = ?", courseId)));
+    }
+
+    @Override
+    public List<Course> getCoursesByStatus(ApprovalStatus status) {
+        return query(new ArrayList<>(), () -> readCourses(" WHERE approval_status = ?", status.toString()));
+    }
+
+    @Override
+    public void saveCourses(List<Course> courses) {
+        transaction(null, () -> {
+            update("DELETE FROM course_students");
+            update("DELETE FROM lessons");
+            update("DELETE FROM courses");
+            for (Course c : courses) {
+                insertCourse(c);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void updateCourse(Course updatedCourse) {
+        int id = updatedCourse.getCourseID();
+        boolean found = transaction(false, () -> {
+            Long stored = storedVersion("courses", "course_id", id);
+            if (stored == null) {
+                return false;
+            }
+            updatedCourse.setVersion(stored + 1);
+            replaceCourse(updatedCourse);
+            return true;
+        });
+        if (!found) {
+            System.err.println("Course not found for update: " + id);
+        }
+    }
+
+    @Override
+    public boolean compareAndSetCourse(Course course, long expectedVersion) {
+        return transaction(false, () -> {
+            if (update("DELETE FROM courses WHERE course_id = ? AND version = ?",
+                    course.getCourseID(), expectedVersion) == 0) {
+                return false;
+            }
+            course.setVersion(expectedVersion + 1);
+            replaceCourse(course);
+            return true;
+        });
+    }
+
+    @Override
+    public int generateCourseId() {
+        return ids.next("course", () -> highest("SELECT COALESCE(MAX(course_id), 0) FROM courses"));
+    }
+
+    @Override
+    public int generateLessonId() {
+        return ids.next("lesson", () -> highest("SELECT COALESCE(MAX(lesson_id), 0) FROM lessons"));
+    }
+
+    private void replaceCourse(Course c) throws SQLException {
+        update("DELETE FROM courses WHERE course_id = ?", c.getCourseID());
+        update("DELETE FROM lessons WHERE course_id = ?", c.getCourseID());
+        update("DELETE FROM course_students WHERE course_id = ?", c.getCourseID());
+        insertCourse(c);
+    }
+
+    private void insertCourse(Course c) throws SQLException {
+        update("INSERT INTO courses (" + COURSE_COLUMNS + ") VALUES (" + placeholders(COURSE_COLUMNS) + ")",
+                c.getCourseID(), c.getCourseTitle(), c.getCourseDescription(), c.getInstructorID(),
+                c.getApprovalStatus().toString(), c.getRejectionReason(), c.getReviewedBy(),
+                c.getSubmissionDate() != null ? c.getSubmissionDate().getTime() : null,
+                c.getApprovalDate() != null ? c.getApprovalDate().getTime() : null, c.getVersion());
+
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO lessons (course_id, lesson_id, sort_order, title, content) VALUES (?, ?, ?, ?, ?)")) {
+            int order = 0;
+            for (Lesson l : c.getLessons()) {
+                bind(ps, c.getCourseID(), l.getLessonID(), order++, l.getLessonTitle(), l.getLessonContent());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO course_students (course_id, student_id, sort_order) VALUES (?, ?, ?)")) {
+            int order = 0;
+            for (int studentId : c.getEnrolledStudents().toArray()) {
+                bind(ps, c.getCourseID(), studentId, order++);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    // Courses matching where (on the courses table); lessons get their quiz attached
+    private List<Course> readCourses(String where, Object... params) throws SQLException {
+        Map<Integer, Course> courses = new LinkedHashMap<>();
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT " + COURSE_COLUMNS + " FROM courses" + where + " ORDER BY course_id")) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Course c = new Course(rs.getInt("course_id"), rs.getString("title"),
+                            rs.getString("description"), rs.getInt("instructor_id"));
+                    String status = rs.getString("approval_status");
+                    c.setApprovalStatus(status != null ? ApprovalStatus.valueOf(status) : ApprovalStatus.APPROVED);
+                    c.setRejectionReason(rs.getString("rejection_reason"));
+                    c.setReviewedBy(rs.getString("reviewed_by"));
+                    long submitted = rs.getLong("submission_date");
+                    if (!rs.wasNull()) {
+                        c.setSubmissionDate(new Date(submitted));
+                    }
+                    long approved = rs.getLong("approval_date");
+                    c.setApprovalDate(rs.wasNull() ? null : new Date(approved));
+                    c.setVersion(rs.getLong("version"));
+                    courses.put(c.getCourseID(), c);
+                }
+            }
+        }
+        if (courses.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        String children = where.isEmpty() ? ""
+                : " WHERE course_id IN (SELECT course_id FROM courses" + where + ")";
+        Map<String, Quiz> quizzes = new HashMap<>();
+        for (Quiz q : readQuizzes(children, params)) {
+            quizzes.putIfAbsent(q.getCourseID() + "#" + q.getLessonID(), q);
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT course_id, lesson_id, title, content FROM lessons" + children + " ORDER BY course_id, sort_order")) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Course c = courses.get(rs.getInt("course_id"));
+                    if (c == null) {
+                        continue;
+                    }
+                    Lesson l = new Lesson(rs.getInt("lesson_id"), rs.getString("title"), rs.getString("content"));
+                    Quiz quiz = quizzes.get(c.getCourseID() + "#" + l.getLessonID());
+                    if (quiz != null) {
+                        l.setQuiz(quiz);
+                        l.setQuizRequired(quiz.isRequired());
+                    }
+                    c.getLessons().add(l);
+                }
+            }
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT course_id, student_id FROM course_students" + children + " ORDER BY course_id, sort_order")) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Course c = courses.get(rs.getInt("course_id"));
+                    if (c != null) {
+                        c.addEnrolledStudent(rs.getInt("student_id"));
+                    }
+                }
+            }
+        }
+
+        return new ArrayList<>(courses.values());
+    }
+
+    // ---- quizzes
+
+    @Override
+    public List<Quiz> loadQuizzes() {
+        return query(new ArrayList<>(), () -> readQuizzes(""));
+    }
+
+    @Override
+    public void saveQuizzes(List<Quiz> quizzes) {
+        transaction(null, () -> {
+            update("DELETE FROM questions");
+            update("DELETE FROM quizzes");
+            for (Quiz quiz : quizzes) {
+                insertQuiz(quiz);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void saveQuiz(Quiz quiz) {
+        transaction(null, () -> {
+            quiz.setVersion(nextVersion("quizzes", "quiz_id", quiz.getQuizId()));
+            deleteQuizRows(quiz.getQuizId());
+            insertQuiz(quiz);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean compareAndSetQuiz(Quiz quiz, long expectedVersion) {
+        return transaction(false, () -> {
+            if (!deleteAtVersion("quizzes", "quiz_id", quiz.getQuizId(), expectedVersion)) {
+                return false;
+            }
+            quiz.setVersion(expectedVersion + 1);
+            deleteQuizRows(quiz.getQuizId());
+            insertQuiz(quiz);
+            return true;
+        });
+    }
+
+    @Override
+    public Quiz getQuizById(int quizId) {
+        return query(null, () -> first(readQuizzes(" WHERE quiz_id = ?", quizId)));
+    }
+
+    @Override
+    public Quiz getQuizByCourseAndLessonId(int courseId, int lessonId) {
+        return query(null, () -> first(readQuizzes(" WHERE course_id = ? AND lesson_id = ?", courseId, lessonId)));
+    }
+
+    @Override
+    public List<Quiz> getQuizzesForCourse(int courseID) {
+        return query(new ArrayList<>(), () -> readQuizzes(" WHERE course_id = ?", courseID));
+    }
+
+    @Override
+    public boolean deleteQuiz(int quizId) {
+        return transaction(false, () -> deleteQuizRows(quizId));
+    }
+
+    @Override
+    public boolean deleteQuizByLessonId(int lessonID) {
+        return transaction(false, () -> {
+            boolean removed = false;
+            for (Quiz q : readQuizzes(" WHERE lesson_id = ?", lessonID)) {
+                removed |= deleteQuizRows(q.getQuizId());
+            }
+            return removed;
+        });
+    }
+
+    @Override
+    public int generateQuizId() {
+        return ids.next("quiz", () -> highest("SELECT COALESCE(MAX(quiz_id), 0) FROM quizzes"));
+    }
+
+    private boolean deleteQuizRows(int quizId) throws SQLException {
+        update("DELETE FROM questions WHERE quiz_id = ?", quizId);
+        return update("DELETE FROM quizzes WHERE quiz_id = ?", quizId) > 0;
+    }
+
+    private void insertQuiz(Quiz quiz) throws SQLException {
+        update("INSERT INTO quizzes (" + QUIZ_COLUMNS + ") VALUES (" + placeholders(QUIZ_COLUMNS) + ")",
+                quiz.getQuizId(), quiz.getCourseID(), quiz.getLessonID(), quiz.getPassingScore(), quiz.isRequired(),
+                quiz.getVersion());
+
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO questions (quiz_id, sort_order, question_id, question_text, option_a, option_b,"
+                        + " option_c, option_d, correct_answer, explanation) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            int order = 0;
+            for (Question q : quiz.getQuestions()) {
+                bind(ps, quiz.getQuizId(), order++, q.getQuestionID(), q.getQuestionText(), q.getOptionA(),
+                        q.getOptionB(), q.getOptionC(), q.getOptionD(), q.getCorrectAnswer(), q.getExplanation());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private List<Quiz> readQuizzes(String where, Object... params) throws SQLException {
+        Map<Integer, Quiz> quizzes = new LinkedHashMap<>();
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT " + QUIZ_COLUMNS + " FROM quizzes" + where + " ORDER BY quiz_id")) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Quiz quiz = new Quiz(rs.getInt("quiz_id"), rs.getInt("passing_score"), rs.getBoolean("is_required"));
+                    quiz.setCourseID(rs.getInt("course_id"));
+                    quiz.setLessonID(rs.getInt("lesson_id"));
+                    quiz.setVersion(rs.getLong("version"));
+                    quizzes.put(quiz.getQuizId(), quiz);
+                }
+            }
+        }
+        if (quizzes.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        String questionWhere = where.isEmpty() ? ""
+                : " WHERE quiz_id IN (SELECT quiz_id FROM quizzes" + where + ")";
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT quiz_id, question_id, question_text, option_a, option_b, option_c, option_d,"
+                        + " correct_answer, explanation FROM questions" + questionWhere + " ORDER BY quiz_id, sort_order")) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Quiz quiz = quizzes.get(rs.getInt("quiz_id"));
+                    if (quiz != null) {
+                        quiz.getQuestions().add(new Question(rs.getInt("question_id"), rs.getString("question_text"),
+                                rs.getString("option_a"), rs.getString("option_b"), rs.getString("option_c"),
+                                rs.getString("option_d"), rs.getString("correct_answer"), rs.getString("explanation")));
+                    }
+                }
+            }
+        }
+
+        return new ArrayList<>(quizzes.values());
+    }
+
+    // ---- attempts
+
+    @Override
+    public List<QuizAttempt> loadQuizAttempts() {
+        return query(new ArrayList<>(), () -> readAttempts(""));
+    }
+
+    @Override
+    public void saveQuizAttempts(List<QuizAttempt> attempts) {
+        transaction(null, () -> {
+            update("DELETE FROM quiz_attempts");
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO quiz_attempts (" + ATTEMPT_COLUMNS + ") VALUES (" + placeholders(ATTEMPT_COLUMNS) + ")")) {
+                for (QuizAttempt a : attempts) {
+                    bindAttempt(ps, a);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void addQuizAttempt(QuizAttempt attempt) {
+        transaction(null, () -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO quiz_attempts (" + ATTEMPT_COLUMNS + ") VALUES (" + placeholders(ATTEMPT_COLUMNS) + ")")) {
+                bindAttempt(ps, attempt);
+                ps.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<QuizAttempt> getStudentQuizAttempts(String studentId, int quizId) {
+        return query(new ArrayList<>(), () -> readAttempts(" WHERE student_id = ? AND quiz_id = ?", studentId, quizId));
+    }
+
+    @Override
+    public int getQuizAttemptCount(String studentId, int quizId) {
+        return query(0, () -> queryInt(
+                "SELECT COUNT(*) FROM quiz_attempts WHERE student_id = ? AND quiz_id = ?", studentId, quizId));
+    }
+
+    @Override
+    public double getBestQuizScore(String studentId, int quizId) {
+        return query(0.0, () -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "SELECT MAX(score) FROM quiz_attempts WHERE student_id = ? AND quiz_id = ?")) {
+                bind(ps, studentId, quizId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getDouble(1) : 0.0;
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean hasPassedQuiz(String studentId, int lessonId, int quizId) {
+        return query(false, () -> queryInt("SELECT COUNT(*) FROM quiz_attempts"
+                + " WHERE student_id = ? AND quiz_id = ? AND lesson_id = ? AND passed = ?",
+                studentId, quizId, lessonId, true) > 0);
+    }
+
+    @Override
+    public int generateAttemptId() {
+        return ids.next("attempt", () -> highest("SELECT COALESCE(MAX(attempt_id), 0) FROM quiz_attempts"));
+    }
+
+    private void bindAttempt(PreparedStatement ps, QuizAttempt a) throws SQLException {
+        bind(ps, a.getAttemptId(), a.getStudentId(), a.getQuizId(), a.getLessonId(), a.getCourseId(),
+                new JSONArray(a.getStudentAnswers()).toString(), a.getScore(), a.isPassed(),
+                a.getAttemptDate().toString());
+    }
+
+    private List<QuizAttempt> readAttempts(String where, Object... params) throws SQLException {
+        List<QuizAttempt> attempts = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT " + ATTEMPT_COLUMNS + " FROM quiz_attempts" + where + " ORDER BY attempt_id")) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    QuizAttempt a = new QuizAttempt();
+                    a.setAttemptId(rs.getInt("attempt_id"));
+                    a.setStudentId(rs.getString("student_id"));
+                    a.setQuizId(rs.getInt("quiz_id"));
+                    a.setLessonId(rs.getInt("lesson_id"));
+                    a.setCourseId(rs.getInt("course_id"));
+                    a.setStudentAnswers(strings(new JSONArray(rs.getString("answers"))));
+                    a.setScore(rs.getDouble("score"));
+                    a.setPassed(rs.getBoolean("passed"));
+                    a.setAttemptDate(Instant.parse(rs.getString("attempt_date")));
+                    attempts.add(a);
+                }
+            }
+        }
+        return attempts;
+    }
+
+    // ---- certificates
+
+    @Override
+    public List<Certificate> loadCertificates() {
+        return query(new ArrayList<>(), () -> readCertificates(""));
+    }
+
+    @Override
+    public void saveCertificates(List<Certificate> certificates) {
+        transaction(null, () -> {
+            update("DELETE FROM certificates");
+            for (Certificate cert : certificates) {
+                insertCertificate(cert);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void saveCertificate(Certificate cert) {
+        transaction(null, () -> {
+            cert.setVersion(nextVersion("certificates", "certificate_id", cert.getCertificateID()));
+            update("DELETE FROM certificates WHERE certificate_id = ?", cert.getCertificateID());
+            insertCertificate(cert);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean compareAndSetCertificate(Certificate cert, long expectedVersion) {
+        return transaction(false, () -> {
+            if (!deleteAtVersion("certificates", "certificate_id", cert.getCertificateID(), expectedVersion)) {
+                return false;
+            }
+            cert.setVersion(expectedVersion + 1);
+            insertCertificate(cert);
+            return true;
+        });
+    }
+
+    @Override
+    public int generateCertificateId() {
+        return ids.next("certificate",
+                () -> highest("SELECT COALESCE(MAX(certificate_id), 0) FROM certificates"));
+    }
+
+    @Override
+    public Certificate getCertificateById(int certificateId) {
+        return query(null, () -> first(readCertificates(" WHERE certificate_id = ?", certificateId)));
+    }
+
+    private void insertCertificate(Certificate cert) throws SQLException {
+        update("INSERT INTO certificates (" + CERTIFICATE_COLUMNS + ") VALUES (" + placeholders(CERTIFICATE_COLUMNS) + ")",
+                cert.getCertificateID(), cert.getStudentID(), cert.getCourseID(), cert.getStudentName(),
+                cert.getCourseTitle(), cert.getInstructorName(), cert.getFinalScore(),
+                cert.getIssueDate() != null ? cert.getIssueDate().getTime() : null, cert.getVersion());
+    }
+
+    private List<Certificate> readCertificates(String where, Object... params) throws SQLException {
+        List<Certificate> certificates = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT " + CERTIFICATE_COLUMNS + " FROM certificates" + where + " ORDER BY certificate_id")) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Certificate cert = new Certificate();
+                    cert.setCertificateID(rs.getInt("certificate_id"));
+                    cert.setStudentID(rs.getInt("student_id"));
+                    cert.setCourseID(rs.getInt("course_id"));
+                    cert.setStudentName(rs.getString("student_name"));
+                    cert.setCourseTitle(rs.getString("course_title"));
+                    cert.setInstructorName(rs.getString("instructor_name"));
+                    cert.setFinalScore(rs.getDouble("final_score"));
+                    long issued = rs.getLong("issue_date");
+                    cert.setIssueDate(rs.wasNull() ? null : new Date(issued));
+                    cert.setVersion(rs.getLong("version"));
+                    certificates.add(cert);
+                }
+            }
+        }
+        return certificates;
+    }
+
+    // ---- transactions
+
+    // The four tables are read in one database transaction; the report then
+    // works on the copies without touching the connection
+    @Override
+    public StoreSnapshot snapshot() {
+        return transaction(new StoreSnapshot(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>()),
+                () -> new StoreSnapshot(
+                        readUsers("SELECT " + USER_COLUMNS + " FROM users ORDER BY user_id"),
+                        readCourses(""), readQuizzes(""), readAttempts("")));
+    }
+
+    // Thrown inside a transaction to roll it back on a failed version check
+    private static class Conflict extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    @Override
+    public boolean commit(Transaction tx) {
+        boolean committed;
+        try {
+            committed = transaction(false, () -> {
+                for (Transaction.Op op : tx.ops()) {
+                    String table = op.kind == Transaction.Kind.USER ? "users"
+                            : op.kind == Transaction.Kind.COURSE ? "courses" : "certificates";
+                    String key = op.kind == Transaction.Kind.USER ? "user_id"
+                            : op.kind == Transaction.Kind.COURSE ? "course_id" : "certificate_id";
+                    Long stored = storedVersion(table, key, op.key);
+                    long version = stored != null ? stored : 0;
+                    if (op.expectedVersion != Transaction.ANY_VERSION && op.expectedVersion != version) {
+                        throw new Conflict();
+                    }
+                    if (op.isDelete()) {
+                        update("DELETE FROM lessons WHERE course_id = ?", op.key);
+                        update("DELETE FROM course_students WHERE course_id = ?", op.key);
+                        update("DELETE FROM courses WHERE course_id = ?", op.key);
+                    } else if (op.entity instanceof User) {
+                        ((User) op.entity).setVersion(version + 1);
+                        update("DELETE FROM users WHERE user_id = ?", op.key);
+                        insertUser((User) op.entity);
+                    } else if (op.entity instanceof Course) {
+                        ((Course) op.entity).setVersion(version + 1);
+                        replaceCourse((Course) op.entity);
+                    } else {
+                        ((Certificate) op.entity).setVersion(version + 1);
+                        update("DELETE FROM certificates WHERE certificate_id = ?", op.key);
+                        insertCertificate((Certificate) op.entity);
+                    }
+                }
+                return true;
+            });
+        } catch (Conflict e) {
+            committed = false;
+        }
+        if (!committed) {
+            tx.revertVersions();
+        }
+        return committed;
+    }
+
+    private static <T> T first(List<T> list) {
+        return list.isEmpty() ? null : list.get(0);
+    }
+}
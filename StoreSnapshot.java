@@ -0,0 +1,140 @@
+package database;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import model.Course;
+import model.Quiz;
+import model.QuizAttempt;
+import model.Student;
+import model.User;
+
+// The users, courses, quizzes and attempts of a store as they were at one
+// moment, for reports that make many reads and must see one consistent
+// state. Taking it (DataStore.snapshot) is a short consistent cut; after
+// that nothing here takes a store lock, and later writes do not show up.
+// The lists cannot be changed. The entities are the snapshot's own, but
+// may be shared with other snapshots of the same data, so treat them as
+// read-only.
+public final class StoreSnapshot {
+
+    private final List<User> users;
+    private final List<Course> courses;
+    private final List<Quiz> quizzes;
+    private final List<QuizAttempt> attempts;
+
+    // built on first use
+    private Map<String, User> usersById;
+    private Map<Integer, Course> coursesById;
+    private AttemptIndex attemptIndex;
+    private QuizCatalog quizCatalog;
+    private AttemptColumns attemptColumns;
+
+    StoreSnapshot(List<User> users, List<Course> courses, List<Quiz> quizzes, List<QuizAttempt> attempts) {
+        this(users, courses, quizzes, attempts, null);
+    }
+
+    // columns, if given, must hold exactly the attempts (see AttemptColumns.frozen)
+    StoreSnapshot(List<User> users, List<Course> courses, List<Quiz> quizzes, List<QuizAttempt> attempts,
+                  AttemptColumns columns) {
+        this.users = Collections.unmodifiableList(users);
+        this.courses = Collections.unmodifiableList(courses);
+        this.quizzes = Collections.unmodifiableList(quizzes);
+        this.attempts = Collections.unmodifiableList(attempts);
+        this.attemptColumns = columns;
+    }
+
+    public List<User> getUsers() {
+        return users;
+    }
+
+    public List<Course> getCourses() {
+        return courses;
+    }
+
+    public List<Quiz> getQuizzes() {
+        return quizzes;
+    }
+
+    public List<QuizAttempt> getQuizAttempts() {
+        return attempts;
+    }
+
+    public synchronized User findUser(String userId) {
+        if (usersById == null) {
+            usersById = new HashMap<>();
+            for (User u : users) {
+                usersById.putIfAbsent(u.getUserId(), u);
+            }
+        }
+        return usersById.get(userId);
+    }
+
+    public Student findStudent(String studentId) {
+        User u = findUser(studentId);
+        return u instanceof Student ? (Student) u : null;
+    }
+
+    public synchronized Course getCourseById(int courseId) {
+        if (coursesById == null) {
+            coursesById = new HashMap<>();
+            for (Course c : courses) {
+                coursesById.putIfAbsent(c.getCourseID(), c);
+            }
+        }
+        return coursesById.get(courseId);
+    }
+
+    public synchronized List<Quiz> getQuizzesForCourse(int courseId) {
+        if (quizCatalog == null) {
+            quizCatalog = new QuizCatalog();
+            for (Quiz q : quizzes) {
+                quizCatalog.add(q);
+            }
+        }
+        return quizCatalog.getQuizzesForCourse(courseId);
+    }
+
+    public List<QuizAttempt> getStudentQuizAttempts(String studentId, int quizId) {
+        return index().getAttempts(studentId, quizId);
+    }
+
+    public int getQuizAttemptCount(String studentId, int quizId) {
+        return index().getAttemptCount(studentId, quizId);
+    }
+
+    public double getBestQuizScore(String studentId, int quizId) {
+        return index().getBestScore(studentId, quizId);
+    }
+
+    public boolean hasPassedQuiz(String studentId, int lessonId, int quizId) {
+        return index().hasPassed(studentId, lessonId, quizId);
+    }
+
+    // The course's attempts summed up in one columnar scan; for reports
+    // over many students this replaces per-(student, quiz) lookups
+    public CourseAttemptStats getCourseAttemptStats(int courseId) {
+        return columns().scanCourse(courseId);
+    }
+
+    private synchronized AttemptColumns columns() {
+        if (attemptColumns == null) {
+            attemptColumns = new AttemptColumns();
+            for (QuizAttempt attempt : attempts) {
+                attemptColumns.add(attempt);
+            }
+        }
+        return attemptColumns;
+    }
+
+    private synchronized AttemptIndex index() {
+        if (attemptIndex == null) {
+            attemptIndex = new AttemptIndex();
+            for (QuizAttempt attempt : attempts) {
+                attemptIndex.add(attempt);
+            }
+        }
+        return attemptIndex;
+    }
+}
@@ -1,27 +1,36 @@
 package model;
 
-import database.JsonDatabaseManager;
+import database.DataStore;
+import database.DataStores;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Student extends User {
 
-    private List<String> enrolledCourses;                    // list of courseIds
-    private Map<String, List<String>> completedLessons;      // courseId -> list of lessonIds
+    // Ids are kept as ints; the String methods below are views for the
+    // code and file formats that use decimal strings
+    private IntSet enrolledCourses;                          // courseIds
+    private IntSetMap completedLessons;                      // courseId -> lessonIds
     private Map<String, Double> quizScores;                  // lessonId -> score
-    private List<String> earnedCertificates;                 // list of certificateIds
+    private IntSet earnedCertificates;                       // certificateIds
 
-    private JsonDatabaseManager dbManager;
+    // courseId -> completion bitmap, dropped when the course's lessons or
+    // this student's completions change
+    private final Map<Integer, CachedCompletion> completionCache = new ConcurrentHashMap<>();
+
+    private DataStore dbManager;
 
     public Student(String userId, String username, String email, String passwordHash) {
         super(userId, username, email, passwordHash, "Student");
-        this.enrolledCourses = new ArrayList<>();
-        this.completedLessons = new HashMap<>();
+        this.enrolledCourses = new IntSet();
+        this.completedLessons = new IntSetMap();
         this.quizScores = new HashMap<>();
-        this.earnedCertificates = new ArrayList<>();
-        this.dbManager = JsonDatabaseManager.getInstance();
+        this.earnedCertificates = new IntSet();
+        this.dbManager = DataStores.getDefault();
     }
 
     @Override
@@ -44,23 +53,13 @@ public class Student extends User {
             return false;
         }
 
-        if (!enrolledCourses.contains(courseId)) {
-            enrolledCourses.add(courseId);
-            completedLessons.put(courseId, new ArrayList<>());
-
+        if (enroll(course.getCourseID())) {
             // Add student to the course’s enrolled list
             course.enrollStudent(Integer.parseInt(this.getUserId()));
             dbManager.updateCourse(course);
 
             // Update student in database
-            List<User> users = dbManager.loadUsers();
-            for (int i = 0; i < users.size(); i++) {
-                if (users.get(i).getUserId().equals(this.getUserId())) {
-                    users.set(i, this);
-                    break;
-                }
-            }
-            dbManager.saveUsers(users);
+            dbManager.saveUser(this);
 
             System.out.println("Successfully enrolled in course: " + course.getCourseTitle());
             return true;
@@ -69,10 +68,28 @@ public class Student extends User {
         return false;
     }
 
-    public boolean isEnrolledIn(String courseId) {
+    // Adds the course with no lessons completed; false if already enrolled
+    public boolean enroll(int courseId) {
+        if (!enrolledCourses.add(courseId)) {
+            return false;
+        }
+        completedLessons.getOrCreate(courseId);
+        return true;
+    }
+
+    public boolean isEnrolledIn(int courseId) {
         return enrolledCourses.contains(courseId);
     }
 
+    public boolean isEnrolledIn(String courseId) {
+        Integer id = parseId(courseId);
+        return id != null && isEnrolledIn(id);
+    }
+
+    public int[] getEnrolledCourseIds() {
+        return enrolledCourses.toArray();
+    }
+
 
     public List<Course> getAvailableCourses() {
         List<Course> allCourses = dbManager.getAllCourses();
@@ -140,64 +157,201 @@ public class Student extends User {
         System.out.println("Earning certificate for course: " + courseID);
     }
 
+    public boolean addCertificate(int certificateId) {
+        return earnedCertificates.add(certificateId);
+    }
+
     public void addCertificate(String certificateId) {
-        if (!earnedCertificates.contains(certificateId)) {
-            earnedCertificates.add(certificateId);
-        }
+        addCertificate(Integer.parseInt(certificateId));
     }
 
-    public boolean hasCertificate(String certificateId) {
+    public boolean hasCertificate(int certificateId) {
         return earnedCertificates.contains(certificateId);
     }
 
+    public boolean hasCertificate(String certificateId) {
+        Integer id = parseId(certificateId);
+        return id != null && hasCertificate(id);
+    }
+
+    public int[] getCertificateIds() {
+        return earnedCertificates.toArray();
+    }
+
+    // A copy; change the certificates through addCertificate
     public List<String> getEarnedCertificates() {
-        return earnedCertificates;
+        return toStrings(earnedCertificates);
     }
 
     public void setEarnedCertificates(List<String> earnedCertificates) {
-        this.earnedCertificates = earnedCertificates != null ?
-                earnedCertificates : new ArrayList<>();
+        this.earnedCertificates = toIntSet(earnedCertificates);
+    }
+
+    public void setCertificateIds(int[] certificateIds) {
+        this.earnedCertificates = new IntSet(certificateIds);
+    }
+
+    // false when the lesson was already completed
+    public boolean markLessonComplete(int courseId, int lessonId) {
+        if (!completedLessons.getOrCreate(courseId).add(lessonId)) {
+            return false;
+        }
+        completionCache.remove(courseId);
+        return true;
     }
 
-   
     public void markLessonComplete(String courseId, String lessonId) {
-        if (!completedLessons.containsKey(courseId)) {
-            completedLessons.put(courseId, new ArrayList<>());
+        markLessonComplete(Integer.parseInt(courseId), Integer.parseInt(lessonId));
+    }
+
+    public boolean isLessonCompleted(int courseId, int lessonId) {
+        IntSet lessons = completedLessons.get(courseId);
+        return lessons != null && lessons.contains(lessonId);
+    }
+
+    public boolean isLessonCompleted(String courseId, String lessonId) {
+        Integer course = parseId(courseId);
+        Integer lesson = parseId(lessonId);
+        return course != null && lesson != null && isLessonCompleted(course, lesson);
+    }
+
+    public int getCompletedLessonCount(int courseId) {
+        IntSet lessons = completedLessons.get(courseId);
+        return lessons != null ? lessons.size() : 0;
+    }
+
+    public int[] getCompletedLessonIds(int courseId) {
+        IntSet lessons = completedLessons.get(courseId);
+        return lessons != null ? lessons.toArray() : new int[0];
+    }
+
+    // The completed lessons of the course as a bitmap over its lesson
+    // positions. Built on first use and reused until the course's lesson
+    // list or this student's completions change.
+    public LessonBitmap getLessonCompletion(Course course) {
+        Course.LessonIndex index = course.lessonIndex();
+        CachedCompletion cached = completionCache.get(course.getCourseID());
+        if (cached != null && cached.index == index) {
+            return cached.bitmap;
         }
-        List<String> lessons = completedLessons.get(courseId);
-        if (!lessons.contains(lessonId)) {
-            lessons.add(lessonId);
+        LessonBitmap bitmap = new LessonBitmap(index.ids.length);
+        IntSet lessons = completedLessons.get(course.getCourseID());
+        if (lessons != null && !lessons.isEmpty()) {
+            for (int position = 0; position < index.ids.length; position++) {
+                if (lessons.contains(index.ids[position])) {
+                    bitmap.set(position);
+                }
+            }
         }
+        completionCache.put(course.getCourseID(), new CachedCompletion(index, bitmap));
+        return bitmap;
     }
 
-    public boolean isLessonCompleted(String courseId, String lessonId) {
-        return completedLessons.containsKey(courseId) &&
-                completedLessons.get(courseId).contains(lessonId);
+    // The courses that have a completion entry, enrolled ones included
+    public int[] getProgressCourseIds() {
+        int[] ids = new int[completedLessons.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = completedLessons.keyAt(i);
+        }
+        return ids;
     }
 
     public double getCourseProgress(String courseId, int totalLessons) {
-        if (!completedLessons.containsKey(courseId) || totalLessons == 0) {
+        Integer id = parseId(courseId);
+        if (id == null || !completedLessons.containsKey(id) || totalLessons == 0) {
             return 0.0;
         }
-        return (double) completedLessons.get(courseId).size() / totalLessons * 100;
+        return (double) getCompletedLessonCount(id) / totalLessons * 100;
     }
 
-    
+    // A copy; enroll through enroll()
     public List<String> getEnrolledCourses() {
-        return enrolledCourses;
+        return toStrings(enrolledCourses);
     }
 
     public void setEnrolledCourses(List<String> enrolledCourses) {
-        this.enrolledCourses = enrolledCourses != null ?
-                enrolledCourses : new ArrayList<>();
+        this.enrolledCourses = toIntSet(enrolledCourses);
+    }
+
+    public void setEnrolledCourseIds(int[] courseIds) {
+        this.enrolledCourses = new IntSet(courseIds);
     }
 
+    // A copy; record completions through markLessonComplete
     public Map<String, List<String>> getCompletedLessons() {
-        return completedLessons;
+        Map<String, List<String>> completed = new LinkedHashMap<>();
+        for (int i = 0; i < completedLessons.size(); i++) {
+            completed.put(String.valueOf(completedLessons.keyAt(i)), toStrings(completedLessons.valueAt(i)));
+        }
+        return completed;
     }
 
     public void setCompletedLessons(Map<String, List<String>> completedLessons) {
-        this.completedLessons = completedLessons != null ?
-                completedLessons : new HashMap<>();
+        this.completedLessons = new IntSetMap();
+        completionCache.clear();
+        if (completedLessons != null) {
+            for (Map.Entry<String, List<String>> e : completedLessons.entrySet()) {
+                Integer courseId = parseId(e.getKey());
+                if (courseId != null) {
+                    IntSet lessons = this.completedLessons.getOrCreate(courseId);
+                    for (int lessonId : toIntSet(e.getValue()).toArray()) {
+                        lessons.add(lessonId);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Student copy() {
+        Student s = new Student(userId, username, email, passwordHash);
+        s.enrolledCourses = enrolledCourses.copy();
+        s.completedLessons = completedLessons.copy();
+        s.setQuizScores(new HashMap<>(quizScores));
+        s.earnedCertificates = earnedCertificates.copy();
+        s.setVersion(version);
+        return s;
+    }
+
+    private static final class CachedCompletion {
+        final Course.LessonIndex index;
+        final LessonBitmap bitmap;
+
+        CachedCompletion(Course.LessonIndex index, LessonBitmap bitmap) {
+            this.index = index;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private static List<String> toStrings(IntSet ids) {
+        List<String> strings = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            strings.add(String.valueOf(ids.get(i)));
+        }
+        return strings;
+    }
+
+    // Ids that are not numbers cannot be stored and are reported
+    private static IntSet toIntSet(List<String> ids) {
+        IntSet set = new IntSet();
+        if (ids != null) {
+            for (String id : ids) {
+                Integer value = parseId(id);
+                if (value != null) {
+                    set.add(value);
+                } else {
+                    System.err.println("Ignoring non-numeric id: " + id);
+                }
+            }
+        }
+        return set;
+    }
+
+    private static Integer parseId(String id) {
+        try {
+            return Integer.valueOf(id.trim());
+        } catch (NumberFormatException | NullPointerException e) {
+            return null;
+        }
     }
 }
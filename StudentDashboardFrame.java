@@ -10,7 +10,9 @@ import service.CourseCompletionTracker;
 import model.Certificate;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import database.JsonDatabaseManager;
+import database.DataStore;
+import database.DataStores;
+import database.DatabaseWatcher;
 import java.awt.event.ActionListener;
 
 
@@ -311,7 +313,7 @@ private void setupUI() {
         String courseName = parts[1];
         
         // Check for certificate
-        JsonDatabaseManager db = new JsonDatabaseManager();
+        DataStore db = DataStores.getDefault();
         CertificateService cs = new CertificateService(db);
         
         // Check if completed
@@ -389,7 +391,7 @@ String selected = availableList.getSelectedValue();
     }//GEN-LAST:event_enrollBtnActionPerformed
 
     private void certificatesBtnActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_certificatesBtnActionPerformed
-    JsonDatabaseManager db = new JsonDatabaseManager();
+    DataStore db = DataStores.getDefault();
     CertificateService cs = new CertificateService(db);
     
     // Get certificates
@@ -518,6 +520,28 @@ private void loadEnrolledCourses() {
             enrolledList.setModel(model);
         }
     }
+// Reload the lists when another client changes courses or this student
+private final DatabaseWatcher.Listener changeListener = changed -> {
+    if (changed.contains(DatabaseWatcher.DataSet.COURSES) || changed.contains(DatabaseWatcher.DataSet.USERS)) {
+        SwingUtilities.invokeLater(() -> {
+            loadAvailableCourses();
+            loadEnrolledCourses();
+        });
+    }
+};
+
+@Override
+public void addNotify() {
+    super.addNotify();
+    DataStores.getDefault().addChangeListener(changeListener);
+}
+
+@Override
+public void removeNotify() {
+    DataStores.getDefault().removeChangeListener(changeListener);
+    super.removeNotify();
+}
+
 private void loadAvailableCourses() {
     DefaultListModel<String> model = new DefaultListModel<>();
     try {
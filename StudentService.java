@@ -1,6 +1,7 @@
 package service;
 
-import database.JsonDatabaseManager;
+import database.DataStore;
+import database.Transaction;
 import model.Course;
 import model.Lesson;
 import model.Student;
@@ -13,10 +14,10 @@ import java.util.List;
 
 public class StudentService {
 
-    private JsonDatabaseManager db;
+    private DataStore db;
     private QuizService quizService;
 
-    public StudentService(JsonDatabaseManager db) {
+    public StudentService(DataStore db) {
         this.db = db;
         this.quizService = new QuizService(db);
     }
@@ -67,22 +68,31 @@ public class StudentService {
             return false;
         }
 
-        if (student.isEnrolledIn(String.valueOf(courseId))) {
+        if (student.isEnrolledIn(courseId)) {
             System.out.println("Student already enrolled in course " + courseId);
             return false;
         }
 
-        student.enrollCourse(String.valueOf(courseId));
-        
+        // Course and student are written together; both are re-read and the
+        // transaction retried if someone else wrote either in between
         int studentIdInt = Integer.parseInt(student.getUserId());
-        if (!course.getEnrolledStudentIDs().contains(studentIdInt)) {
-            course.enrollStudent(studentIdInt);
-        }
-
-        db.saveUsers(users);
-        db.saveCourses(courses);
-
-        return true;
+        return OptimisticUpdates.commit(db, "Enrollment of " + studentId + " in " + courseId, () -> {
+            Course c = db.getCourseById(courseId);
+            User u = db.findUser(studentId);
+            if (c == null || !c.isApproved() || !(u instanceof Student)
+                    || ((Student) u).isEnrolledIn(courseId)) {
+                return null;
+            }
+            Course updatedCourse = c.copy();
+            Student updatedStudent = ((Student) u).copy();
+            if (!updatedCourse.isStudentEnrolled(studentIdInt)) {
+                updatedCourse.enrollStudent(studentIdInt);
+            }
+            updatedStudent.enroll(courseId);
+            return new Transaction()
+                    .putCourse(updatedCourse, c.getVersion())
+                    .putUser(updatedStudent, u.getVersion());
+        });
     }
 
     public List<Course> getEnrolledCourses(String studentId) {
@@ -91,8 +101,7 @@ public class StudentService {
         if (student == null) return enrolled;
 
         List<Course> courses = db.loadCourses();
-        for (String cid : student.getEnrolledCourses()) {
-            int id = Integer.parseInt(cid);
+        for (int id : student.getEnrolledCourseIds()) {
             for (Course c : courses) {
                 if (c.getCourseID() == id) {
                     enrolled.add(c);
@@ -112,7 +121,14 @@ public class StudentService {
         return c.getLessons();
     }
 
+    // Serialized per student and course, so a repeated click finds the
+    // lesson already completed
     public boolean markLessonCompleted(String studentId, int courseId, int lessonId) {
+        return StripedLocks.PROGRESS.withLock(studentId, String.valueOf(courseId),
+                () -> markLessonCompletedLocked(studentId, courseId, lessonId));
+    }
+
+    private boolean markLessonCompletedLocked(String studentId, int courseId, int lessonId) {
         List<User> users = db.loadUsers();
         
         Student student = null;
@@ -128,12 +144,12 @@ public class StudentService {
             return false;
         }
 
-        if (!student.isEnrolledIn(String.valueOf(courseId))) {
+        if (!student.isEnrolledIn(courseId)) {
             System.err.println("Student not enrolled in course: " + courseId);
             return false;
         }
 
-        if (student.isLessonCompleted(String.valueOf(courseId), String.valueOf(lessonId))) {
+        if (student.isLessonCompleted(courseId, lessonId)) {
             System.out.println("Lesson already completed: " + lessonId);
             return false; 
         }
@@ -166,19 +182,7 @@ public class StudentService {
             }
         }
 
-        String courseIdStr = String.valueOf(courseId);
-        String lessonIdStr = String.valueOf(lessonId);
-        
-        List<String> completed = student.getCompletedLessons()
-            .getOrDefault(courseIdStr, new ArrayList<>());
-        
-        if (!completed.contains(lessonIdStr)) {
-            completed.add(lessonIdStr);
-            student.getCompletedLessons().put(courseIdStr, completed);
-        }
-
-        db.saveUsers(users);
-        return true;
+        return OptimisticUpdates.updateStudent(db, studentId, s -> s.markLessonComplete(courseId, lessonId));
     }
 
     public double calculateProgress(String studentId, String courseId) {
@@ -195,16 +199,7 @@ public class StudentService {
             return 0;
         }
 
-        List<String> completed = student.getCompletedLessons()
-            .getOrDefault(courseId, new ArrayList<>());
-        
-        int total = course.getLessons().size();
-        
-        if (total == 0) {
-            return 0;
-        }
-
-        return (completed.size() * 100.0) / total;
+        return student.getLessonCompletion(course).percentComplete();
     }
 
     public Quiz getQuizForLesson(int courseId, int lessonId) {
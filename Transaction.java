@@ -0,0 +1,104 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import model.Certificate;
+import model.Course;
+import model.User;
+
+// Changes to several records that DataStore.commit applies together or not
+// at all. Each change names the version the stored record must still be
+// at (0: it must not exist yet), or ANY_VERSION to skip that check; if one
+// check fails nothing is written. Stored records get their new version
+// on commit.
+public class Transaction {
+
+    public static final long ANY_VERSION = -1;
+
+    enum Kind { USER, COURSE, CERTIFICATE }
+
+    static final class Op {
+        final Kind kind;
+        final Object key;
+        final Object entity; // null for a delete
+        final long expectedVersion;
+        final long originalVersion;
+
+        Op(Kind kind, Object key, Object entity, long expectedVersion, long originalVersion) {
+            this.kind = kind;
+            this.key = key;
+            this.entity = entity;
+            this.expectedVersion = expectedVersion;
+            this.originalVersion = originalVersion;
+        }
+
+        boolean isDelete() {
+            return entity == null;
+        }
+    }
+
+    private final List<Op> ops = new ArrayList<>();
+
+    public Transaction putUser(User user, long expectedVersion) {
+        ops.add(new Op(Kind.USER, user.getUserId(), user, expectedVersion, user.getVersion()));
+        return this;
+    }
+
+    public Transaction putUser(User user) {
+        return putUser(user, ANY_VERSION);
+    }
+
+    public Transaction putCourse(Course course, long expectedVersion) {
+        ops.add(new Op(Kind.COURSE, course.getCourseID(), course, expectedVersion, course.getVersion()));
+        return this;
+    }
+
+    public Transaction putCourse(Course course) {
+        return putCourse(course, ANY_VERSION);
+    }
+
+    public Transaction deleteCourse(int courseId) {
+        ops.add(new Op(Kind.COURSE, courseId, null, ANY_VERSION, 0));
+        return this;
+    }
+
+    public Transaction putCertificate(Certificate cert, long expectedVersion) {
+        ops.add(new Op(Kind.CERTIFICATE, cert.getCertificateID(), cert, expectedVersion, cert.getVersion()));
+        return this;
+    }
+
+    public Transaction putCertificate(Certificate cert) {
+        return putCertificate(cert, ANY_VERSION);
+    }
+
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    List<Op> ops() {
+        return Collections.unmodifiableList(ops);
+    }
+
+    boolean touches(Kind kind) {
+        for (Op op : ops) {
+            if (op.kind == kind) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A failed commit leaves the entities with the versions they had
+    void revertVersions() {
+        for (Op op : ops) {
+            if (op.entity instanceof User) {
+                ((User) op.entity).setVersion(op.originalVersion);
+            } else if (op.entity instanceof Course) {
+                ((Course) op.entity).setVersion(op.originalVersion);
+            } else if (op.entity instanceof Certificate) {
+                ((Certificate) op.entity).setVersion(op.originalVersion);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package database;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Redo log for the JSON store's transactions, one file per process:
+// <dir>/tx-<n>.wal, held under a FileChannel lock while the process runs.
+//
+//   T <id> <crc32> <ops>   a commit, forced to disk before any data file
+//                          is touched
+//   D <id>                 all of its records have been written
+//
+// Commits running at the same time share one force. When no commit is in
+// flight and the log has grown past CHECKPOINT_BYTES it is emptied. At
+// startup the logs that no live process holds are replayed (commits
+// without a D line only) and emptied; a torn or corrupt last line is a
+// commit that never returned.
+class TransactionLog {
+
+    interface Redo {
+        void apply(String ops) throws IOException;
+    }
+
+    private static final long CHECKPOINT_BYTES = 1024 * 1024;
+
+    private final File dir;
+    private FileChannel channel;
+    private long nextId;
+    private int active;
+
+    private final Object syncLock = new Object();
+    private long syncedPosition;
+
+    TransactionLog(String dir) {
+        this.dir = new File(dir);
+    }
+
+    // Replays what crashed processes left behind, then claims a log file
+    synchronized void open(Redo redo) throws IOException {
+        dir.mkdirs();
+        File[] logs = dir.listFiles((d, name) -> name.matches("tx-\\d+\\.wal"));
+        if (logs == null) {
+            throw new IOException("Cannot list " + dir);
+        }
+        Arrays.sort(logs);
+        int last = 0;
+        for (File log : logs) {
+            last = Math.max(last, Integer.parseInt(log.getName().replaceAll("\\D", "")));
+            FileChannel ch = FileChannel.open(log.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock = ch.tryLock();
+            if (lock == null) {
+                // a running process owns it
+                ch.close();
+                continue;
+            }
+            try {
+                for (String ops : unfinished(log)) {
+                    redo.apply(ops);
+                }
+                ch.truncate(0);
+                ch.force(true);
+            } catch (IOException | RuntimeException e) {
+                // left as it is for the next start
+                System.err.println("Could not replay transaction log " + log + ": " + e.getMessage());
+                ch.close();
+                continue;
+            }
+            if (channel == null) {
+                channel = ch;
+            } else {
+                ch.close();
+            }
+        }
+
+        while (channel == null) {
+            File log = new File(dir, "tx-" + (++last) + ".wal");
+            try {
+                FileChannel ch = FileChannel.open(log.toPath(), StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                if (ch.tryLock() != null) {
+                    channel = ch;
+                } else {
+                    ch.close();
+                }
+            } catch (FileAlreadyExistsException e) {
+                // another process starting up took this number
+            }
+        }
+    }
+
+    // Appends a commit record and returns its id once it is on disk
+    long commit(String ops) throws IOException {
+        long id;
+        long position;
+        synchronized (this) {
+            if (channel == null) {
+                throw new IOException("Transaction log is not open");
+            }
+            id = ++nextId;
+            write("T " + id + " " + crc(ops) + " " + ops + "\n");
+            position = channel.position();
+            active++;
+        }
+        try {
+            syncTo(position);
+        } catch (IOException e) {
+            finish(id);
+            throw e;
+        }
+        return id;
+    }
+
+    // Marks a commit applied; not forced, replaying an applied commit is harmless
+    synchronized void finish(long id) throws IOException {
+        write("D " + id + "\n");
+        if (--active == 0 && channel.size() > CHECKPOINT_BYTES) {
+            channel.truncate(0);
+            synchronized (syncLock) {
+                syncedPosition = 0;
+            }
+        }
+    }
+
+    private void write(String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Group commit: one force covers every record written before it
+    private void syncTo(long position) throws IOException {
+        synchronized (syncLock) {
+            if (syncedPosition >= position) {
+                return;
+            }
+            FileChannel ch = channel;
+            long end = ch.position();
+            ch.force(false);
+            syncedPosition = end;
+        }
+    }
+
+    // Ops of the commits in the log that have no D line, in commit order
+    private static List<String> unfinished(File log) throws IOException {
+        Map<Long, String> commits = new LinkedHashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(log.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(" ", 4);
+                try {
+                    if (parts[0].equals("T") && parts.length == 4) {
+                        if (Long.parseLong(parts[2]) != crc(parts[3])) {
+                            break;
+                        }
+                        commits.put(Long.parseLong(parts[1]), parts[3]);
+                    } else if (parts[0].equals("D") && parts.length == 2) {
+                        commits.remove(Long.parseLong(parts[1]));
+                    } else {
+                        break;
+                    }
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+        }
+        return new ArrayList<>(commits.values());
+    }
+
+    private static long crc(String ops) {
+        CRC32 crc = new CRC32();
+        crc.update(ops.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
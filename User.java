@@ -6,6 +6,7 @@ public abstract class User {
     protected String email;
     protected String passwordHash;
     protected String role; // whether user is a student, instructor or admin
+    protected long version = 1; // bumped on every save; 0 stands for a record not stored yet
     
     public User(String userId, String username, String email, 
                 String passwordHash, String role) {
@@ -17,6 +18,9 @@ public abstract class User {
     }
     
     public abstract void displayDashboard();
+
+    // An independent copy to change and save with compare-and-set
+    public abstract User copy();
     
     public String getUserId() {
         return userId;
@@ -49,6 +53,12 @@ public abstract class User {
     public void setRole(String role) {
         this.role = role;
     }
+    public long getVersion() {
+        return version;
+    }
+    public void setVersion(long version) {
+        this.version = version;
+    }
     
     @Override
     public String toString() {
@@ -60,4 +70,4 @@ public abstract class User {
                 '}';
     }
     
-}
\ No newline at end of file
+}
\ No newline at end of file
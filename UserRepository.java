@@ -0,0 +1,40 @@
+package database;
+
+import java.util.List;
+import model.Admin;
+import model.Student;
+import model.User;
+
+// Storage of students, instructors and admins
+public interface UserRepository {
+
+    List<User> loadUsers();
+
+    // Replaces the whole user collection
+    void saveUsers(List<User> users);
+
+    // Saves one new or changed user
+    void saveUser(User user);
+
+    // Saves the user only if the stored one still has expectedVersion (0 for
+    // a user not stored yet); false on a conflict. The saved user gets the
+    // next version. Callers change a copy() and retry on false.
+    boolean compareAndSetUser(User user, long expectedVersion);
+
+    User findUser(String userId);
+
+    Admin findAdminByUsername(String username);
+
+    default Student findStudent(String studentId) {
+        User u = findUser(studentId);
+        return u instanceof Student ? (Student) u : null;
+    }
+
+    default void saveAdmin(Admin admin) {
+        // Update existing admin or add new one
+        saveUser(admin);
+    }
+
+    // A new id that no user has had before, also across processes
+    int generateUserId();
+}
@@ -1,6 +1,6 @@
 package service;
 
-import database.JsonDatabaseManager;
+import database.DataStore;
 import model.Instructor;
 import model.Student;
 import model.User;
@@ -11,9 +11,9 @@ import java.util.List;
 
 public class UserService {
 
-    private final JsonDatabaseManager db;
+    private final DataStore db;
 
-    public UserService(JsonDatabaseManager db) {
+    public UserService(DataStore db) {
         this.db = db;
     }
 
@@ -46,7 +46,7 @@ public class UserService {
         String hashedPassword = PasswordHasher.hashPassword(password);
 
         User newUser;
-        String userId = String.valueOf(db.generateUserId(users));
+        String userId = String.valueOf(db.generateUserId());
 
         if (role.equalsIgnoreCase("Student")) {
             newUser = new Student(userId, username, email, hashedPassword);
@@ -56,8 +56,7 @@ public class UserService {
             return false; // invalid role
         }
 
-        users.add(newUser);
-        db.saveUsers(users);
+        db.saveUser(newUser);
 
         return true;
     }
@@ -0,0 +1,86 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Holds the newest pending write of each data file and performs it later:
+// every flushInterval, as soon as maxDirty saves have piled up, and on JVM
+// shutdown. A newer save of a file replaces its pending write, so bursts
+// cost one physical write. The writes take the data file's locks
+// themselves, so callers of flush must not hold them.
+class WriteBehindFlusher {
+
+    private final Map<String, Runnable> pending = new LinkedHashMap<>();
+    private final Map<String, Object> fileLocks = new HashMap<>();
+    private final int maxDirty;
+    private int dirty;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "write-behind-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Thread shutdownHook = new Thread(this::flush, "write-behind-shutdown");
+
+    WriteBehindFlusher(long flushIntervalMillis, int maxDirty) {
+        this.maxDirty = maxDirty;
+        executor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    void submit(String path, Runnable write) {
+        boolean full;
+        synchronized (this) {
+            pending.put(path, write);
+            full = ++dirty >= maxDirty;
+        }
+        if (full) {
+            executor.execute(this::flush);
+        }
+    }
+
+    void flush() {
+        List<String> paths;
+        synchronized (this) {
+            paths = new ArrayList<>(pending.keySet());
+            dirty = 0;
+        }
+        for (String path : paths) {
+            flush(path);
+        }
+    }
+
+    // Runs the pending write of one file, if any; returns once it is on disk
+    void flush(String path) {
+        synchronized (lockFor(path)) {
+            Runnable write;
+            synchronized (this) {
+                write = pending.remove(path);
+            }
+            if (write != null) {
+                write.run();
+            }
+        }
+    }
+
+    // Flushes everything and stops the background thread
+    void shutdown() {
+        executor.shutdown();
+        flush();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // already shutting down
+        }
+    }
+
+    private synchronized Object lockFor(String path) {
+        return fileLocks.computeIfAbsent(path, p -> new Object());
+    }
+}